@@ -4,7 +4,7 @@ import math
 import cmath
 import datetime
 import numbers
-from org.meteothink.math import ArrayMath, ArrayUtil
+from org.meteothink.math import ArrayMath, ArrayUtil, RollingUtil
 from org.meteothink.ndarray import Array, Dimension
 from org.meteothink.math.interpolate import InterpUtil
 
@@ -25,14 +25,14 @@ newaxis = None
 __all__ = [
     'pi','e','inf','nan','absolute','all','any','arange','arange1',    
     'argmin','argmax','array','asarray','asgridarray','asgriddata','asin','asmiarray','asstationdata',
-    'atleast_1d','atleast_2d','atan','atan2','ave_month','histogram','broadcast_to','cdiff','concatenate',
+    'atleast_1d','atleast_2d','atan','atan2','ave_month','histogram','histogram2d','broadcast_to','cdiff','concatenate',
     'corrcoef','cos','cumsum','degrees','delete','delnan','diag','diff','dim_array','datatable','dot','empty','exp','eye','fmax','fmin','full',
     'griddata','hcurl','hdivg','hstack','identity','interp2d',
     'interpn','isarray','isnan','linint2','linregress','linspace','log','log10',
     'logspace','magnitude','max','maximum','mean','median','meshgrid','min','minimum','monthname',
     'NDArray','newaxis','nonzero','ones','ones_like','pol2cart','polyval','power',
     'radians','reshape','repeat',
-    'rolling_mean','rot90','sin','smooth5','smooth9','sort','squeeze','argsort','sqrt','std','sum','tan',
+    'rolling','rolling_mean','rot90','sin','smooth5','smooth9','sort','squeeze','argsort','sqrt','std','sum','tan',
     'tile','transpose','trapz','vdot','unravel_index','var','vstack',
     'where','zeros','zeros_like'
     ]
@@ -1316,7 +1316,7 @@ def ave_month(data, colnames, t):
     r = TableUtil.ave_Month(a, colnames, jt)
     return PyTableData(TableData(r))
     
-def histogram(a, bins=10, density=False):
+def histogram(a, bins=10, density=False, weights=None):
     '''
     Compute the histogram of a set of data.
     
@@ -1326,6 +1326,8 @@ def histogram(a, bins=10, density=False):
     :param density: (*boolean*) If False, the result will contain the number of samples in 
         each bin. If True, the result is the value of the probability density function at 
         the bin, normalized such that the integral over the range is 1.
+    :param weights: (*array_like*) An array of weights, of the same shape as a. Each value in a 
+        only contributes its associated weight towards the bin count (instead of 1).
     
     :returns: The values of the histogram (hist) and the bin edges (length(hist)+1).
     '''
@@ -1335,10 +1337,18 @@ def histogram(a, bins=10, density=False):
         a = array([a])
     if isinstance(bins, list):
         bins = array(bins)
-    if isinstance(bins, int):
-        r = ArrayUtil.histogram(a.asarray(), bins)
+    if weights is None:
+        if isinstance(bins, int):
+            r = ArrayUtil.histogram(a.asarray(), bins)
+        else:
+            r = ArrayUtil.histogram(a.asarray(), bins.asarray())
     else:
-        r = ArrayUtil.histogram(a.asarray(), bins.asarray())
+        if isinstance(weights, list):
+            weights = array(weights)
+        if isinstance(bins, int):
+            r = ArrayUtil.histogram(a.asarray(), bins, weights.asarray())
+        else:
+            r = ArrayUtil.histogram(a.asarray(), bins.asarray(), weights.asarray())
     h = NDArray(r[0])
     b = NDArray(r[1])
 
@@ -1347,6 +1357,43 @@ def histogram(a, bins=10, density=False):
         return h / db / h.sum(), b
     else:
         return h, b
+        
+def histogram2d(x, y, bins=10, weights=None):
+    '''
+    Compute the bi-dimensional histogram of two data samples.
+    
+    :param x: (*array_like*) An array containing the x coordinates of the points to be histogrammed.
+    :param y: (*array_like*) An array containing the y coordinates of the points to be histogrammed.
+    :param bins: (*int or list*) The bin specification. If int, the number of bins for the two 
+        dimensions. If [int, int], the number of bins in each dimension. If a list of two arrays, 
+        the bin edges in each dimension.
+    :param weights: (*array_like*) An array of weights, of the same shape as x. Each point only 
+        contributes its associated weight towards the bin count (instead of 1).
+    
+    :returns: The bi-dimensional histogram of samples x and y (x along the first dimension), 
+        and the bin edges along the first and second dimensions.
+    '''
+    if isinstance(x, list):
+        x = array(x)
+    if isinstance(y, list):
+        y = array(y)
+    if isinstance(bins, int):
+        bins = [bins, bins]
+    edges = []
+    for a, b in zip([x, y], bins):
+        if isinstance(b, int):
+            edges.append(ArrayUtil.histogramEdges(a.asarray(), b))
+        else:
+            if isinstance(b, list):
+                b = array(b)
+            edges.append(b.asarray())
+    if weights is None:
+        r = ArrayUtil.histogram2d(x.asarray(), y.asarray(), edges[0], edges[1], None)
+    else:
+        if isinstance(weights, list):
+            weights = array(weights)
+        r = ArrayUtil.histogram2d(x.asarray(), y.asarray(), edges[0], edges[1], weights.asarray())
+    return NDArray(r[0]), NDArray(r[1]), NDArray(r[2])
                 
 def sort(a, axis=-1):
     """
@@ -1884,24 +1931,54 @@ def trapz(y, x=None, dx=1.0, axis=-1):
                     dims.append(y.dims[i])
             return DimArray(NDArray(r), dims, y.fill_value, y.proj)
             
-def rolling_mean(x, window, center=False):
+def rolling_mean(x, window, center=False, axis=None, min_periods=1):
     '''
     Moving average function
     
-    :param x: (*array_like*) Input data array. Must be vector (one dimension).
+    :param x: (*array_like*) Input data array.
     :param window: (*int*) Size of the moving window.
     :param center: (*boolean*) Set the labels at the center of the window. Default is ``False``.
+    :param axis: (*int*) Axis along which the moving average is computed. The default is to 
+        compute the moving average of the flattened array.
+    :param min_periods: (*int*) Minimum number of valid (not NaN) values in a window required 
+        to have a value. Default is 1.
     
     :returns: (*array_like*) Moving averaged array.
     '''
+    return rolling(x, window, 'mean', center, axis, min_periods)
+    
+def rolling(x, window, stat='mean', center=False, axis=None, min_periods=1, ddof=1):
+    '''
+    Moving window statistic function
+    
+    :param x: (*array_like*) Input data array.
+    :param window: (*int*) Size of the moving window.
+    :param stat: (*string*) The statistic of the moving window: ``sum``, ``mean``, ``var``, 
+        ``std``, ``min``, ``max`` or ``count``. Default is ``mean``.
+    :param center: (*boolean*) Set the labels at the center of the window. Default is ``False``.
+    :param axis: (*int*) Axis along which the statistic is computed. The default is to 
+        compute the statistic of the flattened array.
+    :param min_periods: (*int*) Minimum number of valid (not NaN) values in a window required 
+        to have a value. Default is 1.
+    :param ddof: (*int*) Delta degrees of freedom of ``var`` and ``std``, the divisor is the
+        number of valid values minus ``ddof``. Default is 1 (sample variance, as pandas).
+    
+    :returns: (*array_like*) Moving window statistic array.
+    '''
     if isinstance(x, list):
         x = array(x)
-    r = ArrayMath.rolling_mean(x.asarray(), window, center)
+    if axis is None:
+        x = x.flatten()
+        axis = 0
+    elif axis < 0:
+        axis += x.ndim
+    r = RollingUtil.rolling(x.asarray(), stat, window, axis, center, min_periods, ddof)
     return NDArray(r)  
     
 def smooth5(x):
     '''
-    Performs a 5 point smoothing to the 2D array x. 
+    Performs a 5 point smoothing to the array x. Arrays with more than 2 dimensions 
+    are smoothed on the last two dimensions.
     
     The result at each grid point is a weighted average of the grid point plus the 4 
     surrounding points. The center point receives a wieght of 1.0, the points at each side 
@@ -1912,14 +1989,14 @@ def smooth5(x):
     sum; points beyond the grid boundary are considered to be missing. Thus the final result 
     may be the result of an averaging with less than 5 points.
     
-    :param x: (*array_like*) Input 2D array.
+    :param x: (*array_like*) Input array - at least 2 dimensions.
     
-    :returned: (*array*) Smoothed 2D array.
+    :returned: (*array*) Smoothed array.
     '''
     if isinstance(x, list):
         x = array(x)
-    if x.ndim != 2:
-        print 'The array must be 2 dimension!'
+    if x.ndim < 2:
+        print 'The array must be at least 2 dimension!'
         raise ValueError()
     r = ArrayUtil.smooth5(x._array)
     if isinstance(x, DimArray):
@@ -1929,7 +2006,8 @@ def smooth5(x):
         
 def smooth9(x):
     '''
-    Performs a 9 point smoothing to the 2D array x. 
+    Performs a 9 point smoothing to the array x. Arrays with more than 2 dimensions 
+    are smoothed on the last two dimensions.
     
     The result at each grid point is a weighted average of the grid point plus the 4 
     surrounding points. The center point receives a wieght of 1.0, the points at each side 
@@ -1940,14 +2018,14 @@ def smooth9(x):
     sum; points beyond the grid boundary are considered to be missing. Thus the final result 
     may be the result of an averaging with less than 9 points.
     
-    :param x: (*array_like*) Input 2D array.
+    :param x: (*array_like*) Input array - at least 2 dimensions.
     
-    :returned: (*array*) Smoothed 2D array.
+    :returned: (*array*) Smoothed array.
     '''
     if isinstance(x, list):
         x = array(x)
-    if x.ndim != 2:
-        print 'The array must be 2 dimension!'
+    if x.ndim < 2:
+        print 'The array must be at least 2 dimension!'
         raise ValueError()
     r = ArrayUtil.smooth9(x._array)
     if isinstance(x, DimArray):
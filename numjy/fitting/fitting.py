@@ -8,47 +8,63 @@ __all__ = [
     'powerfit', 'expfit','polyfit','polyval','predict'
     ]
 
-def powerfit(x, y, func=False):
+def powerfit(x, y, func=False, axis=None):
     '''
     Power law fitting.
     
     :param x: (*array_like*) x data array.
     :param y: (*array_like*) y data array.
     :param func: (*boolean*) Return fit function (for predict function) or not. Default is ``False``.
+    :param axis: (*int*) Fit the series along the axis of y with the x data of the axis length. 
+        Default is ``None``, y is one series.
     
-    :returns: Fitting parameters and function (optional).
+    :returns: Fitting parameters and function (optional). With an axis, the parameter arrays and 
+        the coefficient of determination array.
     '''
     if isinstance(x, list):
         x = NDArray(ArrayUtil.array(x))
     if isinstance(y, list):
         y = NDArray(ArrayUtil.array(y))
+    if not axis is None:
+        if axis < 0:
+            axis += y.ndim
+        r = FittingUtil.powerFit(x.asarray(), y.asarray(), axis)
+        return NDArray(r[0]), NDArray(r[1]), NDArray(r[2])
     r = FittingUtil.powerFit(x.asarray(), y.asarray())
     if func:
         return r[0], r[1], r[2], r[3]
     else:
         return r[0], r[1], r[2]
         
-def expfit(x, y, func=False):
+def expfit(x, y, func=False, axis=None):
     '''
     Exponent fitting.
     
     :param x: (*array_like*) x data array.
     :param y: (*array_like*) y data array.
     :param func: (*boolean*) Return fit function (for predict function) or not. Default is ``False``.
+    :param axis: (*int*) Fit the series along the axis of y with the x data of the axis length. 
+        Default is ``None``, y is one series.
     
-    :returns: Fitting parameters and function (optional).
+    :returns: Fitting parameters and function (optional). With an axis, the parameter arrays and 
+        the coefficient of determination array.
     '''
     if isinstance(x, list):
         x = NDArray(ArrayUtil.array(x))
     if isinstance(y, list):
         y = NDArray(ArrayUtil.array(y))
+    if not axis is None:
+        if axis < 0:
+            axis += y.ndim
+        r = FittingUtil.expFit(x.asarray(), y.asarray(), axis)
+        return NDArray(r[0]), NDArray(r[1]), NDArray(r[2])
     r = FittingUtil.expFit(x.asarray(), y.asarray())
     if func:
         return r[0], r[1], r[2], r[3]
     else:
         return r[0], r[1], r[2]
         
-def polyfit(x, y, degree, func=False):
+def polyfit(x, y, degree, func=False, axis=None):
     '''
     Polynomail fitting.
     
@@ -56,13 +72,22 @@ def polyfit(x, y, degree, func=False):
     :param y: (*array_like*) y data array.
     :param degree: (*int*) Degree of the fitting polynomial.
     :param func: (*boolean*) Return fit function (for predict function) or not. Default is ``False``.
+    :param axis: (*int*) Fit the series along the axis of y with the x data of the axis length. 
+        Default is ``None``, y is one series.
     
-    :returns: Fitting parameters and function (optional).
+    :returns: Fitting parameters and function (optional). With an axis, the parameter array (the 
+        first dimension is from the highest degree to the constant term) and the coefficient of 
+        determination array.
     '''
     if isinstance(x, list):
         x = NDArray(ArrayUtil.array(x))
     if isinstance(y, list):
         y = NDArray(ArrayUtil.array(y))
+    if not axis is None:
+        if axis < 0:
+            axis += y.ndim
+        r = FittingUtil.polyFit(x.asarray(), y.asarray(), degree, axis)
+        return NDArray(r[0]), NDArray(r[1])
     r = FittingUtil.polyFit(x.asarray(), y.asarray(), degree)
     if func:
         return r[0], r[1], r[2]
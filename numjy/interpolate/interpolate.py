@@ -1,13 +1,13 @@
 # coding=utf-8
 
-from org.meteothink.math.interpolate import InterpUtil
+from org.meteothink.math.interpolate import InterpUtil, RegularGridInterpolator as _RegularGridInterpolator
 from org.meteothink.math import ArrayMath, ArrayUtil
 from org.meteothink.ndarray import Array
 
 from numjy.core.multiarray import NDArray
 
 __all__ = [
-    'interp1d','RectBivariateSpline'
+    'interp1d','RectBivariateSpline','RegularGridInterpolator'
     ]
 
 class interp1d(object):
@@ -122,4 +122,43 @@ class RectBivariateSpline(object):
         else:
             return NDArray(r)
             
+class RegularGridInterpolator(object):
+    '''
+    Interpolation on a regular grid in arbitrary dimensions.
+    
+    The grid is prepared once, so calling the interpolator many times does not repeat 
+    the precomputation of ``interpn``.
+    
+    :param points: (*list*) The points defining the regular grid in n dimensions. The points 
+        in each dimension must be strictly ascending or descending.
+    :param values: (*array_like*) The data on the regular grid in n dimensions.
+    '''
+    def __init__(self, points, values):
+        npoints = []
+        for p in points:
+            if isinstance(p, (list, tuple)):
+                p = NDArray(ArrayUtil.array(p))
+            npoints.append(p.asarray())
+        if isinstance(values, list):
+            values = NDArray(ArrayUtil.array(values))
+        self._func = _RegularGridInterpolator(npoints, values.asarray())
+        
+    def __call__(self, xi):
+        '''
+        Evaluate the interpolate values.
+        
+        :param xi: (*array_like*) The coordinates to sample the gridded data at. The last 
+            dimension is the grid dimensions.
+            
+        :returns: (*float or array*) Interpolated value of a point, or interpolated values 
+            with the shape of the leading dimensions of xi.
+        '''
+        if isinstance(xi, (list, tuple)):
+            xi = NDArray(ArrayUtil.array(list(xi)))
+        r = self._func.interpolate(xi.asarray())
+        if r.getRank() == 0:
+            return r.getDouble(0)
+        else:
+            return NDArray(r)
+            
 ############################################################
\ No newline at end of file
@@ -6,7 +6,7 @@ from org.meteothink.math.stats import StatsUtil
 from numjy.core.multiarray import NDArray
 
 __all__ = [
-    'solve','cholesky','det','lu','qr', 'svd','eig','inv','lstsq'
+    'solve','cholesky','det','slogdet','lu','qr', 'svd','eig','inv','lstsq'
     ]
 
 def solve(a, b):
@@ -18,14 +18,14 @@ def solve(a, b):
     
     ``Parameters``
 
-    a : (M, M) array_like
+    a : (..., M, M) array_like
         Coefficient matrix.
-    b : {(M), (M, K)}, array_like
+    b : {(..., M), (..., M, K)}, array_like
         Ordinate or "dependent variable" values.
         
     ``Returns``
 
-    x : {(M), (M, K)} ndarray
+    x : {(..., M), (..., M, K)} ndarray
         Solution to the system a x = b.  Returned shape is identical to ``b``.
     '''
     x = LinalgUtil.solve(a.asarray(), b.asarray())
@@ -231,5 +231,30 @@ def det(a):
     det : (...) array_like
         Determinant of `a`.
     '''
-    r = LinalgUtil.determinantOfMatrix(a.asarray())
-    return r 
\ No newline at end of file
+    if a.ndim == 2:
+        return LinalgUtil.determinantOfMatrix(a.asarray())
+    else:
+        r = LinalgUtil.det(a.asarray())
+        return NDArray(r)
+        
+def slogdet(a):
+    '''
+    Compute the sign and (natural) logarithm of the determinant of an array.
+    
+    Parameters
+    ----------
+    a : (..., M, M) array_like
+        Input array, the last two dimensions have to be square.
+    Returns
+    -------
+    sign : (...) array_like
+        A number representing the sign of the determinant. For a real matrix,
+        this is 1, 0, or -1.
+    logdet : (...) array_like
+        The natural log of the absolute value of the determinant.
+    '''
+    r = LinalgUtil.slogdet(a.asarray())
+    if a.ndim == 2:
+        return r[0].getDouble(0), r[1].getDouble(0)
+    else:
+        return NDArray(r[0]), NDArray(r[1]) 
\ No newline at end of file
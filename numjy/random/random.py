@@ -23,10 +23,9 @@ def seed(seed=None):
     :param seed: (*int*) Seed for random data generator.
     '''
     if seed is None:
-        RandomUtil.useSeed = False
+        RandomUtil.clearSeed()
     else:
-        RandomUtil.useSeed = True
-        RandomUtil.seed = seed
+        RandomUtil.setSeed(seed)
     
 def rand(*args):
     """
@@ -1,4 +1,5 @@
 import numjy.core.numeric as np
+from org.meteothink.math.stats import KernelDensity
 
 class GaussianKDE(object):
     """
@@ -77,6 +78,8 @@ class GaussianKDE(object):
         self.covariance = self.data_covariance * self.factor ** 2
         self.inv_cov = self.data_inv_cov / self.factor ** 2
         self.norm_factor = np.sqrt(np.linalg.det(2 * np.pi * self.covariance)) * self.num_dp
+        self._kde = KernelDensity(np.array(self.dataset).asarray(), np.array(self.inv_cov).asarray(),
+                                  float(self.norm_factor))
 
     def scotts_factor(self):
         return np.power(self.num_dp, -1. / (self.dim + 4))
@@ -88,13 +91,17 @@ class GaussianKDE(object):
     #  Default method to calculate bandwidth, can be overwritten by subclass
     covariance_factor = scotts_factor
 
-    def evaluate(self, points):
+    def evaluate(self, points, cutoff=None):
         """Evaluate the estimated pdf on a set of points.
         Parameters
         ----------
         points : (# of dimensions, # of points)-array
             Alternatively, a (# of dimensions,) vector can be passed in and
             treated as a single point.
+        cutoff : float, optional
+            Skip the data points farther than `cutoff` kernel bandwidths
+            (Mahalanobis distance) from each point. None (default) includes
+            all data points.
         Returns
         -------
         values : (# of points,)-array
@@ -111,25 +118,11 @@ class GaussianKDE(object):
             raise ValueError("points have dimension {}, dataset has dimension "
                              "{}".format(dim, self.dim))
 
-        result = np.zeros(num_m)
-
-        if num_m >= self.num_dp:
-            # there are more points than data, so loop over data
-            for i in range(self.num_dp):
-                diff = self.dataset[:, i, np.newaxis] - points
-                tdiff = np.dot(self.inv_cov, diff)
-                energy = np.sum(diff * tdiff, axis=0) / 2.0
-                result = result + np.exp(-energy)
+        if cutoff is None:
+            r = self._kde.evaluate(points.asarray())
         else:
-            # loop over points
-            for i in range(num_m):
-                diff = self.dataset - points[:, i, np.newaxis]
-                tdiff = np.dot(self.inv_cov, diff)
-                energy = np.sum(diff * tdiff, axis=0) / 2.0
-                result[i] = np.sum(np.exp(-energy), axis=0)
-
-        result = result / self.norm_factor
+            r = self._kde.evaluate(points.asarray(), cutoff)
 
-        return result
+        return np.NDArray(r)
 
     __call__ = evaluate
\ No newline at end of file
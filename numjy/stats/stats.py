@@ -1,5 +1,6 @@
 # coding=utf-8
 
+import jarray
 from org.meteothink.math.stats import StatsUtil
 from org.meteothink.math import ArrayMath, ArrayUtil
 from org.meteothink.ndarray import Array
@@ -178,12 +179,15 @@ def spearmanr(m, y=None, axis=0):
         r = StatsUtil.spearmanr(m.asarray(), y.asarray())
         return NDArray(r)
         
-def linregress(x, y, outvdn=False):
+def linregress(x, y, outvdn=False, axis=None):
     '''
     Calculate a linear least-squares regression for two sets of measurements.
     
     :param x, y: (*array_like*) Two sets of measurements. Both arrays should have the same length.
     :param outvdn: (*boolean*) Output validate data number or not. Default is False.
+    :param axis: (*int*) By default, the index is into the flattened array, otherwise 
+        along the specified axis. With an axis, x can also be a one dimension array with 
+        the length of the axis, such as the time coordinate for the trends of a field.
     
     :returns: Result slope, intercept, relative coefficient, two-sided p-value for a hypothesis test 
         whose null hypothesis is that the slope is zero, standard error of the estimated gradient, 
@@ -193,7 +197,13 @@ def linregress(x, y, outvdn=False):
         x = NDArray(ArrayUtil.array(x))
     if isinstance(y, list):
         y = NDArray(ArrayUtil.array(y))
-    r = ArrayMath.lineRegress(x.asarray(), y.asarray())
+    if axis is None:
+        r = ArrayMath.lineRegress(x.asarray(), y.asarray())
+    else:
+        if axis < 0:
+            axis += y.ndim
+        r = StatsUtil.linregress(x.asarray(), y.asarray(), axis)
+        r = [NDArray(a) for a in r]
     if outvdn:
         return r[0], r[1], r[2], r[3], r[4], r[5]
     else:
@@ -221,17 +231,22 @@ def percentile(a, q, axis=None):
     Compute the qth percentile of the data along the specified axis.
     
     :param a: (*array_like*) Input array.
-    :param q: (*float*) float in range of [0,100].
-        Percentile to compute, which must be between 0 and 100 inclusive.
+    :param q: (*float or list*) float in range of [0,100].
+        Percentile or sequence of percentiles to compute, which must be between 0 and 100 inclusive.
     :param axis: (*int*) Axis or axes along which the percentiles are computed. The default is 
         to compute the percentile along a flattened version of the array.
     
-    :returns: (*float*) qth percentile value.
+    :returns: (*float*) qth percentile value. If q is a sequence, the first axis of the result
+        corresponds to the percentiles.
     '''
     if isinstance(a, list):
-        a = NDArray(ArrayUtil.array(x))
+        a = NDArray(ArrayUtil.array(a))
+    if isinstance(q, (list, tuple, NDArray)):
+        q = jarray.array([float(v) for v in q], 'd')
     if axis is None:
         r = StatsUtil.percentile(a.asarray(), q)
+        if isinstance(r, Array):
+            r = NDArray(r)
     else:
         r = StatsUtil.percentile(a.asarray(), q, axis)
         r = NDArray(r)
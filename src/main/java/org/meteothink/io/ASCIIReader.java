@@ -0,0 +1,536 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Parallel reader of delimited ASCII numeric data files. The file is split into
+ * line aligned byte chunks which are tokenized without regular expressions or
+ * intermediate strings. A first pass counts the values of each chunk, and a
+ * second pass parses the values of all chunks in parallel into their final
+ * positions of the result array.
+ *
+ * @author Yaqiang Wang
+ */
+public class ASCIIReader {
+
+    private static final int CHUNK_SIZE = 1 << 24;
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+        1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final byte[] delimiter;
+    private final int skipCols;
+
+    /**
+     * Constructor
+     *
+     * @param delimiter Delimiter - null or a space for white space
+     * @param readFirstCol Read first column data or not
+     */
+    public ASCIIReader(String delimiter, boolean readFirstCol) {
+        if (delimiter == null || delimiter.equals(" ") || delimiter.isEmpty()) {
+            this.delimiter = null;
+        } else {
+            this.delimiter = delimiter.getBytes(ASCII);
+        }
+        this.skipCols = readFirstCol ? 0 : 1;
+    }
+
+    // <editor-fold desc="Read">
+    /**
+     * Read the data to an array. Values beyond the array size are ignored, and
+     * elements without values are left as zero.
+     *
+     * @param fileName File name
+     * @param headerLines Header line number
+     * @param dataType Data type
+     * @param shape Shape - null to use the shape of the data, the number of non
+     * empty lines and the number of values of the first line
+     * @return Result array
+     * @throws IOException
+     */
+    public Array read(String fileName, int headerLines, DataType dataType, int[] shape) throws IOException {
+        try (FileChannel fc = new RandomAccessFile(fileName, "r").getChannel()) {
+            final Chunk[] chunks = split(fc, skipLines(fc, headerLines));
+            count(fc, chunks);
+            if (shape == null) {
+                shape = shape(chunks);
+            }
+            final Array a = Array.factory(dataType, shape);
+            final long size = a.getSize();
+            long first = 0;
+            for (Chunk c : chunks) {
+                c.first = first;
+                first += c.values;
+            }
+            final FileChannel channel = fc;
+            final IOException[] error = new IOException[1];
+            ParallelUtil.forRange(chunks.length, 1, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    byte[] buf = null;
+                    for (int i = from; i < to; i++) {
+                        Chunk c = chunks[i];
+                        if (c.first >= size || c.values == 0) {
+                            continue;
+                        }
+                        try {
+                            buf = load(channel, c, buf);
+                        } catch (IOException ex) {
+                            error[0] = ex;
+                            return;
+                        }
+                        scan(buf, c.length, c, a, size);
+                    }
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            return a;
+        }
+    }
+
+    /**
+     * Get the shape of the data - the number of non empty lines and the number
+     * of values of the first line, counted in a single pass over the file.
+     *
+     * @param fileName File name
+     * @param headerLines Header line number
+     * @return Shape
+     * @throws IOException
+     */
+    public int[] shape(String fileName, int headerLines) throws IOException {
+        try (FileChannel fc = new RandomAccessFile(fileName, "r").getChannel()) {
+            Chunk[] chunks = split(fc, skipLines(fc, headerLines));
+            count(fc, chunks);
+            return shape(chunks);
+        }
+    }
+
+    /**
+     * Get the number of values of the first non empty line after the header
+     * lines
+     *
+     * @param fileName File name
+     * @param headerLines Header line number
+     * @return Column number
+     * @throws IOException
+     */
+    public int columns(String fileName, int headerLines) throws IOException {
+        try (FileChannel fc = new RandomAccessFile(fileName, "r").getChannel()) {
+            long pos = skipLines(fc, headerLines);
+            while (pos < fc.size()) {
+                long end = nextLine(fc, pos + 1);
+                Chunk c = new Chunk(pos, (int) (end - pos));
+                scan(load(fc, c, null), c.length, c, null, 0);
+                if (c.firstCols >= 0) {
+                    return c.firstCols;
+                }
+                pos = end;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Count the lines of a file
+     *
+     * @param fileName File name
+     * @return Line number
+     * @throws IOException
+     */
+    public static int countLines(String fileName) throws IOException {
+        try (FileChannel fc = new RandomAccessFile(fileName, "r").getChannel()) {
+            final FileChannel channel = fc;
+            final long fsize = fc.size();
+            final int n = (int) ((fsize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            final int[] lines = new int[n];
+            final IOException[] error = new IOException[1];
+            ParallelUtil.forRange(n, 1, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    byte[] buf = null;
+                    for (int i = from; i < to; i++) {
+                        long start = (long) i * CHUNK_SIZE;
+                        Chunk c = new Chunk(start, (int) Math.min(CHUNK_SIZE, fsize - start));
+                        try {
+                            buf = load(channel, c, buf);
+                        } catch (IOException ex) {
+                            error[0] = ex;
+                            return;
+                        }
+                        int nl = 0;
+                        for (int j = 0; j < c.length; j++) {
+                            if (buf[j] == '\n') {
+                                nl += 1;
+                            }
+                        }
+                        lines[i] = nl;
+                    }
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            int r = 0;
+            for (int nl : lines) {
+                r += nl;
+            }
+            //The last line may have no line terminator
+            if (fsize > 0) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                fc.read(last, fsize - 1);
+                if (last.get(0) != '\n') {
+                    r += 1;
+                }
+            }
+            return r;
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Chunks">
+    private static class Chunk {
+
+        final long start;
+        final int length;
+        long values = 0;
+        int lines = 0;
+        int firstCols = -1;
+        long first = 0;
+
+        Chunk(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Get the byte position after a number of lines from the file start
+     */
+    private static long skipLines(FileChannel fc, int n) throws IOException {
+        long pos = 0;
+        for (int i = 0; i < n; i++) {
+            pos = nextLine(fc, pos + 1);
+        }
+        return pos;
+    }
+
+    /**
+     * Get the first line start position not less than a position, or the file
+     * size
+     */
+    private static long nextLine(FileChannel fc, long pos) throws IOException {
+        long size = fc.size();
+        if (pos <= 0) {
+            return 0;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(BLOCK_SIZE);
+        long p = pos - 1;
+        while (p < size) {
+            bb.clear();
+            int n = fc.read(bb, p);
+            if (n <= 0) {
+                break;
+            }
+            byte[] b = bb.array();
+            for (int i = 0; i < n; i++) {
+                if (b[i] == '\n') {
+                    return p + i + 1;
+                }
+            }
+            p += n;
+        }
+        return size;
+    }
+
+    /**
+     * Split the file from a position into line aligned chunks
+     */
+    private static Chunk[] split(FileChannel fc, long start) throws IOException {
+        long size = fc.size();
+        List<Chunk> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = nextLine(fc, Math.min(size, start + CHUNK_SIZE));
+            chunks.add(new Chunk(start, (int) (end - start)));
+            start = end;
+        }
+        return chunks.toArray(new Chunk[chunks.size()]);
+    }
+
+    private static byte[] load(FileChannel fc, Chunk c, byte[] buf) throws IOException {
+        if (buf == null || buf.length < c.length) {
+            buf = new byte[c.length];
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, c.length);
+        long pos = c.start;
+        while (bb.hasRemaining()) {
+            int n = fc.read(bb, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+        return buf;
+    }
+
+    /**
+     * Count the values and the non empty lines of all chunks in parallel
+     */
+    private void count(FileChannel fc, final Chunk[] chunks) throws IOException {
+        final FileChannel channel = fc;
+        final IOException[] error = new IOException[1];
+        ParallelUtil.forRange(chunks.length, 1, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                byte[] buf = null;
+                for (int i = from; i < to; i++) {
+                    try {
+                        buf = load(channel, chunks[i], buf);
+                    } catch (IOException ex) {
+                        error[0] = ex;
+                        return;
+                    }
+                    scan(buf, chunks[i].length, chunks[i], null, 0);
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    private static int[] shape(Chunk[] chunks) {
+        int rows = 0;
+        int cols = -1;
+        for (Chunk c : chunks) {
+            rows += c.lines;
+            if (cols < 0) {
+                cols = c.firstCols;
+            }
+        }
+        return new int[]{rows, Math.max(cols, 0)};
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Tokenize">
+    /**
+     * Scan the lines of a chunk. The values are counted when the array is
+     * null, otherwise they are parsed into the array starting from the first
+     * value index of the chunk.
+     */
+    private void scan(byte[] b, int len, Chunk c, Array a, long size) {
+        double[] d = a == null ? null : (a.getStorage() instanceof double[] ? (double[]) a.getStorage() : null);
+        long idx = c.first;
+        int p = 0;
+        while (p < len) {
+            int ls = p;
+            while (p < len && b[p] != '\n' && b[p] != '\r') {
+                p += 1;
+            }
+            int le = p;
+            p += 1;
+            //Trim the line
+            while (ls < le && (b[ls] & 0xff) <= ' ') {
+                ls += 1;
+            }
+            while (le > ls && (b[le - 1] & 0xff) <= ' ') {
+                le -= 1;
+            }
+            if (ls == le) {
+                continue;
+            }
+
+            long lineStart = idx;
+            int field = 0;
+            int ts = ls;
+            int pending = 0;
+            while (ts <= le) {
+                int te, next;
+                if (delimiter == null) {
+                    while (ts < le && (b[ts] & 0xff) <= ' ') {
+                        ts += 1;
+                    }
+                    if (ts == le) {
+                        break;
+                    }
+                    te = ts;
+                    while (te < le && (b[te] & 0xff) > ' ') {
+                        te += 1;
+                    }
+                    next = te;
+                } else {
+                    te = indexOf(b, ts, le);
+                    next = te + delimiter.length;
+                }
+
+                int vs = ts, ve = te;
+                while (vs < ve && (b[vs] & 0xff) <= ' ') {
+                    vs += 1;
+                }
+                while (ve > vs && (b[ve - 1] & 0xff) <= ' ') {
+                    ve -= 1;
+                }
+                if (vs == ve) {
+                    //Empty fields only count when a non empty field follows
+                    pending += 1;
+                } else {
+                    for (; pending > 0; pending--) {
+                        if (field >= skipCols) {
+                            if (a != null && idx < size) {
+                                set(a, d, (int) idx, Double.NaN);
+                            }
+                            idx += 1;
+                        }
+                        field += 1;
+                    }
+                    if (field >= skipCols) {
+                        if (a != null) {
+                            if (idx >= size) {
+                                return;
+                            }
+                            set(a, d, (int) idx, parse(b, vs, ve));
+                        }
+                        idx += 1;
+                    }
+                    field += 1;
+                }
+                if (te >= le) {
+                    break;
+                }
+                ts = next;
+            }
+
+            if (a == null) {
+                c.lines += 1;
+                if (c.firstCols < 0) {
+                    c.firstCols = (int) (idx - lineStart);
+                }
+            }
+        }
+        if (a == null) {
+            c.values = idx;
+        }
+    }
+
+    private int indexOf(byte[] b, int from, int to) {
+        byte d0 = delimiter[0];
+        int n = delimiter.length;
+        for (int i = from; i + n <= to; i++) {
+            if (b[i] == d0) {
+                int j = 1;
+                while (j < n && b[i + j] == delimiter[j]) {
+                    j += 1;
+                }
+                if (j == n) {
+                    return i;
+                }
+            }
+        }
+        return to;
+    }
+
+    private static void set(Array a, double[] d, int i, double v) {
+        if (d == null) {
+            a.setDouble(i, v);
+        } else {
+            d[i] = v;
+        }
+    }
+
+    /**
+     * Parse a decimal number. Numbers with up to 18 significant digits and a
+     * decimal exponent within the range of exactly representable powers of ten
+     * are converted with a single correctly rounded multiplication or division,
+     * all other numbers fall back to Double.parseDouble.
+     *
+     * @param b Bytes
+     * @param s Start position - inclusive
+     * @param e End position - exclusive
+     * @return Value
+     */
+    public static double parse(byte[] b, int s, int e) {
+        int p = s;
+        boolean neg = false;
+        if (b[p] == '-') {
+            neg = true;
+            p += 1;
+        } else if (b[p] == '+') {
+            p += 1;
+        }
+        long m = 0;
+        int sig = 0;
+        int exp = 0;
+        boolean digits = false;
+        int c;
+        while (p < e && (c = b[p] - '0') >= 0 && c <= 9) {
+            if (m != 0 || c != 0) {
+                m = m * 10 + c;
+                sig += 1;
+            }
+            digits = true;
+            p += 1;
+        }
+        if (p < e && b[p] == '.') {
+            p += 1;
+            while (p < e && (c = b[p] - '0') >= 0 && c <= 9) {
+                if (m != 0 || c != 0) {
+                    m = m * 10 + c;
+                    sig += 1;
+                }
+                exp -= 1;
+                digits = true;
+                p += 1;
+            }
+        }
+        if (digits && p < e && (b[p] == 'e' || b[p] == 'E')) {
+            p += 1;
+            boolean eneg = false;
+            if (p < e && (b[p] == '-' || b[p] == '+')) {
+                eneg = b[p] == '-';
+                p += 1;
+            }
+            int ev = 0;
+            boolean edigits = false;
+            while (p < e && (c = b[p] - '0') >= 0 && c <= 9 && ev < 10000) {
+                ev = ev * 10 + c;
+                edigits = true;
+                p += 1;
+            }
+            if (!edigits) {
+                digits = false;
+            }
+            exp += eneg ? -ev : ev;
+        }
+
+        if (digits && p == e && sig <= 18) {
+            double v;
+            if (m == 0) {
+                v = 0;
+            } else if (m < (1L << 53) && exp >= -22 && exp <= 22) {
+                v = exp < 0 ? m / POW10[-exp] : m * POW10[exp];
+            } else {
+                return Double.parseDouble(new String(b, s, e - s, ASCII));
+            }
+            return neg ? -v : v;
+        }
+        return Double.parseDouble(new String(b, s, e - s, ASCII));
+    }
+    // </editor-fold>
+}
@@ -7,7 +7,6 @@ package org.meteothink.math;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import org.meteothink.ndarray.Complex;
 import org.meteothink.ndarray.Array;
@@ -214,52 +213,46 @@ public class ArrayMath {
         }
     }
 
-    private static void setIndex(int broadcast, Index aindex, Index bindex, int[] current, int n, int na, int nb) {
-        if (broadcast == 0) {
-            aindex.set(current);
-            bindex.set(current);
-        } else {
-            int ia, ib;
-            for (int j = 0; j < n; j++) {
-                ia = na - j - 1;
-                if (ia >= 0) {
-                    if (aindex.getShape(ia) == 1) {
-                        aindex.setDim(ia, 0);
-                    } else {
-                        aindex.setDim(ia, current[n - j - 1]);
-                    }
-                }
-                ib = nb - j - 1;
-                if (ib >= 0) {
-                    if (bindex.getShape(ib) == 1) {
-                        bindex.setDim(ib, 0);
-                    } else {
-                        bindex.setDim(ib, current[n - j - 1]);
-                    }
-                }
-            }
+    /**
+     * Element-wise kernel over one array, run in parallel chunks
+     */
+    private static abstract class UnaryTask extends ParallelUtil.RangeTask {
+
+        final Array a;
+        final Array r;
+
+        UnaryTask(Array a, Array r) {
+            this.a = a;
+            this.r = r;
         }
     }
 
-    private static void setIndex(Index aindex, Index bindex, int[] current, int n, int na, int nb) {
-        int ia, ib;
-        for (int j = 0; j < n; j++) {
-            ia = na - j - 1;
-            if (ia >= 0) {
-                if (aindex.getShape(ia) == 1) {
-                    aindex.setDim(ia, 0);
-                } else {
-                    aindex.setDim(ia, current[n - j - 1]);
-                }
-            }
-            ib = nb - j - 1;
-            if (ib >= 0) {
-                if (bindex.getShape(ib) == 1) {
-                    bindex.setDim(ib, 0);
-                } else {
-                    bindex.setDim(ib, current[n - j - 1]);
-                }
-            }
+    /**
+     * Element-wise kernel over two arrays, run in parallel chunks
+     */
+    private static abstract class BinaryTask extends ParallelUtil.RangeTask {
+
+        final Array a;
+        final Array b;
+        final Array r;
+
+        BinaryTask(Array a, Array b, Array r) {
+            this.a = a;
+            this.b = b;
+            this.r = r;
+        }
+    }
+
+    /**
+     * Element-wise kernel over two broadcast arrays, run in parallel chunks
+     */
+    private static abstract class BroadcastTask extends BinaryTask {
+
+        final Broadcast bc;
+
+        BroadcastTask(Array a, Array b, Array r, Broadcast bc) {
+            super(a, b, r);
+            this.bc = bc;
         }
     }
 
@@ -335,17 +328,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.INT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    int va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getInt(i);
-                        vb = b.getInt(i);
-                        if (va  == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) {
-                            r.setInt(i, Integer.MIN_VALUE);
-                        } else {
-                            r.setInt(i, va  + vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            int va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getInt(i);
+                                vb = b.getInt(i);
+                                if (va  == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) {
+                                    r.setInt(i, Integer.MIN_VALUE);
+                                } else {
+                                    r.setInt(i, va  + vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -364,37 +362,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.INT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (a.getInt(aindex) == Integer.MIN_VALUE || b.getInt(bindex) == Integer.MIN_VALUE) {
-                        r.setInt(i, Integer.MIN_VALUE);
-                    } else {
-                        r.setInt(i, a.getInt(aindex) + b.getInt(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.INT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (a.getInt(c.ia) == Integer.MIN_VALUE || b.getInt(c.ib) == Integer.MIN_VALUE) {
+                                r.setInt(i, Integer.MIN_VALUE);
+                            } else {
+                                r.setInt(i, a.getInt(c.ia) + b.getInt(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array addInt(Array a, int b) {
+    private static Array addInt(Array a, final int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setInt(i, a.getInt(i) + b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) + b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -418,17 +417,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.FLOAT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    float va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getFloat(i);
-                        vb = b.getFloat(i);
-                        if (Float.isNaN(va) || Float.isNaN(vb)) {
-                            r.setFloat(i, Float.NaN);
-                        } else {
-                            r.setFloat(i, va  + vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            float va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getFloat(i);
+                                vb = b.getFloat(i);
+                                if (Float.isNaN(va) || Float.isNaN(vb)) {
+                                    r.setFloat(i, Float.NaN);
+                                } else {
+                                    r.setFloat(i, va  + vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -447,37 +451,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.FLOAT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Float.isNaN(a.getFloat(aindex)) || Float.isNaN(b.getFloat(bindex))) {
-                        r.setFloat(i, Float.NaN);
-                    } else {
-                        r.setFloat(i, a.getFloat(aindex) + b.getFloat(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.FLOAT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Float.isNaN(a.getFloat(c.ia)) || Float.isNaN(b.getFloat(c.ib))) {
+                                r.setFloat(i, Float.NaN);
+                            } else {
+                                r.setFloat(i, a.getFloat(c.ia) + b.getFloat(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array addFloat(Array a, float b) {
+    private static Array addFloat(Array a, final float b) {
         Array r = Array.factory(DataType.FLOAT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setFloat(i, a.getFloat(i) + b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setFloat(i, a.getFloat(i) + b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -501,17 +506,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.DOUBLE, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    double va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getDouble(i);
-                        vb = b.getDouble(i);
-                        if (Double.isNaN(va) || Double.isNaN(vb)) {
-                            r.setDouble(i, Double.NaN);
-                        } else {
-                            r.setDouble(i, va  + vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            double va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getDouble(i);
+                                vb = b.getDouble(i);
+                                if (Double.isNaN(va) || Double.isNaN(vb)) {
+                                    r.setDouble(i, Double.NaN);
+                                } else {
+                                    r.setDouble(i, va  + vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -530,37 +540,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.DOUBLE, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Double.isNaN(a.getDouble(aindex)) || Double.isNaN(b.getDouble(bindex))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, a.getDouble(aindex) + b.getDouble(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.DOUBLE, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Double.isNaN(a.getDouble(c.ia)) || Double.isNaN(b.getDouble(c.ib))) {
+                                r.setDouble(i, Double.NaN);
+                            } else {
+                                r.setDouble(i, a.getDouble(c.ia) + b.getDouble(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array addDouble(Array a, double b) {
+    private static Array addDouble(Array a, final double b) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setDouble(i, a.getDouble(i) + b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setDouble(i, a.getDouble(i) + b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -597,20 +608,11 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.COMPLEX, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    r.setComplex(i, a.getComplex(aindex).add(b.getComplex(bindex)));
-                    index.incr();
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.COMPLEX, bc.getShape());
+                Broadcast.Cursor c = bc.cursor(0);
+                for (int i = 0; i < r.getSize(); i++, c.next()) {
+                    r.setComplex(i, a.getComplex(c.ia).add(b.getComplex(c.ib)));
                 }
                 return r;
             default:
@@ -763,9 +765,14 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.INT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    for (int i = 0; i < a.getSize(); i++) {
-                        r.setInt(i, a.getInt(i) - b.getInt(i));
-                    }
+                    ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            for (int i = from; i < to; i++) {
+                                r.setInt(i, a.getInt(i) - b.getInt(i));
+                            }
+                        }
+                    });
                 } else {
                     IndexIterator iterA = a.getIndexIterator();
                     IndexIterator iterB = b.getIndexIterator();
@@ -776,33 +783,34 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.INT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    r.setInt(i, a.getInt(aindex) - b.getInt(bindex));
-                    index.incr();
-                }
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.INT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            r.setInt(i, a.getInt(c.ia) - b.getInt(c.ib));
+                        }
+                    }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array subInt(Array a, int b) {
+    private static Array subInt(Array a, final int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) - b);
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) - b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -814,12 +822,17 @@ public class ArrayMath {
         return r;
     }
 
-    private static Array subInt(int b, Array a) {
+    private static Array subInt(final int b, Array a) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, b - a.getInt(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, b - a.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -837,13 +850,18 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.FLOAT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    for (int i = 0; i < a.getSize(); i++) {
-                        if (Float.isNaN(a.getFloat(i)) || Float.isNaN(b.getFloat(i))) {
-                            r.setFloat(i, Float.NaN);
-                        } else {
-                            r.setFloat(i, a.getFloat(i) - b.getFloat(i));
+                    ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            for (int i = from; i < to; i++) {
+                                if (Float.isNaN(a.getFloat(i)) || Float.isNaN(b.getFloat(i))) {
+                                    r.setFloat(i, Float.NaN);
+                                } else {
+                                    r.setFloat(i, a.getFloat(i) - b.getFloat(i));
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterA = a.getIndexIterator();
                     IndexIterator iterB = b.getIndexIterator();
@@ -854,37 +872,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.FLOAT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Float.isNaN(a.getFloat(aindex)) || Float.isNaN(b.getFloat(bindex))) {
-                        r.setFloat(i, Float.NaN);
-                    } else {
-                        r.setFloat(i, a.getFloat(aindex) - b.getFloat(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.FLOAT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Float.isNaN(a.getFloat(c.ia)) || Float.isNaN(b.getFloat(c.ib))) {
+                                r.setFloat(i, Float.NaN);
+                            } else {
+                                r.setFloat(i, a.getFloat(c.ia) - b.getFloat(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array subFloat(Array a, float b) {
+    private static Array subFloat(Array a, final float b) {
         Array r = Array.factory(DataType.FLOAT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setFloat(i, a.getFloat(i) - b);
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setFloat(i, a.getFloat(i) - b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -896,12 +915,17 @@ public class ArrayMath {
         return r;
     }
 
-    private static Array subFloat(float b, Array a) {
+    private static Array subFloat(final float b, Array a) {
         Array r = Array.factory(DataType.FLOAT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setFloat(i, b - a.getFloat(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setFloat(i, b - a.getFloat(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -919,13 +943,18 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.DOUBLE, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    for (int i = 0; i < a.getSize(); i++) {
-                        if (Double.isNaN(a.getDouble(i)) || Double.isNaN(b.getDouble(i))) {
-                            r.setDouble(i, Double.NaN);
-                        } else {
-                            r.setDouble(i, a.getDouble(i) - b.getDouble(i));
+                    ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            for (int i = from; i < to; i++) {
+                                if (Double.isNaN(a.getDouble(i)) || Double.isNaN(b.getDouble(i))) {
+                                    r.setDouble(i, Double.NaN);
+                                } else {
+                                    r.setDouble(i, a.getDouble(i) - b.getDouble(i));
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterA = a.getIndexIterator();
                     IndexIterator iterB = b.getIndexIterator();
@@ -936,37 +965,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.DOUBLE, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Double.isNaN(a.getDouble(aindex)) || Double.isNaN(b.getDouble(bindex))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, a.getDouble(aindex) - b.getDouble(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.DOUBLE, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Double.isNaN(a.getDouble(c.ia)) || Double.isNaN(b.getDouble(c.ib))) {
+                                r.setDouble(i, Double.NaN);
+                            } else {
+                                r.setDouble(i, a.getDouble(c.ia) - b.getDouble(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array subDouble(Array a, double b) {
+    private static Array subDouble(Array a, final double b) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setDouble(i, a.getDouble(i) - b);
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setDouble(i, a.getDouble(i) - b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -978,12 +1008,17 @@ public class ArrayMath {
         return r;
     }
 
-    private static Array subDouble(double b, Array a) {
+    private static Array subDouble(final double b, Array a) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setDouble(i, b - a.getDouble(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setDouble(i, b - a.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -1036,54 +1071,42 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.OBJECT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.OBJECT, bc.getShape());
                 if (isComplex(a)) {
                     if (isComplex(b)) {
                         Complex v1, v2;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v1 = (Complex) a.getObject(aindex);
-                            v2 = (Complex) b.getObject(bindex);
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v1 = (Complex) a.getObject(c.ia);
+                            v2 = (Complex) b.getObject(c.ib);
                             if (v1.isNaN() || v2.isNaN()) {
                                 r.setObject(i, v1);
                             } else {
                                 r.setObject(i, v1.subtract(v2));
                             }
-                            index.incr();
                         }
                     } else {
                         Complex v;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v = (Complex) a.getObject(aindex);
-                            if (v.isNaN() || Double.isNaN(b.getDouble(bindex))) {
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v = (Complex) a.getObject(c.ia);
+                            if (v.isNaN() || Double.isNaN(b.getDouble(c.ib))) {
                                 r.setObject(i, new Complex(Double.NaN));
                             } else {
-                                r.setObject(i, v.subtract(b.getDouble(bindex)));
+                                r.setObject(i, v.subtract(b.getDouble(c.ib)));
                             }
-                            index.incr();
                         }
                     }
                 } else {
                     Complex v;
-                    for (int i = 0; i < a.getSize(); i++) {
-                        current = index.getCurrentCounter();
-                        setIndex(aindex, bindex, current, n, na, nb);
-                        v = (Complex) b.getObject(bindex);
-                        if (v.isNaN() || Double.isNaN(a.getDouble(aindex))) {
+                    Broadcast.Cursor c = bc.cursor(0);
+                    for (int i = 0; i < r.getSize(); i++, c.next()) {
+                        v = (Complex) b.getObject(c.ib);
+                        if (v.isNaN() || Double.isNaN(a.getDouble(c.ia))) {
                             r.setObject(i, new Complex(Double.NaN));
                         } else {
-                            r.setObject(i, v.subtract(a.getDouble(aindex)));
+                            r.setObject(i, v.subtract(a.getDouble(c.ia)));
                         }
                     }
                 }
@@ -1219,17 +1242,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.INT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    int va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getInt(i);
-                        vb = b.getInt(i);
-                        if (va  == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) {
-                            r.setInt(i, Integer.MIN_VALUE);
-                        } else {
-                            r.setInt(i, va  * vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            int va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getInt(i);
+                                vb = b.getInt(i);
+                                if (va  == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) {
+                                    r.setInt(i, Integer.MIN_VALUE);
+                                } else {
+                                    r.setInt(i, va  * vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -1248,37 +1276,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.INT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (a.getInt(aindex) == Integer.MIN_VALUE || b.getInt(bindex) == Integer.MIN_VALUE) {
-                        r.setInt(i, Integer.MIN_VALUE);
-                    } else {
-                        r.setInt(i, a.getInt(aindex) * b.getInt(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.INT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (a.getInt(c.ia) == Integer.MIN_VALUE || b.getInt(c.ib) == Integer.MIN_VALUE) {
+                                r.setInt(i, Integer.MIN_VALUE);
+                            } else {
+                                r.setInt(i, a.getInt(c.ia) * b.getInt(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array mulInt(Array a, int b) {
+    private static Array mulInt(Array a, final int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setInt(i, a.getInt(i) * b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) * b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1302,17 +1331,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.FLOAT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    float va,
-                     vb;
-                    for (int i = 0; i < a.getSize(); i++) {
-                        va  = a.getFloat(i);
-                        vb = b.getFloat(i);
-                        if (Float.isNaN(va) || Float.isNaN(vb)) {
-                            r.setFloat(i, Float.NaN);
-                        } else {
-                            r.setFloat(i, a.getFloat(i) * b.getFloat(i));
+                    ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            float va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getFloat(i);
+                                vb = b.getFloat(i);
+                                if (Float.isNaN(va) || Float.isNaN(vb)) {
+                                    r.setFloat(i, Float.NaN);
+                                } else {
+                                    r.setFloat(i, a.getFloat(i) * b.getFloat(i));
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -1331,37 +1365,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.FLOAT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Float.isNaN(a.getFloat(aindex)) || Float.isNaN(b.getFloat(bindex))) {
-                        r.setFloat(i, Float.NaN);
-                    } else {
-                        r.setFloat(i, a.getFloat(aindex) * b.getFloat(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.FLOAT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Float.isNaN(a.getFloat(c.ia)) || Float.isNaN(b.getFloat(c.ib))) {
+                                r.setFloat(i, Float.NaN);
+                            } else {
+                                r.setFloat(i, a.getFloat(c.ia) * b.getFloat(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array mulFloat(Array a, float b) {
+    private static Array mulFloat(Array a, final float b) {
         Array r = Array.factory(DataType.FLOAT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setFloat(i, a.getFloat(i) * b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setFloat(i, a.getFloat(i) * b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1385,17 +1420,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.DOUBLE, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    double va,
-                     vb;
-                    for (int i = 0; i < a.getSize(); i++) {
-                        va  = a.getDouble(i);
-                        vb = b.getDouble(i);
-                        if (Double.isNaN(va) || Double.isNaN(vb)) {
-                            r.setDouble(i, Double.NaN);
-                        } else {
-                            r.setDouble(i, a.getDouble(i) * b.getDouble(i));
+                    ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            double va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getDouble(i);
+                                vb = b.getDouble(i);
+                                if (Double.isNaN(va) || Double.isNaN(vb)) {
+                                    r.setDouble(i, Double.NaN);
+                                } else {
+                                    r.setDouble(i, a.getDouble(i) * b.getDouble(i));
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -1414,37 +1454,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.DOUBLE, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Double.isNaN(a.getDouble(aindex)) || Double.isNaN(b.getDouble(bindex))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, a.getDouble(aindex) * b.getDouble(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.DOUBLE, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Double.isNaN(a.getDouble(c.ia)) || Double.isNaN(b.getDouble(c.ib))) {
+                                r.setDouble(i, Double.NaN);
+                            } else {
+                                r.setDouble(i, a.getDouble(c.ia) * b.getDouble(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array mulDouble(Array a, double b) {
+    private static Array mulDouble(Array a, final double b) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setDouble(i, a.getDouble(i) * b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setDouble(i, a.getDouble(i) * b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1503,54 +1544,42 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.OBJECT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.OBJECT, bc.getShape());
                 if (isComplex(a)) {
                     if (isComplex(b)) {
                         Complex v1, v2;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v1 = (Complex) a.getObject(aindex);
-                            v2 = (Complex) b.getObject(bindex);
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v1 = (Complex) a.getObject(c.ia);
+                            v2 = (Complex) b.getObject(c.ib);
                             if (v1.isNaN() || v2.isNaN()) {
                                 r.setObject(i, v1);
                             } else {
                                 r.setObject(i, v1.multiply(v2));
                             }
-                            index.incr();
                         }
                     } else {
                         Complex v;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v = (Complex) a.getObject(aindex);
-                            if (v.isNaN() || Double.isNaN(b.getDouble(bindex))) {
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v = (Complex) a.getObject(c.ia);
+                            if (v.isNaN() || Double.isNaN(b.getDouble(c.ib))) {
                                 r.setObject(i, new Complex(Double.NaN));
                             } else {
-                                r.setObject(i, v.multiply(b.getDouble(bindex)));
+                                r.setObject(i, v.multiply(b.getDouble(c.ib)));
                             }
-                            index.incr();
                         }
                     }
                 } else {
                     Complex v;
-                    for (int i = 0; i < a.getSize(); i++) {
-                        current = index.getCurrentCounter();
-                        setIndex(aindex, bindex, current, n, na, nb);
-                        v = (Complex) b.getObject(bindex);
-                        if (v.isNaN() || Double.isNaN(a.getDouble(aindex))) {
+                    Broadcast.Cursor c = bc.cursor(0);
+                    for (int i = 0; i < r.getSize(); i++, c.next()) {
+                        v = (Complex) b.getObject(c.ib);
+                        if (v.isNaN() || Double.isNaN(a.getDouble(c.ia))) {
                             r.setObject(i, new Complex(Double.NaN));
                         } else {
-                            r.setObject(i, v.multiply(a.getDouble(aindex)));
+                            r.setObject(i, v.multiply(a.getDouble(c.ia)));
                         }
                     }
                 }
@@ -1692,17 +1721,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.INT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    int va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getInt(i);
-                        vb = b.getInt(i);
-                        if (va  == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) {
-                            r.setInt(i, Integer.MIN_VALUE);
-                        } else {
-                            r.setInt(i, va  / vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            int va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getInt(i);
+                                vb = b.getInt(i);
+                                if (va  == Integer.MIN_VALUE || vb == Integer.MIN_VALUE) {
+                                    r.setInt(i, Integer.MIN_VALUE);
+                                } else {
+                                    r.setInt(i, va  / vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -1721,37 +1755,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.INT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (a.getInt(aindex) == Integer.MIN_VALUE || b.getInt(bindex) == Integer.MIN_VALUE) {
-                        r.setInt(i, Integer.MIN_VALUE);
-                    } else {
-                        r.setInt(i, a.getInt(aindex) / b.getInt(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.INT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (a.getInt(c.ia) == Integer.MIN_VALUE || b.getInt(c.ib) == Integer.MIN_VALUE) {
+                                r.setInt(i, Integer.MIN_VALUE);
+                            } else {
+                                r.setInt(i, a.getInt(c.ia) / b.getInt(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array divInt(Array a, int b) {
+    private static Array divInt(Array a, final int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setInt(i, a.getInt(i) / b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) / b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1769,12 +1804,17 @@ public class ArrayMath {
         return r;
     }
 
-    private static Array divInt(int b, Array a) {
+    private static Array divInt(final int b, Array a) {
         Array r = Array.factory(DataType.INT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setInt(i, b / a.getInt(i));
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, b / a.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1798,17 +1838,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.FLOAT, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    float va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getFloat(i);
-                        vb = b.getFloat(i);
-                        if (Float.isNaN(va) || Float.isNaN(vb)) {
-                            r.setFloat(i, Float.NaN);
-                        } else {
-                            r.setFloat(i, va  / vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            float va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getFloat(i);
+                                vb = b.getFloat(i);
+                                if (Float.isNaN(va) || Float.isNaN(vb)) {
+                                    r.setFloat(i, Float.NaN);
+                                } else {
+                                    r.setFloat(i, va  / vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -1827,37 +1872,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.FLOAT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Float.isNaN(a.getFloat(aindex)) || Float.isNaN(b.getFloat(bindex))) {
-                        r.setFloat(i, Float.NaN);
-                    } else {
-                        r.setFloat(i, a.getFloat(aindex) / b.getFloat(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.FLOAT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Float.isNaN(a.getFloat(c.ia)) || Float.isNaN(b.getFloat(c.ib))) {
+                                r.setFloat(i, Float.NaN);
+                            } else {
+                                r.setFloat(i, a.getFloat(c.ia) / b.getFloat(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array divFloat(Array a, float b) {
+    private static Array divFloat(Array a, final float b) {
         Array r = Array.factory(DataType.FLOAT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setFloat(i, a.getFloat(i) / b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setFloat(i, a.getFloat(i) / b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1875,12 +1921,17 @@ public class ArrayMath {
         return r;
     }
 
-    private static Array divFloat(float b, Array a) {
+    private static Array divFloat(final float b, Array a) {
         Array r = Array.factory(DataType.FLOAT, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setFloat(i, b / a.getFloat(i));
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setFloat(i, b / a.getFloat(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1904,17 +1955,22 @@ public class ArrayMath {
             case 0:
                 Array r = Array.factory(DataType.DOUBLE, a.getShape());
                 if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-                    double va,
-                     vb;
-                    for (int i = 0; i < r.getSize(); i++) {
-                        va  = a.getDouble(i);
-                        vb = b.getDouble(i);
-                        if (Double.isNaN(va) || Double.isNaN(vb)) {
-                            r.setDouble(i, Double.NaN);
-                        } else {
-                            r.setDouble(i, va  / vb);
+                    ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                        @Override
+                        public void run(int from, int to) {
+                            double va,
+                             vb;
+                            for (int i = from; i < to; i++) {
+                                va  = a.getDouble(i);
+                                vb = b.getDouble(i);
+                                if (Double.isNaN(va) || Double.isNaN(vb)) {
+                                    r.setDouble(i, Double.NaN);
+                                } else {
+                                    r.setDouble(i, va  / vb);
+                                }
+                            }
                         }
-                    }
+                    });
                 } else {
                     IndexIterator iterR = r.getIndexIterator();
                     IndexIterator iterA = a.getIndexIterator();
@@ -1933,37 +1989,38 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.DOUBLE, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Double.isNaN(a.getDouble(aindex)) || Double.isNaN(b.getDouble(bindex))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, a.getDouble(aindex) / b.getDouble(bindex));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.DOUBLE, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Double.isNaN(a.getDouble(c.ia)) || Double.isNaN(b.getDouble(c.ib))) {
+                                r.setDouble(i, Double.NaN);
+                            } else {
+                                r.setDouble(i, a.getDouble(c.ia) / b.getDouble(c.ib));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array divDouble(Array a, double b) {
+    private static Array divDouble(Array a, final double b) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setDouble(i, a.getDouble(i) / b);
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setDouble(i, a.getDouble(i) / b);
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -1981,12 +2038,17 @@ public class ArrayMath {
         return r;
     }
 
-    private static Array divDouble(double b, Array a) {
+    private static Array divDouble(final double b, Array a) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setDouble(i, b / a.getDouble(i));
-            }
+            ParallelUtil.forRange(r.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setDouble(i, b / a.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterR = r.getIndexIterator();
             IndexIterator iterA = a.getIndexIterator();
@@ -2023,54 +2085,42 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.OBJECT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.OBJECT, bc.getShape());
                 if (isComplex(a)) {
                     if (isComplex(b)) {
                         Complex v1, v2;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v1 = (Complex) a.getObject(aindex);
-                            v2 = (Complex) b.getObject(bindex);
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v1 = (Complex) a.getObject(c.ia);
+                            v2 = (Complex) b.getObject(c.ib);
                             if (v1.isNaN() || v2.isNaN()) {
                                 r.setObject(i, v1);
                             } else {
                                 r.setObject(i, v1.divide(v2));
                             }
-                            index.incr();
                         }
                     } else {
                         Complex v;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v = (Complex) a.getObject(aindex);
-                            if (v.isNaN() || Double.isNaN(b.getDouble(bindex))) {
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v = (Complex) a.getObject(c.ia);
+                            if (v.isNaN() || Double.isNaN(b.getDouble(c.ib))) {
                                 r.setObject(i, new Complex(Double.NaN));
                             } else {
-                                r.setObject(i, v.divide(b.getDouble(bindex)));
+                                r.setObject(i, v.divide(b.getDouble(c.ib)));
                             }
-                            index.incr();
                         }
                     }
                 } else {
                     Complex v;
-                    for (int i = 0; i < a.getSize(); i++) {
-                        current = index.getCurrentCounter();
-                        setIndex(aindex, bindex, current, n, na, nb);
-                        v = (Complex) b.getObject(bindex);
-                        if (v.isNaN() || Double.isNaN(a.getDouble(aindex))) {
+                    Broadcast.Cursor c = bc.cursor(0);
+                    for (int i = 0; i < r.getSize(); i++, c.next()) {
+                        v = (Complex) b.getObject(c.ib);
+                        if (v.isNaN() || Double.isNaN(a.getDouble(c.ia))) {
                             r.setObject(i, new Complex(Double.NaN));
                         } else {
-                            r.setObject(i, v.divide(a.getDouble(aindex)));
+                            r.setObject(i, v.divide(a.getDouble(c.ia)));
                         }
                     }
                 }
@@ -2240,20 +2290,30 @@ public class ArrayMath {
         return null;
     }
 
-    private static Array powInt(Array a, int b) {
+    private static Array powInt(Array a, final int b) {
         Array r = Array.factory(DataType.INT, a.getShape());
-        for (int i = 0; i < a.getSize(); i++) {
-            r.setInt(i, (int) Math.pow(a.getInt(i), b));
-        }
+        ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    r.setInt(i, (int) Math.pow(a.getInt(i), b));
+                }
+            }
+        });
 
         return r;
     }
 
-    private static Array powInt(int a, Array b) {
-        Array r = Array.factory(DataType.INT, b.getShape());
-        for (int i = 0; i < b.getSize(); i++) {
-            r.setInt(i, (int) Math.pow(a, b.getInt(i)));
-        }
+    private static Array powInt(final int a, final Array b) {
+        final Array r = Array.factory(DataType.INT, b.getShape());
+        ParallelUtil.forRange(b.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    r.setInt(i, (int) Math.pow(a, b.getInt(i)));
+                }
+            }
+        });
 
         return r;
     }
@@ -2263,46 +2323,57 @@ public class ArrayMath {
         switch (broadcast) {
             case 0:
                 Array r = Array.factory(DataType.INT, a.getShape());
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setInt(i, (int) Math.pow(a.getInt(i), b.getInt(i)));
-                }
+                ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setInt(i, (int) Math.pow(a.getInt(i), b.getInt(i)));
+                        }
+                    }
+                });
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.INT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    r.setInt(i, (int) Math.pow(a.getInt(aindex), b.getInt(bindex)));
-                    index.incr();
-                }
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.INT, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            r.setInt(i, (int) Math.pow(a.getInt(c.ia), b.getInt(c.ib)));
+                        }
+                    }
+                });
                 return r;
             default:
                 return null;
         }
     }
 
-    private static Array powDouble(Array a, double b) {
+    private static Array powDouble(Array a, final double b) {
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
-        for (int i = 0; i < a.getSize(); i++) {
-            r.setDouble(i, Math.pow(a.getDouble(i), b));
-        }
+        ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    r.setDouble(i, Math.pow(a.getDouble(i), b));
+                }
+            }
+        });
 
         return r;
     }
 
-    private static Array powDouble(double a, Array b) {
-        Array r = Array.factory(DataType.DOUBLE, b.getShape());
-        for (int i = 0; i < b.getSize(); i++) {
-            r.setDouble(i, Math.pow(a, b.getDouble(i)));
-        }
+    private static Array powDouble(final double a, final Array b) {
+        final Array r = Array.factory(DataType.DOUBLE, b.getShape());
+        ParallelUtil.forRange(b.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    r.setDouble(i, Math.pow(a, b.getDouble(i)));
+                }
+            }
+        });
 
         return r;
     }
@@ -2312,34 +2383,35 @@ public class ArrayMath {
         switch (broadcast) {
             case 0:
                 Array r = Array.factory(DataType.DOUBLE, a.getShape());
-                for (int i = 0; i < a.getSize(); i++) {
-                    if (Double.isNaN(a.getDouble(i)) || Double.isNaN(b.getDouble(i))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, Math.pow(a.getDouble(i), b.getDouble(i)));
+                ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            if (Double.isNaN(a.getDouble(i)) || Double.isNaN(b.getDouble(i))) {
+                                r.setDouble(i, Double.NaN);
+                            } else {
+                                r.setDouble(i, Math.pow(a.getDouble(i), b.getDouble(i)));
+                            }
+                        }
                     }
-                }
+                });
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.DOUBLE, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
-                for (int i = 0; i < r.getSize(); i++) {
-                    current = index.getCurrentCounter();
-                    setIndex(aindex, bindex, current, n, na, nb);
-                    if (Double.isNaN(a.getDouble(aindex)) || Double.isNaN(b.getDouble(bindex))) {
-                        r.setDouble(i, Double.NaN);
-                    } else {
-                        r.setDouble(i, Math.pow(a.getDouble(aindex), b.getDouble(bindex)));
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.DOUBLE, bc.getShape());
+                ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                    @Override
+                    public void run(int from, int to) {
+                        Broadcast.Cursor c = bc.cursor(from);
+                        for (int i = from; i < to; i++, c.next()) {
+                            if (Double.isNaN(a.getDouble(c.ia)) || Double.isNaN(b.getDouble(c.ib))) {
+                                r.setDouble(i, Double.NaN);
+                            } else {
+                                r.setDouble(i, Math.pow(a.getDouble(c.ia), b.getDouble(c.ib)));
+                            }
+                        }
                     }
-                    index.incr();
-                }
+                });
                 return r;
             default:
                 return null;
@@ -2387,54 +2459,42 @@ public class ArrayMath {
                 }
                 return r;
             case 1:
-                int[] shape = broadcast(a, b);
-                r = Array.factory(DataType.OBJECT, shape);
-                Index index = r.getIndex();
-                Index aindex = a.getIndex();
-                Index bindex = b.getIndex();
-                int n = r.getRank();
-                int na = a.getRank();
-                int nb = b.getRank();
-                int[] current;
+                Broadcast bc = new Broadcast(a, b);
+                r = Array.factory(DataType.OBJECT, bc.getShape());
                 if (isComplex(a)) {
                     if (isComplex(b)) {
                         Complex v1, v2;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v1 = (Complex) a.getObject(aindex);
-                            v2 = (Complex) b.getObject(bindex);
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v1 = (Complex) a.getObject(c.ia);
+                            v2 = (Complex) b.getObject(c.ib);
                             if (v1.isNaN() || v2.isNaN()) {
                                 r.setObject(i, v1);
                             } else {
                                 r.setObject(i, v1.pow(v2));
                             }
-                            index.incr();
                         }
                     } else {
                         Complex v;
-                        for (int i = 0; i < r.getSize(); i++) {
-                            current = index.getCurrentCounter();
-                            setIndex(aindex, bindex, current, n, na, nb);
-                            v = (Complex) a.getObject(aindex);
-                            if (v.isNaN() || Double.isNaN(b.getDouble(bindex))) {
+                        Broadcast.Cursor c = bc.cursor(0);
+                        for (int i = 0; i < r.getSize(); i++, c.next()) {
+                            v = (Complex) a.getObject(c.ia);
+                            if (v.isNaN() || Double.isNaN(b.getDouble(c.ib))) {
                                 r.setObject(i, new Complex(Double.NaN));
                             } else {
-                                r.setObject(i, v.pow(b.getDouble(bindex)));
+                                r.setObject(i, v.pow(b.getDouble(c.ib)));
                             }
-                            index.incr();
                         }
                     }
                 } else {
                     Complex v;
-                    for (int i = 0; i < a.getSize(); i++) {
-                        current = index.getCurrentCounter();
-                        setIndex(aindex, bindex, current, n, na, nb);
-                        v = (Complex) b.getObject(bindex);
-                        if (v.isNaN() || Double.isNaN(a.getDouble(aindex))) {
+                    Broadcast.Cursor c = bc.cursor(0);
+                    for (int i = 0; i < r.getSize(); i++, c.next()) {
+                        v = (Complex) b.getObject(c.ib);
+                        if (v.isNaN() || Double.isNaN(a.getDouble(c.ia))) {
                             r.setObject(i, new Complex(Double.NaN));
                         } else {
-                            r.setObject(i, v.pow(a.getDouble(aindex)));
+                            r.setObject(i, v.pow(a.getDouble(c.ia)));
                         }
                     }
                 }
@@ -2621,11 +2681,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array equal(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(DataType.BOOLEAN, bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setBoolean(i, a.getDouble(c.ia) == b.getDouble(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < r.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) == b.getDouble(i));
-            }
+            ParallelUtil.forRange(r.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) == b.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterB = b.getIndexIterator();
@@ -2645,14 +2725,19 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array equal(Array a, Number b) {
+    public static Array equal(Array a, final Number b) {
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
-        double v = b.doubleValue();
+        final double v = b.doubleValue();
         if (Double.isNaN(v)) {
             if (a.getIndexPrivate().isFastIterator()) {
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setBoolean(i, Double.isNaN(a.getDouble(i)));
-                }
+                ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setBoolean(i, Double.isNaN(a.getDouble(i)));
+                        }
+                    }
+                });
             } else {
                 IndexIterator iterA = a.getIndexIterator();
                 IndexIterator iterR = r.getIndexIterator();
@@ -2662,9 +2747,14 @@ public class ArrayMath {
             }
         } else {
             if (a.getIndexPrivate().isFastIterator()) {
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setBoolean(i, a.getDouble(i) == v);
-                }
+                ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setBoolean(i, a.getDouble(i) == v);
+                        }
+                    }
+                });
             } else {
                 IndexIterator iterA = a.getIndexIterator();
                 IndexIterator iterR = r.getIndexIterator();
@@ -2709,11 +2799,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array lessThan(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(DataType.BOOLEAN, bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setBoolean(i, a.getDouble(c.ia) < b.getDouble(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) < b.getDouble(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) < b.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2733,12 +2843,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array lessThan(Array a, Number b) {
+    public static Array lessThan(Array a, final Number b) {
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) < b.doubleValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) < b.doubleValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2758,11 +2873,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array lessThanOrEqual(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(DataType.BOOLEAN, bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setBoolean(i, a.getDouble(c.ia) <= b.getDouble(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) <= b.getDouble(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) <= b.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2782,12 +2917,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array lessThanOrEqual(Array a, Number b) {
+    public static Array lessThanOrEqual(Array a, final Number b) {
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) <= b.doubleValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) <= b.doubleValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2807,11 +2947,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array greaterThan(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(DataType.BOOLEAN, bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setBoolean(i, a.getDouble(c.ia) > b.getDouble(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) > b.getDouble(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) > b.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2831,12 +2991,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array greaterThan(Array a, Number b) {
+    public static Array greaterThan(Array a, final Number b) {
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) > b.doubleValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) > b.doubleValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2856,11 +3021,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array greaterThanOrEqual(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(DataType.BOOLEAN, bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setBoolean(i, a.getDouble(c.ia) >= b.getDouble(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) >= b.getDouble(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) >= b.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2880,12 +3065,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array greaterThanOrEqual(Array a, Number b) {
+    public static Array greaterThanOrEqual(Array a, final Number b) {
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) >= b.doubleValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) >= b.doubleValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2905,11 +3095,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array notEqual(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(DataType.BOOLEAN, bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setBoolean(i, a.getDouble(c.ia) != b.getDouble(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setBoolean(i, a.getDouble(i) != b.getDouble(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setBoolean(i, a.getDouble(i) != b.getDouble(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -2929,14 +3139,19 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array notEqual(Array a, Number b) {
+    public static Array notEqual(Array a, final Number b) {
         Array r = Array.factory(DataType.BOOLEAN, a.getShape());
-        double v = b.doubleValue();
+        final double v = b.doubleValue();
         if (Double.isNaN(v)) {
             if (a.getIndexPrivate().isFastIterator()) {
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setBoolean(i, !Double.isNaN(a.getDouble(i)));
-                }
+                ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setBoolean(i, !Double.isNaN(a.getDouble(i)));
+                        }
+                    }
+                });
             } else {
                 IndexIterator iterA = a.getIndexIterator();
                 IndexIterator iterR = r.getIndexIterator();
@@ -2946,9 +3161,14 @@ public class ArrayMath {
             }
         } else {
             if (a.getIndexPrivate().isFastIterator()) {
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setBoolean(i, a.getDouble(i) != v);
-                }
+                ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setBoolean(i, a.getDouble(i) != v);
+                        }
+                    }
+                });
             } else {
                 IndexIterator iterA = a.getIndexIterator();
                 IndexIterator iterR = r.getIndexIterator();
@@ -2986,49 +3206,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array any(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.BOOLEAN, shape);
-        boolean b;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            IndexIterator ii = a.getRangeIterator(ranges);
-            b = false;
-            while (ii.hasNext()) {
-                if (ii.getBooleanNext()) {
-                    b = true;
-                    break;
-                }
-            }
-            r.setBoolean(i, b);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.any(a, axis);
     }
 
     /**
@@ -3056,49 +3234,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array all(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.BOOLEAN, shape);
-        boolean b;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            IndexIterator ii = a.getRangeIterator(ranges);
-            b = true;
-            while (ii.hasNext()) {
-                if (!ii.getBooleanNext()) {
-                    b = false;
-                    break;
-                }
-            }
-            r.setBoolean(i, b);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.all(a, axis);
     }
 
     /**
@@ -3283,12 +3419,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array bitAnd(Array a, Number b) {
+    public static Array bitAnd(Array a, final Number b) {
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) & b.intValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) & b.intValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -3308,11 +3449,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array bitAnd(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(a.getDataType(), bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setInt(i, a.getInt(c.ia) & b.getInt(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) & b.getInt(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) & b.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterB = b.getIndexIterator();
@@ -3332,12 +3493,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array bitOr(Array a, Number b) {
+    public static Array bitOr(Array a, final Number b) {
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) | b.intValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) | b.intValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -3357,11 +3523,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array bitOr(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(a.getDataType(), bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setInt(i, a.getInt(c.ia) | b.getInt(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) | b.getInt(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) | b.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterB = b.getIndexIterator();
@@ -3381,12 +3567,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array bitXor(Array a, Number b) {
+    public static Array bitXor(Array a, final Number b) {
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) ^ b.intValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) ^ b.intValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -3406,11 +3597,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array bitXor(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(a.getDataType(), bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setInt(i, a.getInt(c.ia) ^ b.getInt(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setInt(i, a.getInt(i) ^ b.getInt(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setInt(i, a.getInt(i) ^ b.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterB = b.getIndexIterator();
@@ -3433,9 +3644,14 @@ public class ArrayMath {
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getDataType() == DataType.BOOLEAN) {
             if (a.getIndexPrivate().isFastIterator()) {
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setBoolean(i, !a.getBoolean(i));
-                }
+                ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setBoolean(i, !a.getBoolean(i));
+                        }
+                    }
+                });
             } else {
                 IndexIterator iterA = a.getIndexIterator();
                 IndexIterator iterR = r.getIndexIterator();
@@ -3445,9 +3661,14 @@ public class ArrayMath {
             }
         } else {
             if (a.getIndexPrivate().isFastIterator()) {
-                for (int i = 0; i < a.getSize(); i++) {
-                    r.setObject(i, ~a.getInt(i));
-                }
+                ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            r.setObject(i, ~a.getInt(i));
+                        }
+                    }
+                });
             } else {
                 IndexIterator iterA = a.getIndexIterator();
                 IndexIterator iterR = r.getIndexIterator();
@@ -3467,12 +3688,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array leftShift(Array a, Number b) {
+    public static Array leftShift(Array a, final Number b) {
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setObject(i, a.getInt(i) << b.intValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setObject(i, a.getInt(i) << b.intValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -3492,11 +3718,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array leftShift(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(a.getDataType(), bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setObject(i, a.getInt(c.ia) << b.getInt(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setObject(i, a.getInt(i) << b.getInt(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setObject(i, a.getInt(i) << b.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterB = b.getIndexIterator();
@@ -3516,12 +3762,17 @@ public class ArrayMath {
      * @param b Number b
      * @return Result array
      */
-    public static Array rightShift(Array a, Number b) {
+    public static Array rightShift(Array a, final Number b) {
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setObject(i, a.getInt(i) >> b.intValue());
-            }
+            ParallelUtil.forRange(a.getSize(), new UnaryTask(a, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setObject(i, a.getInt(i) >> b.intValue());
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterR = r.getIndexIterator();
@@ -3541,11 +3792,31 @@ public class ArrayMath {
      * @return Result array
      */
     public static Array rightShift(Array a, Array b) {
+        if (broadcastCheck(a, b) == 1) {
+            Broadcast bc = new Broadcast(a, b);
+            Array r = Array.factory(a.getDataType(), bc.getShape());
+            ParallelUtil.forRange(r.getSize(), new BroadcastTask(a, b, r, bc) {
+                @Override
+                public void run(int from, int to) {
+                    Broadcast.Cursor c = bc.cursor(from);
+                    for (int i = from; i < to; i++, c.next()) {
+                        r.setObject(i, a.getInt(c.ia) >> b.getInt(c.ib));
+                    }
+                }
+            });
+            return r;
+        }
+
         Array r = Array.factory(a.getDataType(), a.getShape());
         if (a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator()) {
-            for (int i = 0; i < a.getSize(); i++) {
-                r.setObject(i, a.getInt(i) >> b.getInt(i));
-            }
+            ParallelUtil.forRange(a.getSize(), new BinaryTask(a, b, r) {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        r.setObject(i, a.getInt(i) >> b.getInt(i));
+                    }
+                }
+            });
         } else {
             IndexIterator iterA = a.getIndexIterator();
             IndexIterator iterB = b.getIndexIterator();
@@ -3849,6 +4120,10 @@ public class ArrayMath {
                 shape = new int[1];
                 shape[0] = a.getShape()[0];
             }
+            if (isContiguous(type, a, b)) {
+                int n = b.getRank() == 2 ? shape[1] : 1;
+                return gemm(a, b, type, shape, shape[0], n, a.getShape()[1]);
+            }
             Array r = Array.factory(type, shape);
             Index aIndex = a.getIndex();
             Index bIndex = b.getIndex();
@@ -3881,6 +4156,9 @@ public class ArrayMath {
             }
             shape = new int[1];
             shape[0] = b.getShape()[1];
+            if (isContiguous(type, a, b)) {
+                return gemm(a, b, type, shape, 1, shape[0], a.getShape()[0]);
+            }
             Array r = Array.factory(type, shape);
             double v;
             int n = a.getShape()[0];
@@ -3897,6 +4175,34 @@ public class ArrayMath {
         }
     }
 
+    private static boolean isContiguous(DataType type, Array a, Array b) {
+        return type.isNumeric() && type != DataType.COMPLEX
+                && a.getIndexPrivate().isFastIterator() && b.getIndexPrivate().isFastIterator();
+    }
+
+    /**
+     * Matrix multiplication over the primitive storage of contiguous arrays.
+     * Float matrices are multiplied in float storage, other numeric types in
+     * double storage.
+     */
+    private static Array gemm(Array a, Array b, DataType type, int[] shape, int m, int n, int k) {
+        if (a.getDataType() == DataType.FLOAT && b.getDataType() == DataType.FLOAT) {
+            float[] c = MatrixUtil.gemm((float[]) a.getStorage(), (float[]) b.getStorage(), m, n, k);
+            return Array.factory(DataType.FLOAT, shape, c);
+        }
+
+        double[] c = MatrixUtil.gemm((double[]) a.get1DJavaArray(double.class),
+                (double[]) b.get1DJavaArray(double.class), m, n, k);
+        if (type == DataType.DOUBLE) {
+            return Array.factory(DataType.DOUBLE, shape, c);
+        }
+        Array r = Array.factory(type, shape);
+        for (int i = 0; i < c.length; i++) {
+            r.setDouble(i, c[i]);
+        }
+        return r;
+    }
+
     /**
      * Return the dot product of two vectors.
      *
@@ -4921,42 +5227,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array min(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            s = min(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.min(a, axis);
     }
 
     /**
@@ -5020,42 +5291,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array max(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            s = max(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.max(a, axis);
     }
 
     /**
@@ -5094,42 +5330,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array sum(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double s;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            s = sum(a, ranges);
-            r.setDouble(i, s);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.sum(a, axis);
     }
 
     /**
@@ -5408,112 +5609,44 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array argMin(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.INT, shape);
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            idx = argMin(a.section(ranges));
-            r.setInt(i, idx);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.argMin(a, axis);
     }
 
     /**
      * Get the index of the maximum value into the flattened array.
      *
-     * @param a Array a
-     * @return Maximum value index
-     * @throws org.meteothink.ndarray.InvalidRangeException
-     */
-    public static int argMax(Array a) throws InvalidRangeException {
-        double max = Double.MIN_VALUE, v;
-        int idx = 0;
-        IndexIterator iterator = a.getIndexIterator();
-        int i = 0;
-        while (iterator.hasNext()) {
-            v = iterator.getDoubleNext();
-            if (!Double.isNaN(v)) {
-                if (max < v) {
-                    max = v;
-                    idx = i;
-                }
-            }
-            i += 1;
-        }
-        return idx;
-    }
-
-    /**
-     * Get the indices of the maximum values along an axis.
-     *
-     * @param a Array a
-     * @param axis Axis
-     * @return Indices
-     * @throws org.meteothink.ndarray.InvalidRangeException
-     */
-    public static Array argMax(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.INT, shape);
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
+     * @param a Array a
+     * @return Maximum value index
+     * @throws org.meteothink.ndarray.InvalidRangeException
+     */
+    public static int argMax(Array a) throws InvalidRangeException {
+        double max = Double.MIN_VALUE, v;
+        int idx = 0;
+        IndexIterator iterator = a.getIndexIterator();
+        int i = 0;
+        while (iterator.hasNext()) {
+            v = iterator.getDoubleNext();
+            if (!Double.isNaN(v)) {
+                if (max < v) {
+                    max = v;
+                    idx = i;
                 }
             }
-            idx = argMax(a.section(ranges));
-            r.setInt(i, idx);
-            indexr.incr();
+            i += 1;
         }
+        return idx;
+    }
 
-        return r;
+    /**
+     * Get the indices of the maximum values along an axis.
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Indices
+     * @throws org.meteothink.ndarray.InvalidRangeException
+     */
+    public static Array argMax(Array a, int axis) throws InvalidRangeException {
+        return ReduceUtil.argMax(a, axis);
     }
 
     /**
@@ -5525,42 +5658,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array mean(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = mean(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.mean(a, axis);
     }
 
     /**
@@ -5659,42 +5757,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array std(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = std(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.std(a, axis);
     }
 
     /**
@@ -5786,42 +5849,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array var(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = std(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return ReduceUtil.var(a, axis);
     }
 
     /**
@@ -5875,42 +5903,7 @@ public class ArrayMath {
      * @throws org.meteothink.ndarray.InvalidRangeException
      */
     public static Array median(Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        double mean;
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            mean = median(a, ranges);
-            r.setDouble(i, mean);
-            indexr.incr();
-        }
-
-        return r;
+        return SelectUtil.quartile(a, axis, 2);
     }
 
     /**
@@ -5920,12 +5913,7 @@ public class ArrayMath {
      * @return Median
      */
     public static double median(List<Double> aDataList) {
-        Collections.sort(aDataList);
-        if (aDataList.size() % 2 == 0) {
-            return (aDataList.get(aDataList.size() / 2) + aDataList.get(aDataList.size() / 2 - 1)) / 2.0;
-        } else {
-            return aDataList.get(aDataList.size() / 2);
-        }
+        return quantile(aDataList, 2);
     }
 
     /**
@@ -5970,37 +5958,12 @@ public class ArrayMath {
      * @return Quantile value
      */
     public static double quantile(List<Double> aDataList, int aNum) {
-        Collections.sort(aDataList);
-        double aData = 0;
-        switch (aNum) {
-            case 0:
-                aData = minimum(aDataList);
-                break;
-            case 1:
-                if ((aDataList.size() + 1) % 4 == 0) {
-                    aData = aDataList.get((aDataList.size() + 1) / 4 - 1);
-                } else {
-                    aData = aDataList.get((aDataList.size() + 1) / 4 - 1) + 0.75 * (aDataList.get((aDataList.size() + 1) / 4)
-                            - aDataList.get((aDataList.size() + 1) / 4 - 1));
-                }
-                break;
-            case 2:
-                aData = median(aDataList);
-                break;
-            case 3:
-                if ((aDataList.size() + 1) % 4 == 0) {
-                    aData = aDataList.get((aDataList.size() + 1) * 3 / 4 - 1);
-                } else {
-                    aData = aDataList.get((aDataList.size() + 1) * 3 / 4 - 1) + 0.25 * (aDataList.get((aDataList.size() + 1) * 3 / 4)
-                            - aDataList.get((aDataList.size() + 1) * 3 / 4 - 1));
-                }
-                break;
-            case 4:
-                aData = maximum(aDataList);
-                break;
+        int n = aDataList.size();
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = aDataList.get(i);
         }
-
-        return aData;
+        return SelectUtil.quartile(v, n, aNum);
     }
 
     /**
@@ -6011,20 +5974,7 @@ public class ArrayMath {
      * @return Quantile value
      */
     public static double quantile(Array a, int aNum) {
-        List<Double> dlist = new ArrayList<>();
-        IndexIterator ii = a.getIndexIterator();
-        double v;
-        while (ii.hasNext()) {
-            v = ii.getDoubleNext();
-            if (!Double.isNaN(v)) {
-                dlist.add(v);
-            }
-        }
-        if (dlist.size() <= 3) {
-            return Double.NaN;
-        } else {
-            return quantile(dlist, aNum);
-        }
+        return SelectUtil.quartile(a, aNum);
     }
 
     /**
@@ -6194,66 +6144,22 @@ public class ArrayMath {
      * @return Moving averaged array
      */
     public static Array rolling_mean(Array x, int window, boolean center) {
-        int n = (int) x.getSize();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{n});
-        double v, vv;
-        int dn;
-        if (center) {
-            int halfn = (window - 1) / 2;
-            int idx;
-            Index indexX = x.getIndex();
-            for (int i = 0; i < n; i++) {
-                v = 0;
-                dn = 0;
-                for (int j = 0; j < window; j++) {
-                    if (j < halfn) {
-                        idx = i - j;
-                    } else if (j == halfn) {
-                        idx = i;
-                    } else {
-                        idx = i + (j - halfn);
-                    }
-                    if (idx < 0 || idx >= n) {
-                        break;
-                    }
-                    vv = x.getDouble(indexX.set0(idx));
-                    if (!Double.isNaN(vv)) {
-                        v += vv;
-                        dn += 1;
-                    }
-                }
-                if (dn > 0) {
-                    v = v / dn;
-                } else {
-                    v = Double.NaN;
-                }
-                r.setDouble(i, v);
-            }
-        } else {
-            Index indexX = x.getIndex();
-            for (int i = 0; i < n; i++) {
-                v = 0;
-                dn = 0;
-                for (int j = 0; j < window; j++) {
-                    if (i - j < 0) {
-                        break;
-                    }
-                    vv = x.getDouble(indexX.set0(i - j));
-                    if (!Double.isNaN(vv)) {
-                        v += vv;
-                        dn += 1;
-                    }
-                }
-                if (dn > 0) {
-                    v = v / dn;
-                } else {
-                    v = Double.NaN;
-                }
-                r.setDouble(i, v);
-            }
-        }
+        Array a = x.getRank() == 1 ? x : x.reshape(new int[]{(int) x.getSize()});
+        return RollingUtil.rolling(a, RollingUtil.Statistic.MEAN, window, 0, center, 1, 1);
+    }
 
-        return r;
+    /**
+     * Moving average function along an axis
+     *
+     * @param x The data array
+     * @param window Size of moving window
+     * @param axis The axis
+     * @param center Set the data in center moving window
+     * @param minPeriods Minimum number of valid values in a window
+     * @return Moving averaged array
+     */
+    public static Array rolling_mean(Array x, int window, int axis, boolean center, int minPeriods) {
+        return RollingUtil.rolling(x, RollingUtil.Statistic.MEAN, window, axis, center, minPeriods, 1);
     }
 
     // </editor-fold>
@@ -6994,34 +6900,8 @@ public class ArrayMath {
      * @return Result grid data
      */
     public static Array cdiff(Array data, int dimIdx) {
-        Array r = Array.factory(DataType.DOUBLE, data.getShape());
-        Index index = data.getIndex();
-        Index indexr = r.getIndex();
-        int[] shape = data.getShape();
-        int[] current, cc;
-        double a, b;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            if (current[dimIdx] == 0 || current[dimIdx] == shape[dimIdx] - 1) {
-                r.setDouble(indexr, Double.NaN);
-            } else {
-                cc = Arrays.copyOf(current, current.length);
-                cc[dimIdx] = cc[dimIdx] - 1;
-                index.set(cc);
-                a = data.getDouble(index);
-                cc[dimIdx] = cc[dimIdx] + 2;
-                index.set(cc);
-                b = data.getDouble(index);
-                if (Double.isNaN(a) || Double.isNaN(b)) {
-                    r.setDouble(indexr, Double.NaN);
-                } else {
-                    r.setDouble(indexr, a - b);
-                }
-            }
-            indexr.incr();
-        }
-
-        return r;
+        return StencilUtil.apply(data, StencilUtil.Kernel.x(1, 0, -1), -1, dimIdx, StencilUtil.Edge.NAN,
+                StencilUtil.Missing.PROPAGATE, Double.NaN, false, DataType.DOUBLE);
     }
 
     /**
@@ -7095,26 +6975,7 @@ public class ArrayMath {
      * @return Curl
      */
     public static Array hcurl(Array uData, Array vData, List<Number> xx, List<Number> yy) {
-        int rank = uData.getRank();
-        int[] shape = uData.getShape();
-        Array lonData = Array.factory(DataType.DOUBLE, shape);
-        Array latData = Array.factory(DataType.DOUBLE, shape);
-        Index index = lonData.getIndex();
-        int[] current;
-        for (int i = 0; i < lonData.getSize(); i++) {
-            current = index.getCurrentCounter();
-            lonData.setDouble(index, xx.get(current[rank - 1]).doubleValue());
-            latData.setDouble(index, yy.get(current[rank - 2]).doubleValue());
-            index.incr();
-        }
-
-        Array dv = cdiff(vData, rank - 1);
-        Array dx = mul(cdiff(lonData, rank - 1), Math.PI / 180);
-        Array du = cdiff(mul(uData, cos(mul(latData, Math.PI / 180))), rank - 2);
-        Array dy = mul(cdiff(latData, rank - 2), Math.PI / 180);
-        Array gData = div(sub(div(dv, dx), div(du, dy)), mul(cos(mul(latData, Math.PI / 180)), 6.37e6));
-
-        return gData;
+        return horizontalDiff(uData, vData, xx, yy, true);
     }
 
     /**
@@ -7127,26 +6988,63 @@ public class ArrayMath {
      * @return Divergence
      */
     public static Array hdivg(Array uData, Array vData, List<Number> xx, List<Number> yy) {
+        return horizontalDiff(uData, vData, xx, yy, false);
+    }
+
+    /**
+     * Curl or divergence on the trailing two dimensions (y, x) of the U/V
+     * data. The centered differences are computed with the stencil engine,
+     * and the coordinate terms once per row and column.
+     */
+    private static Array horizontalDiff(final Array uData, final Array vData, List<Number> xx, List<Number> yy,
+            final boolean curl) {
         int rank = uData.getRank();
         int[] shape = uData.getShape();
-        Array lonData = Array.factory(DataType.DOUBLE, shape);
-        Array latData = Array.factory(DataType.DOUBLE, shape);
-        Index index = lonData.getIndex();
-        int[] current;
-        for (int i = 0; i < lonData.getSize(); i++) {
-            current = index.getCurrentCounter();
-            lonData.setDouble(index, xx.get(current[rank - 1]).doubleValue());
-            latData.setDouble(index, yy.get(current[rank - 2]).doubleValue());
-            index.incr();
-        }
-
-        Array du = cdiff(uData, rank - 1);
-        Array dx = mul(cdiff(lonData, rank - 1), Math.PI / 180);
-        Array dv = cdiff(mul(vData, cos(mul(latData, Math.PI / 180))), rank - 2);
-        Array dy = mul(cdiff(latData, rank - 2), Math.PI / 180);
-        Array gData = div(add(div(du, dx), div(dv, dy)), mul(cos(mul(latData, Math.PI / 180)), 6.37e6));
-
-        return gData;
+        final int nx = shape[rank - 1];
+        final int ny = shape[rank - 2];
+        final double[] dx = new double[nx];
+        final double[] dy = new double[ny];
+        final double[] cosLat = new double[ny];
+        for (int j = 0; j < nx; j++) {
+            dx[j] = j == 0 || j == nx - 1 ? Double.NaN
+                    : (xx.get(j - 1).doubleValue() - xx.get(j + 1).doubleValue()) * (Math.PI / 180);
+        }
+        for (int i = 0; i < ny; i++) {
+            dy[i] = i == 0 || i == ny - 1 ? Double.NaN
+                    : (yy.get(i - 1).doubleValue() - yy.get(i + 1).doubleValue()) * (Math.PI / 180);
+            cosLat[i] = Math.cos(yy.get(i).doubleValue() * (Math.PI / 180));
+        }
+
+        //U (curl) or V (divergence) weighted by the cosine of latitude
+        final Array xData = curl ? vData : uData;
+        final Array yData = curl ? uData : vData;
+        final Array src = yData.getIndexPrivate().isFastIterator() ? yData : yData.copy();
+        final double[] w = new double[(int) src.getSize()];
+        ParallelUtil.forRange(w.length, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    w[k] = src.getDouble(k) * cosLat[(k / nx) % ny];
+                }
+            }
+        });
+        Array ddx = cdiff(xData, rank - 1);
+        Array ddy = cdiff(Array.factory(DataType.DOUBLE, shape, w), rank - 2);
+        final double[] rx = (double[]) ddx.getStorage();
+        final double[] ry = (double[]) ddy.getStorage();
+        ParallelUtil.forRange(rx.length, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int i = (k / nx) % ny;
+                    double a = rx[k] / dx[k % nx];
+                    double b = ry[k] / dy[i];
+                    rx[k] = (curl ? a - b : a + b) / (cosLat[i] * 6.37e6);
+                }
+            }
+        });
+
+        return ddx;
     }
 
     /**
@@ -5,29 +5,30 @@
  */
 package org.meteothink.math;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
-import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 //import org.meteoinfo.data.mapdata.Field;
 //import org.meteoinfo.geoprocess.GeoComputation;
 //import org.meteoinfo.geoprocess.analysis.ResampleMethods;
@@ -35,13 +36,14 @@ import org.meteothink.util.DataConvert;
 import org.meteothink.util.MIMath;
 import org.meteothink.util.BigDecimalUtil;
 import org.meteothink.util.GlobalUtil;
-import org.meteothink.io.EndianDataOutputStream;
-import org.meteothink.math.KDTree.SearchResult;
+import org.meteothink.io.ASCIIReader;
+import org.meteothink.math.interpolate.BilinearRegridder;
+import org.meteothink.math.interpolate.ColumnInterpolator;
+import org.meteothink.math.interpolate.RegularGridInterpolator;
 import org.meteothink.ndarray.Complex;
 import org.meteothink.ndarray.Array;
 import org.meteothink.ndarray.DataType;
 import org.meteothink.ndarray.Index;
-import org.meteothink.ndarray.Index2D;
 import org.meteothink.ndarray.IndexIterator;
 import org.meteothink.ndarray.InvalidRangeException;
 import org.meteothink.ndarray.Range;
@@ -52,6 +54,15 @@ import org.meteothink.ndarray.Range;
  */
 public class ArrayUtil {
 
+    /**
+     * Size in bytes of the file windows mapped by the binary file reader
+     */
+    private static final int BIN_WINDOW_SIZE = 1 << 26;
+    /**
+     * Size in bytes of the direct buffer used by the binary file writer
+     */
+    private static final int BIN_BUFFER_SIZE = 1 << 20;
+
     // <editor-fold desc="File">
     /**
      * Read ASCII data file to an array
@@ -69,13 +80,6 @@ public class ArrayUtil {
      */
     public static Array readASCIIFile(String fileName, String delimiter, int headerLines, String dataType,
             List<Integer> shape, boolean readFirstCol) throws UnsupportedEncodingException, FileNotFoundException, IOException {
-        BufferedReader sr = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)));
-        if (headerLines > 0) {
-            for (int i = 0; i < headerLines; i++) {
-                sr.readLine();
-            }
-        }
-
         DataType dt = DataType.DOUBLE;
         if (dataType != null) {
             if (dataType.contains("%")) {
@@ -84,50 +88,15 @@ public class ArrayUtil {
             dt = ArrayUtil.toDataType(dataType);
         }
 
-        int i;
-        int[] ss = new int[shape.size()];
-        for (i = 0; i < shape.size(); i++) {
-            ss[i] = shape.get(i);
-        }
-        Array a = Array.factory(dt, ss);
-
-        String[] dataArray;
-        i = 0;
-        String line = sr.readLine();
-        int sCol = 0;
-        if (!readFirstCol) {
-            sCol = 1;
-        }
-
-        if (delimiter == null || delimiter.equals(" ")) {
-            delimiter = "\\s+";
-        } else {
-            delimiter = Pattern.quote(delimiter);
-        }
-
-        while (line != null) {
-            line = line.trim();
-            if (line.isEmpty()) {
-                line = sr.readLine();
-                continue;
-            }
-            dataArray = line.split(delimiter);
-            for (int j = sCol; j < dataArray.length; j++) {
-                a.setDouble(i, Double.parseDouble(dataArray[j]));
-                i += 1;
-                if (i >= a.getSize()) {
-                    break;
-                }
-            }
-            if (i >= a.getSize()) {
-                break;
+        int[] ss = null;
+        if (shape != null && !shape.isEmpty()) {
+            ss = new int[shape.size()];
+            for (int i = 0; i < shape.size(); i++) {
+                ss[i] = shape.get(i);
             }
-
-            line = sr.readLine();
         }
-        sr.close();
 
-        return a;
+        return new ASCIIReader(delimiter, readFirstCol).read(fileName, headerLines, dt, ss);
     }
 
     /**
@@ -137,18 +106,8 @@ public class ArrayUtil {
      * @return Row number
      * @throws FileNotFoundException
      */
-    public static int numASCIIRow(String fileName) throws FileNotFoundException {
-        File f = new File(fileName);
-        int lineNumber;
-        try (Scanner fileScanner = new Scanner(f)) {
-            lineNumber = 0;
-            while (fileScanner.hasNextLine()) {
-                fileScanner.nextLine();
-                lineNumber++;
-            }
-        }
-
-        return lineNumber;
+    public static int numASCIIRow(String fileName) throws FileNotFoundException, IOException {
+        return ASCIIReader.countLines(fileName);
     }
 
     /**
@@ -161,23 +120,24 @@ public class ArrayUtil {
      * @throws FileNotFoundException
      */
     public static int numASCIICol(String fileName, String delimiter, int headerLines) throws FileNotFoundException, IOException {
-        String[] dataArray;
-        if (delimiter == null){
-            delimiter = "\\s+";
-        } else {
-            delimiter = Pattern.quote(delimiter);
-        }
-        try (BufferedReader sr = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)))) {
-            if (headerLines > 0) {
-                for (int i = 0; i < headerLines; i++) {
-                    sr.readLine();
-                }
-            }
-            String line = sr.readLine().trim();
-            dataArray = line.split(delimiter);
-        }
+        return new ASCIIReader(delimiter, true).columns(fileName, headerLines);
+    }
 
-        return dataArray.length;
+    /**
+     * Get the shape of the data of a ASCII file - the number of non empty
+     * lines and the number of values of the first line after the header lines,
+     * counted in a single pass over the file.
+     *
+     * @param fileName File name
+     * @param delimiter Delimiter
+     * @param headerLines Headerline number
+     * @param readFirstCol Read first column data or not
+     * @return Shape
+     * @throws IOException
+     */
+    public static int[] shapeASCIIFile(String fileName, String delimiter, int headerLines,
+            boolean readFirstCol) throws IOException {
+        return new ASCIIReader(delimiter, readFirstCol).shape(fileName, headerLines);
     }
 
     /**
@@ -187,66 +147,56 @@ public class ArrayUtil {
      * @param a Array
      * @param byteOrder Byte order
      * @param append If append to existing file
-     * @param sequential If write as sequential binary file - Fortran
+     * @param sequential If write as sequential binary file - Fortran, the
+     * array must be smaller than 2 GB to fit in one record
      */
     public static void saveBinFile(String fn, Array a, String byteOrder, boolean append,
             boolean sequential) {
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(fn), append))) {
-            EndianDataOutputStream outs = new EndianDataOutputStream(out);
-            ByteBuffer bb = a.getDataAsByteBuffer();
-            int n = (int) a.getSize();
-            ByteOrder bOrder = ByteOrder.LITTLE_ENDIAN;
-            if (byteOrder.equalsIgnoreCase("big_endian")) {
-                bOrder = ByteOrder.BIG_ENDIAN;
-            }
-
+        ByteOrder bOrder = ByteOrder.LITTLE_ENDIAN;
+        if (byteOrder.equalsIgnoreCase("big_endian")) {
+            bOrder = ByteOrder.BIG_ENDIAN;
+        }
+        DataType dt = a.getDataType();
+        int elemBytes = dt.getSize();
+        int n = (int) a.getSize();
+        long recordBytes = a.getSize() * elemBytes;
+        if (sequential && recordBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The array is too large for a sequential binary record");
+        }
+        try (FileChannel fc = new FileOutputStream(new File(fn), append).getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BIN_BUFFER_SIZE);
+            buf.order(bOrder);
             if (sequential) {
-                if (bOrder == ByteOrder.BIG_ENDIAN) {
-                    outs.writeIntBE(n * 4);
-                } else {
-                    outs.writeIntLE(n * 4);
-                }
+                writeRecordMarker(fc, buf, (int) recordBytes);
             }
 
-            if (bOrder == ByteOrder.BIG_ENDIAN) {
-                outs.write(bb.array());
-            } else if (a.getDataType() == DataType.BYTE) {
-                outs.write(bb.array());
-            } else {
-                ByteBuffer nbb = ByteBuffer.allocate(bb.array().length);
-                nbb.order(bOrder);
-                switch (a.getDataType()) {
-                    case INT:
-                        for (int i = 0; i < a.getSize(); i++) {
-                            nbb.putInt(i * 4, bb.getInt());
-                            //nbb.putInt(a.getInt(i));
-                        }
-                        break;
-                    case FLOAT:
-                        for (int i = 0; i < a.getSize(); i++) {
-                            nbb.putFloat(i * 4, bb.getFloat());
-                        }
-                        break;
-                    case DOUBLE:
-                        for (int i = 0; i < a.getSize(); i++) {
-                            nbb.putDouble(i * 8, bb.getDouble());
-                        }
-                        break;
-                    default:
-                        nbb.put(bb);
-                }
-                outs.write(nbb.array());
+            switch (dt) {
+                case BYTE:
+                case SHORT:
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                    boolean fast = a.getIndexPrivate().isFastIterator();
+                    IndexIterator iter = fast ? null : a.getIndexIterator();
+                    Object storage = a.getStorage();
+                    int chunk = BIN_BUFFER_SIZE / elemBytes;
+                    for (int off = 0; off < n; off += chunk) {
+                        int count = Math.min(chunk, n - off);
+                        buf.clear();
+                        encode(buf, dt, storage, iter, off, count);
+                        buf.limit(count * elemBytes);
+                        writeFully(fc, buf);
+                    }
+                    break;
+                default:
+                    writeFully(fc, a.getDataAsByteBuffer());
+                    break;
             }
 
             if (sequential) {
-                if (bOrder == ByteOrder.BIG_ENDIAN) {
-                    outs.writeIntBE(n * 4);
-                } else {
-                    outs.writeIntLE(n * 4);
-                }
+                writeRecordMarker(fc, buf, (int) recordBytes);
             }
-
-            outs.close();
         } catch (FileNotFoundException ex) {
             Logger.getLogger(ArrayUtil.class.getName()).log(Level.SEVERE, null, ex);
         } catch (IOException ex) {
@@ -254,6 +204,93 @@ public class ArrayUtil {
         }
     }
 
+    /**
+     * Encode array elements into a buffer with the buffer byte order. The
+     * elements are bulk copied from the storage when the iterator is null, and
+     * taken from the iterator in canonical order otherwise.
+     */
+    private static void encode(ByteBuffer buf, DataType dt, Object storage, IndexIterator iter,
+            int off, int count) {
+        switch (dt) {
+            case BYTE:
+                if (iter == null) {
+                    buf.put((byte[]) storage, off, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        buf.put(iter.getByteNext());
+                    }
+                }
+                break;
+            case SHORT:
+                ShortBuffer sb = buf.asShortBuffer();
+                if (iter == null) {
+                    sb.put((short[]) storage, off, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        sb.put(iter.getShortNext());
+                    }
+                }
+                break;
+            case INT:
+                IntBuffer ib = buf.asIntBuffer();
+                if (iter == null) {
+                    ib.put((int[]) storage, off, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        ib.put(iter.getIntNext());
+                    }
+                }
+                break;
+            case LONG:
+                LongBuffer lb = buf.asLongBuffer();
+                if (iter == null) {
+                    lb.put((long[]) storage, off, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        lb.put(iter.getLongNext());
+                    }
+                }
+                break;
+            case FLOAT:
+                FloatBuffer fb = buf.asFloatBuffer();
+                if (iter == null) {
+                    fb.put((float[]) storage, off, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        fb.put(iter.getFloatNext());
+                    }
+                }
+                break;
+            case DOUBLE:
+                DoubleBuffer db = buf.asDoubleBuffer();
+                if (iter == null) {
+                    db.put((double[]) storage, off, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        db.put(iter.getDoubleNext());
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Write a Fortran sequential record marker
+     */
+    private static void writeRecordMarker(FileChannel fc, ByteBuffer buf, int nbytes) throws IOException {
+        buf.clear();
+        buf.putInt(nbytes);
+        buf.flip();
+        writeFully(fc, buf);
+    }
+
+    private static void writeFully(FileChannel fc, ByteBuffer buf) throws IOException {
+        buf.rewind();
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+    }
+
     /**
      * Save an array data to a ASCII file
      *
@@ -305,6 +342,24 @@ public class ArrayUtil {
      */
     public static Array readBinFile(String fn, List<Integer> dims, String dataType, int skip,
             String byteOrder) {
+        return readBinFile(fn, dims, dataType, (long) skip, byteOrder);
+    }
+
+    /**
+     * Read array from a binary file. The file is memory mapped in windows, so
+     * files and skip offsets larger than 2 GB are supported, and each window is
+     * bulk decoded into the array storage. Elements beyond the end of the file
+     * are left as zero.
+     *
+     * @param fn Binary file name
+     * @param dims Dimensions
+     * @param dataType Data type string
+     * @param skip Skip bytes
+     * @param byteOrder Byte order
+     * @return Result array
+     */
+    public static Array readBinFile(String fn, List<Integer> dims, String dataType, long skip,
+            String byteOrder) {
         DataType dt = DataType.DOUBLE;
         if (dataType != null) {
             if (dataType.contains("%")) {
@@ -327,63 +382,40 @@ public class ArrayUtil {
             shape[i] = dims.get(i);
         }
         Array r = Array.factory(ndt, shape);
-        IndexIterator iter = r.getIndexIterator();
-        try {
-            DataInputStream ins = new DataInputStream(new FileInputStream(fn));
-            ins.skip(skip);
-            byte[] bytes;
-            byte[] db;
-            int start = 0;
-            switch (dt) {
-                case BYTE:
-                    bytes = new byte[(int) r.getSize()];
-                    ins.read(bytes);
-                    for (int i = 0; i < r.getSize(); i++) {
-                        r.setInt(i, DataConvert.byte2Int(bytes[i]));
-                    }
-                    break;
-                case SHORT:
-                    bytes = new byte[(int) r.getSize() * 2];
-                    db = new byte[2];
-                    ins.read(bytes);
-                    while (iter.hasNext()) {
-                        System.arraycopy(bytes, start, db, 0, 2);
-                        iter.setShortNext(DataConvert.bytes2Short(db, bOrder));
-                        start += 2;
-                    }
-                    break;
-                case INT:
-                    bytes = new byte[(int) r.getSize() * 4];
-                    db = new byte[4];
-                    ins.read(bytes);
-                    while (iter.hasNext()) {
-                        System.arraycopy(bytes, start, db, 0, 4);
-                        iter.setIntNext(DataConvert.bytes2Int(db, bOrder));
-                        start += 4;
-                    }
-                    break;
-                case FLOAT:
-                    bytes = new byte[(int) r.getSize() * 4];
-                    db = new byte[4];
-                    ins.read(bytes);
-                    while (iter.hasNext()) {
-                        System.arraycopy(bytes, start, db, 0, 4);
-                        iter.setFloatNext(DataConvert.bytes2Float(db, bOrder));
-                        start += 4;
-                    }
-                    break;
-                case DOUBLE:
-                    bytes = new byte[(int) r.getSize() * 8];
-                    db = new byte[8];
-                    ins.read(bytes);
-                    while (iter.hasNext()) {
-                        System.arraycopy(bytes, start, db, 0, 8);
-                        iter.setDoubleNext(DataConvert.bytes2Double(db, bOrder));
-                        start += 8;
-                    }
-                    break;
+        int elemBytes = dt.getSize();
+        try (FileChannel fc = new RandomAccessFile(fn, "r").getChannel()) {
+            long available = Math.max(0, (fc.size() - skip) / elemBytes);
+            int n = (int) Math.min(r.getSize(), available);
+            int windowElems = BIN_WINDOW_SIZE / elemBytes;
+            long pos = skip;
+            int off = 0;
+            while (off < n) {
+                int count = Math.min(n - off, windowElems);
+                MappedByteBuffer mb = fc.map(FileChannel.MapMode.READ_ONLY, pos, (long) count * elemBytes);
+                mb.order(bOrder);
+                switch (dt) {
+                    case BYTE:
+                        int[] idata = (int[]) r.getStorage();
+                        for (int i = off; i < off + count; i++) {
+                            idata[i] = DataConvert.byte2Int(mb.get());
+                        }
+                        break;
+                    case SHORT:
+                        mb.asShortBuffer().get((short[]) r.getStorage(), off, count);
+                        break;
+                    case INT:
+                        mb.asIntBuffer().get((int[]) r.getStorage(), off, count);
+                        break;
+                    case FLOAT:
+                        mb.asFloatBuffer().get((float[]) r.getStorage(), off, count);
+                        break;
+                    case DOUBLE:
+                        mb.asDoubleBuffer().get((double[]) r.getStorage(), off, count);
+                        break;
+                }
+                off += count;
+                pos += (long) count * elemBytes;
             }
-            ins.close();
         } catch (FileNotFoundException ex) {
             Logger.getLogger(ArrayUtil.class.getName()).log(Level.SEVERE, null, ex);
         } catch (IOException ex) {
@@ -1537,6 +1569,14 @@ public class ArrayUtil {
     public static Array sort(Array a, Integer axis) throws InvalidRangeException {
         int n = a.getRank();
         int[] shape = a.getShape();
+        if (SortUtil.isSortable(a.getDataType())) {
+            if (axis == null) {
+                return SortUtil.sort(a);
+            } else {
+                return SortUtil.sort(a, axis == -1 ? n - 1 : axis);
+            }
+        }
+
         if (axis == null) {
             int[] nshape = new int[1];
             nshape[0] = (int) a.getSize();
@@ -1608,6 +1648,14 @@ public class ArrayUtil {
     public static Array argSort(Array a, Integer axis) throws InvalidRangeException {
         int n = a.getRank();
         int[] shape = a.getShape();
+        if (SortUtil.isSortable(a.getDataType())) {
+            if (axis == null) {
+                return SortUtil.argSort(a);
+            } else {
+                return SortUtil.argSort(a, axis == -1 ? n - 1 : axis);
+            }
+        }
+
         Object v;
         if (axis == null) {
             int[] nshape = new int[1];
@@ -1866,6 +1914,18 @@ public class ArrayUtil {
      * @return X/Y arrays
      */
     public static List<Array> histogram(Array a, int nbins) {
+        return histogram(a, histogramEdges(a, nbins));
+    }
+
+    /**
+     * Equal width histogram bin edges from the minimum to the maximum of an
+     * array
+     *
+     * @param a Data array
+     * @param nbins bin number
+     * @return Bin edges
+     */
+    public static Array histogramEdges(Array a, int nbins) {
         double min = ArrayMath.getMinimum(a);
         double max = ArrayMath.getMaximum(a);
         double interval = BigDecimalUtil.div(BigDecimalUtil.sub(max, min), nbins);
@@ -1874,8 +1934,7 @@ public class ArrayUtil {
             bins[i] = min;
             min = BigDecimalUtil.add(min, interval);
         }
-        Array ba = Array.factory(DataType.DOUBLE, new int[]{bins.length}, bins);
-        return histogram(a, ba);
+        return Array.factory(DataType.DOUBLE, new int[]{bins.length}, bins);
     }
 
     /**
@@ -1886,24 +1945,8 @@ public class ArrayUtil {
      * @return X/Y arrays
      */
     public static List<Array> histogram(Array a, Array bins) {
-        int n = (int) bins.getSize();
-        Array hist = Array.factory(DataType.INT, new int[]{n - 1});
-        double v;
-        IndexIterator iterA = a.getIndexIterator();
-        while(iterA.hasNext()) {
-            v = iterA.getDoubleNext();
-            for (int j = 0; j < n - 1; j++) {
-                if (j == n - 2) {
-                    if (v >= bins.getDouble(j) && v <= bins.getDouble(j + 1)) {
-                        hist.setInt(j, hist.getInt(j) + 1);
-                        break;
-                    }
-                } else if (v >= bins.getDouble(j) && v < bins.getDouble(j + 1)) {
-                    hist.setInt(j, hist.getInt(j) + 1);
-                    break;
-                }
-            }
-        }
+        double[] edges = (double[]) bins.get1DJavaArray(double.class);
+        Array hist = HistogramUtil.histogram(a, edges);
 
         List<Array> r = new ArrayList<>();
         r.add(hist);
@@ -1922,38 +1965,15 @@ public class ArrayUtil {
     public static List<Array> histogram(Array a, double[] bins) {
         int n = bins.length;
         double delta = bins[1] - bins[0];
-        int[] count = new int[n + 1];
-        double v;
-        IndexIterator iterA = a.getIndexIterator();
-        while(iterA.hasNext()) {
-            v = iterA.getDoubleNext();
-            if (v < bins[0]) {
-                count[0] += 1;
-            } else if (v > bins[n - 1]) {
-                count[n] += 1;
-            } else {
-                for (int j = 0; j < n - 1; j++) {
-                    if (v > bins[j] && v < bins[j + 1]) {
-                        count[j + 1] += 1;
-                        break;
-                    }
-                }
-            }
-        }
+        int[] count = HistogramUtil.histogramOpen(a, bins);
 
         Array x = Array.factory(DataType.DOUBLE, new int[]{count.length + 1});
-        Array y = Array.factory(DataType.INT, new int[]{count.length});
-        for (int i = 0; i < count.length; i++) {
-            y.setInt(i, count[i]);
-            if (i == 0) {
-                x.setDouble(0, bins[0] - delta);
-                x.setDouble(1, bins[0]);
-            } else if (i == count.length - 1) {
-                x.setDouble(i + 1, bins[i - 1] + delta);
-            } else {
-                x.setDouble(i + 1, bins[i]);
-            }
+        Array y = Array.factory(DataType.INT, new int[]{count.length}, count);
+        x.setDouble(0, bins[0] - delta);
+        for (int i = 0; i < n; i++) {
+            x.setDouble(i + 1, bins[i]);
         }
+        x.setDouble(n + 1, bins[n - 1] + delta);
         List<Array> r = new ArrayList<>();
         r.add(y);
         r.add(x);
@@ -1961,6 +1981,60 @@ public class ArrayUtil {
         return r;
     }
 
+    /**
+     * Weighted histogram x/y array
+     *
+     * @param a Data array
+     * @param nbins bin number
+     * @param weights Weights array - same shape as the data array
+     * @return X/Y arrays
+     */
+    public static List<Array> histogram(Array a, int nbins, Array weights) {
+        return histogram(a, histogramEdges(a, nbins), weights);
+    }
+
+    /**
+     * Weighted histogram x/y array
+     *
+     * @param a Data array
+     * @param bins bin edges
+     * @param weights Weights array - same shape as the data array
+     * @return X/Y arrays
+     */
+    public static List<Array> histogram(Array a, Array bins, Array weights) {
+        double[] edges = (double[]) bins.get1DJavaArray(double.class);
+        Array hist = HistogramUtil.histogram(a, weights, edges);
+
+        List<Array> r = new ArrayList<>();
+        r.add(hist);
+        r.add(bins);
+
+        return r;
+    }
+
+    /**
+     * 2-D histogram array
+     *
+     * @param x X data array
+     * @param y Y data array
+     * @param xbins X bin edges
+     * @param ybins Y bin edges
+     * @param weights Weights array, or null to count the data
+     * @return Histogram array (x, y), x and y bin edges
+     */
+    public static List<Array> histogram2d(Array x, Array y, Array xbins, Array ybins, Array weights) {
+        double[] xedges = (double[]) xbins.get1DJavaArray(double.class);
+        double[] yedges = (double[]) ybins.get1DJavaArray(double.class);
+        Array hist = HistogramUtil.histogram2d(x, y, weights, xedges, yedges);
+
+        List<Array> r = new ArrayList<>();
+        r.add(hist);
+        r.add(xbins);
+        r.add(ybins);
+
+        return r;
+    }
+
     // </editor-fold>
     // <editor-fold desc="Resample/Interpolate">
     /**
@@ -2101,7 +2175,9 @@ public class ArrayUtil {
     }
 
     /**
-     * Smooth with 5 points
+     * Smooth with 5 points. The points with a missing value in the 5 points
+     * and the boundary points keep the original values. NaN is the missing
+     * value only if unDefData is NaN, otherwise NaN values give NaN results.
      *
      * @param a Array
      * @param rowNum Row number
@@ -2110,159 +2186,71 @@ public class ArrayUtil {
      * @return Result array
      */
     public static Array smooth5(Array a, int rowNum, int colNum, double unDefData) {
-        Array r = Array.factory(a.getDataType(), a.getShape());
-        double s = 0.5;
-        if (!a.getIndexPrivate().isFastIterator()) {
-            a = a.copy();
-        }
-        if (Double.isNaN(unDefData)) {
-            for (int i = 0; i < rowNum; i++) {
-                for (int j = 0; j < colNum; j++) {
-                    if (i == 0 || i == rowNum - 1 || j == 0 || j == colNum - 1) {
-                        r.setDouble(i * colNum + j, a.getDouble(i * colNum + j));
-                    } else {
-                        if (Double.isNaN(a.getDouble(i * colNum + j)) || Double.isNaN(a.getDouble((i + 1) * colNum + j)) || Double.isNaN(a.getDouble((i - 1) * colNum + j))
-                                || Double.isNaN(a.getDouble(i * colNum + j + 1)) || Double.isNaN(a.getDouble(i * colNum + j - 1))) {
-                            r.setDouble(i * colNum + j, a.getDouble(i * colNum + j));
-                            continue;
-                        }
-                        r.setDouble(i * colNum + j, a.getDouble(i * colNum + j) + s / 4 * (a.getDouble((i + 1) * colNum + j) + a.getDouble((i - 1) * colNum + j) + a.getDouble(i * colNum + j + 1)
-                                + a.getDouble(i * colNum + j - 1) - 4 * a.getDouble(i * colNum + j)));
-                    }
-                }
-            }
-        } else {
-            for (int i = 0; i < rowNum; i++) {
-                for (int j = 0; j < colNum; j++) {
-                    if (i == 0 || i == rowNum - 1 || j == 0 || j == colNum - 1) {
-                        r.setDouble(i * colNum + j, a.getDouble(i * colNum + j));
-                    } else {
-                        if (a.getDouble(i * colNum + j) == unDefData || a.getDouble((i + 1) * colNum + j) == unDefData || a.getDouble((i - 1) * colNum + j)
-                                == unDefData || a.getDouble(i * colNum + j + 1) == unDefData || a.getDouble(i * colNum + j - 1) == unDefData) {
-                            r.setDouble(i * colNum + j, a.getDouble(i * colNum + j));
-                            continue;
-                        }
-                        r.setDouble(i * colNum + j, a.getDouble(i * colNum + j) + s / 4 * (a.getDouble((i + 1) * colNum + j) + a.getDouble((i - 1) * colNum + j) + a.getDouble(i * colNum + j + 1)
-                                + a.getDouble(i * colNum + j - 1) - 4 * a.getDouble(i * colNum + j)));
-                    }
-                }
-            }
-        }
+        StencilUtil.Kernel kernel = new StencilUtil.Kernel(new double[]{0, 0.125, 0, 0.125, 0.5, 0.125, 0, 0.125, 0}, 3, 3);
+        Array r = StencilUtil.apply(a.reshape(new int[]{rowNum, colNum}), kernel, 0, 1, StencilUtil.Edge.KEEP,
+                StencilUtil.Missing.KEEP, unDefData, Double.isNaN(unDefData), false, a.getDataType());
 
-        return r;
+        return r.reshape(a.getShape());
     }
 
     /**
-     * Smooth with 5 points
+     * Smooth with 5 points on the last two dimensions. Missing values and the
+     * points out of the grid are not included in the weighted average.
      *
      * @param a Array
      * @return Result array
      */
     public static Array smooth5(Array a) {
-        int[] shape = a.getShape();
-        int colNum = shape[1];
-        int rowNum = shape[0];
-        Array r = Array.factory(a.getDataType(), shape);
-        if (!a.getIndexPrivate().isFastIterator()) {
-            a = a.copy();
+        StencilUtil.Kernel kernel = new StencilUtil.Kernel(new double[]{0, 0.5, 0, 0.5, 1, 0.5, 0, 0.5, 0}, 3, 3);
+        return StencilUtil.apply(a, kernel, StencilUtil.Edge.MISSING, StencilUtil.Missing.SKIP, Double.NaN,
+                true, a.getDataType());
+    }
+
+    /**
+     * Smooth with 9 points on the last two dimensions. Missing values and the
+     * points out of the grid are not included in the weighted average.
+     *
+     * @param a Array
+     * @return Result array
+     */
+    public static Array smooth9(Array a) {
+        StencilUtil.Kernel kernel = new StencilUtil.Kernel(new double[]{0.3, 0.5, 0.3, 0.5, 1, 0.5, 0.3, 0.5, 0.3}, 3, 3);
+        return StencilUtil.apply(a, kernel, StencilUtil.Edge.MISSING, StencilUtil.Missing.SKIP, Double.NaN,
+                true, a.getDataType());
+    }
+
+    private static double[] toDoubleArray(List<Number> values) {
+        double[] r = new double[values.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = values.get(i).doubleValue();
         }
-        Index2D index = new Index2D(shape);
-        double v, w;
-        double sum, wsum;
-        for (int i = 0; i < rowNum; i++) {
-            for (int j = 0; j < colNum; j++) {
-                sum = 0;
-                wsum = 0;
-                for (int ii = i - 1; ii <= i + 1; ii++) {
-                    if (ii < 0 || ii >= rowNum) {
-                        continue;
-                    }
-                    for (int jj = j - 1; jj <= j + 1; jj++) {
-                        if (jj < 0 || jj >= colNum) {
-                            continue;
-                        }
-                        if ((ii == i - 1 || ii == i + 1) && jj != j) {
-                            continue;
-                        }
-                        v = a.getDouble(index.set(ii, jj));
-                        if (!Double.isNaN(v)) {
-                            if (ii == i && jj == j) {
-                                w = 1;
-                            } else {
-                                w = 0.5;
-                            }
-                            sum += v * w;
-                            wsum += w;
-                        }
-                    }
-                }
-                index.set(i, j);
-                if (wsum > 0) {
-                    r.setDouble(index, sum / wsum);
-                } else {
-                    r.setDouble(index, Double.NaN);
-                }
-            }
-        }
-
         return r;
     }
 
     /**
-     * Smooth with 9 points
-     *
-     * @param a Array
-     * @return Result array
+     * Build a balanced K-D tree of the scatter points with valid (not NaN)
+     * values. The point ids are the indices of the points.
      */
-    public static Array smooth9(Array a) {
-        int[] shape = a.getShape();
-        int colNum = shape[1];
-        int rowNum = shape[0];
-        Array r = Array.factory(a.getDataType(), shape);
-        if (!a.getIndexPrivate().isFastIterator()) {
-            a = a.copy();
+    private static KDTree.Euclidean<Integer> buildKDTree(List<Number> x_s, List<Number> y_s, double[] vs) {
+        int n = 0;
+        for (double v : vs) {
+            if (!Double.isNaN(v)) {
+                n += 1;
+            }
         }
-        Index2D index = new Index2D(shape);
-        double v, w;
-        double sum, wsum;
-        for (int i = 0; i < rowNum; i++) {
-            for (int j = 0; j < colNum; j++) {
-                sum = 0;
-                wsum = 0;
-                for (int ii = i - 1; ii <= i + 1; ii++) {
-                    if (ii < 0 || ii >= rowNum) {
-                        continue;
-                    }
-                    for (int jj = j - 1; jj <= j + 1; jj++) {
-                        if (jj < 0 || jj >= colNum) {
-                            continue;
-                        }
-                        v = a.getDouble(index.set(ii, jj));
-                        if (!Double.isNaN(v)) {
-                            if (ii == i && jj == j) {
-                                w = 1;
-                            } else {
-                                if (ii == i || jj == j) {
-                                    w = 0.5;
-                                } else {
-                                    w = 0.3;
-                                }
-                            }
-                            sum += v * w;
-                            wsum += w;
-                        }
-                    }
-                }
-                index.set(i, j);
-                if (wsum > 0) {
-                    r.setDouble(index, sum / wsum);
-                } else {
-                    r.setDouble(index, Double.NaN);
-                }
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int[] ids = new int[n];
+        n = 0;
+        for (int i = 0; i < vs.length; i++) {
+            if (!Double.isNaN(vs[i])) {
+                xs[n] = x_s.get(i).doubleValue();
+                ys[n] = y_s.get(i).doubleValue();
+                ids[n] = i;
+                n += 1;
             }
         }
-
-        return r;
+        return KDTree.Euclidean.build(xs, ys, ids);
     }
 
     /**
@@ -2283,51 +2271,56 @@ public class ArrayUtil {
         colNum = X.size();
         rowNum = Y.size();
         pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, gx, gy, v;
-        boolean match;
+        final Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
 
-        //Construct K-D tree
-        int n = 0;
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(a.getDouble(i))) {
-                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, a.getDouble(i));
-                n += 1;
-            }
+        //Construct K-D tree of the valid points, the point ids index the values
+        final double[] vs = new double[pNum];
+        for (int i = 0; i < pNum; i++) {
+            vs[i] = a.getDouble(i);
         }
+        KDTree.Euclidean<Integer> kdTree = buildKDTree(x_s, y_s, vs);
 
         //---- Do interpolation
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.get(i).doubleValue();
-            for (j = 0; j < colNum; j++) {
-                gx = X.get(j).doubleValue();
-                List<SearchResult<Double>> srs = kdTree.ballSearch_distance(new double[]{gx, gy}, radius * radius);
-                if (srs == null || srs.size() < neededPointNum) {
-                    r.setDouble(i * colNum + j, Double.NaN);
-                } else {
-                    double v_sum = 0.0;
-                    double weight_sum = 0.0;
-                    match = false;
-                    for (SearchResult sr : srs) {
-                        v = (double) sr.payload;
-                        if (sr.distance == 0) {
-                            r.setDouble(i * colNum + j, v);
-                            match = true;
-                            break;
-                        } else {
-                            w = 1. / sr.distance;
-                            weight_sum += w;
-                            v_sum += v * w;
+        final int nc = colNum;
+        final int pn = neededPointNum;
+        final double r2 = radius * radius;
+        final double[] gxs = toDoubleArray(X);
+        final double[] gys = toDoubleArray(Y);
+        final KDTree.Euclidean<Integer> tree = kdTree;
+        tree.query(rowNum * colNum, new KDTree.QueryTask() {
+            @Override
+            public void run(KDTree.QueryContext context, int from, int to) {
+                double[] loc = new double[2];
+                for (int idx = from; idx < to; idx++) {
+                    loc[0] = gxs[idx % nc];
+                    loc[1] = gys[idx / nc];
+                    int m = tree.ballSearch(loc, r2, context);
+                    if (m < pn) {
+                        r.setDouble(idx, Double.NaN);
+                    } else {
+                        double v_sum = 0.0;
+                        double weight_sum = 0.0;
+                        boolean match = false;
+                        for (int k = 0; k < m; k++) {
+                            double v = vs[context.getId(k)];
+                            double d = context.getDistance(k);
+                            if (d == 0) {
+                                r.setDouble(idx, v);
+                                match = true;
+                                break;
+                            } else {
+                                double w = 1. / d;
+                                weight_sum += w;
+                                v_sum += v * w;
+                            }
+                        }
+                        if (!match) {
+                            r.setDouble(idx, v_sum / weight_sum);
                         }
-                    }
-                    if (!match) {
-                        r.setDouble(i * colNum + j, v_sum / weight_sum);
                     }
                 }
             }
-        }
+        });
 
         return r;
     }
@@ -2348,50 +2341,55 @@ public class ArrayUtil {
         int colNum = X.size();
         int rowNum = Y.size();
         int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        int i, j;
-        double w, v, gx, gy;
-        boolean match;
+        final Array r = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
 
-        //Construct K-D tree
-        int n = 0;
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(a.getDouble(i))) {
-                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, a.getDouble(i));
-                n += 1;
-            }
+        //Construct K-D tree of the valid points, the point ids index the values
+        final double[] vs = new double[pNum];
+        for (int i = 0; i < pNum; i++) {
+            vs[i] = a.getDouble(i);
         }
+        KDTree.Euclidean<Integer> kdTree = buildKDTree(x_s, y_s, vs);
+        int n = kdTree.size();
         if (points == null) {
             points = n;
         }
 
         //---- Do interpolation with IDW method
-        for (i = 0; i < rowNum; i++) {
-            gy = Y.get(i).doubleValue();
-            for (j = 0; j < colNum; j++) {
-                gx = X.get(j).doubleValue();
-                List<SearchResult<Double>> srs = kdTree.nearestNeighbours(new double[]{gx, gy}, points);
-                double v_sum = 0.0;
-                double weight_sum = 0.0;
-                match = false;
-                for (SearchResult sr : srs) {
-                    v = (double) sr.payload;
-                    if (sr.distance == 0) {
-                        r.setDouble(i * colNum + j, v);
-                        match = true;
-                        break;
-                    } else {
-                        w = 1. / sr.distance;
-                        weight_sum += w;
-                        v_sum += v * w;
+        final int nc = colNum;
+        final int K = points;
+        final double[] gxs = toDoubleArray(X);
+        final double[] gys = toDoubleArray(Y);
+        final KDTree.Euclidean<Integer> tree = kdTree;
+        tree.query(rowNum * colNum, new KDTree.QueryTask() {
+            @Override
+            public void run(KDTree.QueryContext context, int from, int to) {
+                double[] loc = new double[2];
+                for (int idx = from; idx < to; idx++) {
+                    loc[0] = gxs[idx % nc];
+                    loc[1] = gys[idx / nc];
+                    int m = tree.nearestNeighbours(loc, K, context);
+                    double v_sum = 0.0;
+                    double weight_sum = 0.0;
+                    boolean match = false;
+                    for (int k = 0; k < m; k++) {
+                        double v = vs[context.getId(k)];
+                        double d = context.getDistance(k);
+                        if (d == 0) {
+                            r.setDouble(idx, v);
+                            match = true;
+                            break;
+                        } else {
+                            double w = 1. / d;
+                            weight_sum += w;
+                            v_sum += v * w;
+                        }
+                    }
+                    if (!match) {
+                        r.setDouble(idx, v_sum / weight_sum);
                     }
-                }
-                if (!match) {
-                    r.setDouble(i * colNum + j, v_sum / weight_sum);
                 }
             }
-        }
+        });
 
         return r;
     }
@@ -2524,41 +2522,37 @@ public class ArrayUtil {
         colNum = X.size();
         rowNum = Y.size();
         pNum = x_s.size();
-        Array rdata = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
-        double gx, gy;
+        final Array rdata = Array.factory(DataType.DOUBLE, new int[]{rowNum, colNum});
 
-        //Construct K-D tree
-        KDTree.Euclidean<Double> kdTree = new KDTree.Euclidean<>(2);
+        //Construct K-D tree of the valid points, the point ids index the values
+        final double[] vs = new double[pNum];
         for (int i = 0; i < pNum; i++) {
-            if (!Double.isNaN(a.getDouble(i))) {
-                kdTree.addPoint(new double[]{x_s.get(i).doubleValue(), y_s.get(i).doubleValue()}, a.getDouble(i));
-            }
+            vs[i] = a.getDouble(i);
         }
+        KDTree.Euclidean<Integer> kdTree = buildKDTree(x_s, y_s, vs);
 
         //Loop
-        if (radius == Double.POSITIVE_INFINITY) {
-            for (int i = 0; i < rowNum; i++) {
-                gy = Y.get(i).doubleValue();
-                for (int j = 0; j < colNum; j++) {
-                    gx = X.get(j).doubleValue();
-                    SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy}, 1).get(0);
-                    rdata.setDouble(i * colNum + j, ((double) r.payload));
-                }
-            }
-        } else {
-            for (int i = 0; i < rowNum; i++) {
-                gy = Y.get(i).doubleValue();
-                for (int j = 0; j < colNum; j++) {
-                    gx = X.get(j).doubleValue();
-                    SearchResult r = kdTree.nearestNeighbours(new double[]{gx, gy}, 1).get(0);
-                    if (Math.sqrt(r.distance) <= radius) {
-                        rdata.setDouble(i * colNum + j, ((double) r.payload));
+        final int nc = colNum;
+        final double rad = radius;
+        final double[] gxs = toDoubleArray(X);
+        final double[] gys = toDoubleArray(Y);
+        final KDTree.Euclidean<Integer> tree = kdTree;
+        tree.query(rowNum * colNum, new KDTree.QueryTask() {
+            @Override
+            public void run(KDTree.QueryContext context, int from, int to) {
+                double[] loc = new double[2];
+                for (int idx = from; idx < to; idx++) {
+                    loc[0] = gxs[idx % nc];
+                    loc[1] = gys[idx / nc];
+                    tree.nearestNeighbours(loc, 1, context);
+                    if (rad == Double.POSITIVE_INFINITY || Math.sqrt(context.getDistance(0)) <= rad) {
+                        rdata.setDouble(idx, vs[context.getId(0)]);
                     } else {
-                        rdata.setDouble(i * colNum + j, Double.NaN);
+                        rdata.setDouble(idx, Double.NaN);
                     }
                 }
             }
-        }
+        });
 
         return rdata;
     }
@@ -3408,30 +3402,7 @@ public class ArrayUtil {
      * @return Resampled array
      */
     public static Array linint2(Array a, Array X, Array Y, Array newX, Array newY) {
-        int xn = (int) newX.getSize();
-        int yn = (int) newY.getSize();
-        int[] shape = a.getShape();
-        int n = shape.length;
-        shape[n - 1] = xn;
-        shape[n - 2] = yn;
-        double x, y, v;
-        Array r = Array.factory(DataType.DOUBLE, shape);
-
-        Index index = r.getIndex();
-        int[] counter;
-        int yi, xi;
-        for (int k = 0; k < r.getSize(); k++) {
-            counter = index.getCurrentCounter();
-            yi = counter[n - 2];
-            xi = counter[n - 1];
-            y = newY.getDouble(yi);
-            x = newX.getDouble(xi);
-            v = bilinear(a, index, X, Y, x, y);
-            r.setDouble(index, v);
-            index.incr();
-        }
-
-        return r;
+        return new BilinearRegridder(X, Y, newX, newY).regrid(a);
     }
 
     /**
@@ -3445,31 +3416,7 @@ public class ArrayUtil {
      * @return Resampled array
      */
     public static Array resample_Bilinear(Array a, List<Number> X, List<Number> Y, List<Number> newX, List<Number> newY) {
-        int i, j;
-        int xn = newX.size();
-        int yn = newY.size();
-        double x, y, v;
-        Array r = Array.factory(DataType.DOUBLE, new int[]{yn, xn});
-
-        if (!a.getIndexPrivate().isFastIterator()) {
-            a = a.copy();
-        }
-        for (i = 0; i < yn; i++) {
-            y = newY.get(i).doubleValue();
-            for (j = 0; j < xn; j++) {
-                x = newX.get(j).doubleValue();
-                if (x < X.get(0).doubleValue() || x > X.get(X.size() - 1).doubleValue()) {
-                    r.setDouble(i * xn + j, Double.NaN);
-                } else if (y < Y.get(0).doubleValue() || y > Y.get(Y.size() - 1).doubleValue()) {
-                    r.setDouble(i * xn + j, Double.NaN);
-                } else {
-                    v = toStation(a, X, Y, x, y);
-                    r.setDouble(i * xn + j, v);
-                }
-            }
-        }
-
-        return r;
+        return new BilinearRegridder(X, Y, newX, newY).regrid(a);
     }
 
     /**
@@ -3483,25 +3430,7 @@ public class ArrayUtil {
      * @return Resampled array
      */
     public static Array resample_Bilinear(Array a, Array X, Array Y, Array newX, Array newY) {
-        int i;
-        int n = (int) newX.getSize();
-        double x, y, v;
-        Array r = Array.factory(DataType.DOUBLE, newX.getShape());
-
-        for (i = 0; i < n; i++) {
-            x = newX.getDouble(i);
-            y = newY.getDouble(i);
-            if (x < X.getDouble(0) || x > X.getDouble((int) X.getSize() - 1)) {
-                r.setDouble(i, Double.NaN);
-            } else if (y < Y.getDouble(0) || y > Y.getDouble((int) Y.getSize() - 1)) {
-                r.setDouble(i, Double.NaN);
-            } else {
-                v = toStation(a, X, Y, x, y);
-                r.setDouble(i, v);
-            }
-        }
-
-        return r;
+        return BilinearRegridder.toPoints(X, Y, newX, newY).regrid(a);
     }
 
     /**
@@ -3604,7 +3533,9 @@ public class ArrayUtil {
     }
 
     /**
-     * Multidimensional interpolation on regular grids.
+     * Multidimensional interpolation on regular grids. The grid is prepared on
+     * every call - use a {@link RegularGridInterpolator} to interpolate many
+     * points on the same grid.
      *
      * @param points The points defining the regular grid in n dimensions.
      * @param values The data on the regular grid in n dimensions.
@@ -3612,29 +3543,8 @@ public class ArrayUtil {
      * @return Interpolation value
      */
     public static double interpn_s(List<Array> points, Array values, Array xi) {
-        Object[] r = findIndices(points, xi);
-        boolean outBounds = (boolean) r[2];
-        if (outBounds) {
-            return Double.NaN;
-        } else {
-            double v, weight;
-            Index index = values.getIndex();
-            int[] indices = (int[]) r[0];
-            double[] distances = (double[]) r[1];
-            v = 0;
-            List<Index> ii = new ArrayList<>();
-            iterIndex(ii, index, indices, 0);
-            int n = indices.length;
-            for (Index idx : ii) {
-                weight = 1;
-                for (int i = 0; i < n; i++) {
-                    weight *= idx.getCurrentCounter()[i] == indices[i] ? 1 - distances[i] : distances[i];
-                }
-                v += values.getDouble(idx) * weight;
-            }
-
-            return v;
-        }
+        RegularGridInterpolator interp = new RegularGridInterpolator(points, values);
+        return interp.interpolate((double[]) xi.get1DJavaArray(double.class));
     }
 
     /**
@@ -3647,13 +3557,16 @@ public class ArrayUtil {
      */
     public static Array interpn(List<Array> points, Array values, List<Array> xi) {
         int n = xi.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{n});
+        int m = points.size();
+        Array x = Array.factory(DataType.DOUBLE, new int[]{n, m});
         for (int i = 0; i < n; i++) {
-            Array x = xi.get(i);
-            r.setDouble(i, interpn_s(points, values, x));
+            Array p = xi.get(i);
+            for (int j = 0; j < m; j++) {
+                x.setDouble(i * m + j, p.getDouble(j));
+            }
         }
 
-        return r;
+        return new RegularGridInterpolator(points, values).interpolate(x);
     }
 
     /**
@@ -3670,15 +3583,7 @@ public class ArrayUtil {
             return interpn_s(points, values, xi);
         }
 
-        int n = xi.getShape()[0];
-        int m = xi.getShape()[1];
-        Array r = Array.factory(DataType.DOUBLE, new int[]{n});
-        for (int i = 0; i < n; i++) {
-            Array x = xi.section(new int[]{i, 0}, new int[]{1, m});
-            r.setDouble(i, interpn_s(points, values, x));
-        }
-
-        return r;
+        return new RegularGridInterpolator(points, values).interpolate(xi);
     }
 
     private static void iterIndex(List<Index> ii, Index index, int[] indices, int idx) {
@@ -3857,60 +3762,10 @@ public class ArrayUtil {
      * @throws InvalidRangeException
      */
     public static Array interpolate_1d(double x, Array xp, Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = xp.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        for (int i = 0; i < dataShape.length; i++) {
-            if (i < axis) {
-                shape[i] = dataShape[i];
-            } else if (i > axis) {
-                shape[i - 1] = dataShape[i];
-            }
-        }
-
-        Array r = Array.factory(a.getDataType(), shape);
-        Index indexr = r.getIndex();
-        Index indexa = a.getIndex();
-        int[] current, dcurrent = new int[dataShape.length];
-        int idx;
-        Array tArray;
-        double belowp, abovep, belowa, abovea;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                    dcurrent[j] = current[idx];
-                }
-            }
-            tArray = ArrayMath.section(xp, ranges);
-            idx = searchSorted(tArray, x);
-            if (idx < 0) {
-                r.setDouble(i, Double.NaN);
-            } else if (idx == dataShape[axis] - 1) {
-                dcurrent[axis] = idx;
-                r.setObject(i, a.getObject(indexa.set(dcurrent)));
-            } else {
-                dcurrent[axis] = idx;
-                indexa.set(dcurrent);
-                belowp = xp.getDouble(indexa);
-                belowa = a.getDouble(indexa);
-                dcurrent[axis] = idx + 1;
-                indexa.set(dcurrent);
-                abovep = xp.getDouble(indexa);
-                abovea = a.getDouble(indexa);
-                r.setDouble(i, (x - belowp) / (abovep - belowp) * (abovea - belowa) + belowa);
-            }
-            indexr.incr();
-        }
-
-        return r;
+        Array xa = Array.factory(DataType.DOUBLE, new int[]{1}, new double[]{x});
+        Array r = ColumnInterpolator.interpolate(xa, xp, a, axis, false);
+        int[] shape = ReduceUtil.reduceShape(r.getShape(), axis);
+        return r.reshapeNoCopy(shape);
     }
 
     /**
@@ -3924,74 +3779,22 @@ public class ArrayUtil {
      * @throws InvalidRangeException
      */
     public static Array interpolate_1d(Array xa, Array xp, Array a, int axis) throws InvalidRangeException {
-        int[] dataShape = xp.getShape();
-        int[] shape = new int[dataShape.length];
-        int[] tshape = new int[shape.length - 1];
-        for (int i = 0; i < dataShape.length; i++) {
-            if (i == axis) {
-                shape[i] = xa.getShape()[0];
-            } else {
-                shape[i] = dataShape[i];
-                if (i < axis) {
-                    tshape[i] = dataShape[i];
-                } else {
-                    tshape[i - 1] = dataShape[i];
-                }
-            }
-        }
-
-        Array r = Array.factory(a.getDataType(), shape);
-        Array rr = Array.factory(DataType.BYTE, tshape);
-        Index indexrr = rr.getIndex();
-        Index indexr = r.getIndex();
-        Index indexa = a.getIndex();
-        int[] currentrr, currenta = new int[dataShape.length], currentr = new int[shape.length];
-        int idx;
-        Array tArray;
-        double belowp, abovep, belowa, abovea, x;
-        for (int i = 0; i < rr.getSize(); i++) {
-            currentrr = indexrr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(currentrr[idx], currentrr[idx], 1));
-                    currenta[j] = currentrr[idx];
-                    currentr[j] = currentrr[idx];
-                }
-            }
-            tArray = ArrayMath.section(xp, ranges);
-            for (int j = 0; j < xa.getSize(); j++) {
-                x = xa.getDouble(j);
-                idx = searchSorted(tArray, x);
-                currentr[axis] = j;
-                indexr.set(currentr);
-                if (idx < 0) {
-                    r.setDouble(indexr, Double.NaN);
-                } else if (idx == dataShape[axis] - 1) {
-                    currenta[axis] = idx;
-                    r.setObject(indexr, a.getObject(indexa.set(currenta)));
-                } else {
-                    currenta[axis] = idx;
-                    indexa.set(currenta);
-                    belowp = xp.getDouble(indexa);
-                    belowa = a.getDouble(indexa);
-                    currenta[axis] = idx + 1;
-                    indexa.set(currenta);
-                    abovep = xp.getDouble(indexa);
-                    abovea = a.getDouble(indexa);
-                    r.setDouble(indexr, (x - belowp) / (abovep - belowp) * (abovea - belowa) + belowa);
-                }
-            }
-            indexrr.incr();
-        }
+        return ColumnInterpolator.interpolate(xa, xp, a, axis, false);
+    }
 
-        return r;
+    /**
+     * Interpolates data with any shape over a specified axis.
+     *
+     * @param xa Desired interpolated values
+     * @param xp The x-coordinates of the data points.
+     * @param a The data to be interpolated.
+     * @param axis The axis to interpolate over.
+     * @param log If true interpolate linearly in the logarithm of the
+     * x-coordinates (log-pressure interpolation)
+     * @return Interpolated data
+     */
+    public static Array interpolate_1d(Array xa, Array xp, Array a, int axis, boolean log) {
+        return ColumnInterpolator.interpolate(xa, xp, a, axis, log);
     }
 
     /**
@@ -4197,95 +4000,6 @@ public class ArrayUtil {
         return idx;
     }
 
-    private static int[] gridIndex(Array xdim, Array ydim, double x, double y) {
-        int xn = (int) xdim.getSize();
-        int yn = (int) ydim.getSize();
-        int xIdx = getDimIndex(xdim, x);
-        if (xIdx < 0) {
-            return null;
-        }
-
-        int yIdx = getDimIndex(ydim, y);
-        if (yIdx < 0) {
-            return null;
-        }
-
-        if (xIdx == xn - 1) {
-            xIdx = xn - 2;
-        }
-        if (yIdx == yn - 1) {
-            yIdx = yn - 2;
-        }
-        int i1 = yIdx;
-        int j1 = xIdx;
-        int i2 = i1 + 1;
-        int j2 = j1 + 1;
-
-        return new int[]{i1, j1, i2, j2};
-    }
-
-    private static double bilinear(Array data, Index dindex, Array xdim, Array ydim, double x, double y) {
-        double iValue = Double.NaN;
-        int[] xyIdx = gridIndex(xdim, ydim, x, y);
-        if (xyIdx == null) {
-            return iValue;
-        }
-
-        int i1 = xyIdx[0];
-        int j1 = xyIdx[1];
-        int i2 = xyIdx[2];
-        int j2 = xyIdx[3];
-        Index index = Index.factory(data.getShape());
-        int n = index.getRank();
-        for (int i = 0; i < n - 2; i++) {
-            index.setDim(i, dindex.getCurrentCounter()[i]);
-        }
-        index.setDim(n - 2, i1);
-        index.setDim(n - 1, j1);
-        double a = data.getDouble(index);
-        index.setDim(n - 1, j2);
-        double b = data.getDouble(index);
-        index.setDim(n - 2, i2);
-        index.setDim(n - 1, j1);
-        double c = data.getDouble(index);
-        index.setDim(n - 2, i2);
-        index.setDim(n - 1, j2);
-        double d = data.getDouble(index);
-        List<java.lang.Double> dList = new ArrayList<>();
-        if (!Double.isNaN(a)) {
-            dList.add(a);
-        }
-        if (!Double.isNaN(b)) {
-            dList.add(b);
-        }
-        if (!Double.isNaN(c)) {
-            dList.add(c);
-        }
-        if (!Double.isNaN(d)) {
-            dList.add(d);
-        }
-
-        if (dList.isEmpty()) {
-            return iValue;
-        } else if (dList.size() == 1) {
-            iValue = dList.get(0);
-        } else if (dList.size() <= 3) {
-            double aSum = 0;
-            for (double dd : dList) {
-                aSum += dd;
-            }
-            iValue = aSum / dList.size();
-        } else {
-            double dx = xdim.getDouble(j1 + 1) - xdim.getDouble(j1);
-            double dy = ydim.getDouble(i1 + 1) - ydim.getDouble(i1);
-            double x1val = a + (c - a) * (y - ydim.getDouble(i1)) / dy;
-            double x2val = b + (d - b) * (y - ydim.getDouble(i1)) / dy;
-            iValue = x1val + (x2val - x1val) * (x - xdim.getDouble(j1)) / dx;
-        }
-
-        return iValue;
-    }
-
     /**
      * Interpolate data to a station point
      *
@@ -0,0 +1,123 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.Index;
+
+/**
+ * Broadcasting of two arrays. The strides of both arrays are aligned to the
+ * broadcast shape once, with zero strides for the broadcast dimensions, so
+ * the backing storage offsets of the element pairs can be advanced with
+ * integer arithmetic only.
+ *
+ * @author Yaqiang Wang
+ */
+public class Broadcast {
+
+    private final int[] shape;
+    private final int[] aStride;
+    private final int[] bStride;
+    private final int aOffset;
+    private final int bOffset;
+
+    /**
+     * Constructor
+     *
+     * @param a Array a
+     * @param b Array b
+     */
+    public Broadcast(Array a, Array b) {
+        this.shape = ArrayMath.broadcast(a, b);
+        Index aindex = a.getIndexPrivate();
+        Index bindex = b.getIndexPrivate();
+        this.aStride = alignStride(aindex, shape.length);
+        this.bStride = alignStride(bindex, shape.length);
+        this.aOffset = aindex.getOffset();
+        this.bOffset = bindex.getOffset();
+    }
+
+    /**
+     * Align the strides of an index to the trailing dimensions of the
+     * broadcast shape. Dimensions of length 1 and missing leading dimensions
+     * get zero strides.
+     */
+    private static int[] alignStride(Index index, int n) {
+        int[] r = new int[n];
+        int[] ishape = index.getShape();
+        int[] istride = index.getStride();
+        int m = ishape.length;
+        for (int j = 0; j < m; j++) {
+            if (ishape[m - j - 1] != 1) {
+                r[n - j - 1] = istride[m - j - 1];
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Get broadcast shape
+     *
+     * @return Broadcast shape
+     */
+    public int[] getShape() {
+        return shape.clone();
+    }
+
+    /**
+     * Get a cursor positioned at an element of the broadcast result
+     *
+     * @param start Element index in canonical order of the broadcast shape
+     * @return The cursor
+     */
+    public Cursor cursor(int start) {
+        return new Cursor(start);
+    }
+
+    /**
+     * Cursor over the broadcast result in canonical order. The fields ia and
+     * ib are the backing storage offsets of the current elements of array a
+     * and array b, to be used with the element getters such as getDouble(int).
+     */
+    public class Cursor {
+
+        public int ia;
+        public int ib;
+        private final int[] counter;
+
+        private Cursor(int start) {
+            int rank = shape.length;
+            counter = new int[rank];
+            ia = aOffset;
+            ib = bOffset;
+            for (int d = rank - 1; d >= 0; d--) {
+                if (shape[d] > 0) {
+                    counter[d] = start % shape[d];
+                    start /= shape[d];
+                }
+                ia += counter[d] * aStride[d];
+                ib += counter[d] * bStride[d];
+            }
+        }
+
+        /**
+         * Move to the next element
+         */
+        public void next() {
+            for (int d = shape.length - 1; d >= 0; d--) {
+                counter[d] += 1;
+                ia += aStride[d];
+                ib += bStride[d];
+                if (counter[d] < shape[d]) {
+                    return;
+                }
+                ia -= aStride[d] * shape[d];
+                ib -= bStride[d] * shape[d];
+                counter[d] = 0;
+            }
+        }
+    }
+}
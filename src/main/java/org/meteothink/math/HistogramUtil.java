@@ -0,0 +1,291 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Histogram engine. The bin of a value is computed directly from the edges
+ * when the edges are uniform, and found with a binary search otherwise. The
+ * array is counted in parallel chunks into partial histograms which are added
+ * at the end. Partial sums of weights are added in the order of the chunks,
+ * so weighted results do not depend on the thread timing.
+ * <p>
+ * All bins are half open [left, right) except the last one, which includes
+ * its right edge. Values outside the edges and NaN values are not counted.
+ *
+ * @author Yaqiang Wang
+ */
+public class HistogramUtil {
+
+    /**
+     * Bin edges
+     */
+    public static class Bins {
+
+        private final double[] edges;
+        private final int n;
+        private final boolean uniform;
+        private final double width;
+
+        /**
+         * Constructor
+         *
+         * @param edges The bin edges - ascending, at least 2
+         */
+        public Bins(double[] edges) {
+            if (edges.length < 2) {
+                throw new IllegalArgumentException("There must be at least 2 bin edges");
+            }
+            for (int i = 1; i < edges.length; i++) {
+                if (!(edges[i] >= edges[i - 1])) {
+                    throw new IllegalArgumentException("The bin edges must increase monotonically");
+                }
+            }
+            this.edges = edges;
+            this.n = edges.length - 1;
+            this.width = (edges[n] - edges[0]) / n;
+            boolean u = width > 0;
+            for (int i = 1; i < n && u; i++) {
+                u = Math.abs(edges[i] - (edges[0] + i * width)) <= 1e-9 * width;
+            }
+            this.uniform = u;
+        }
+
+        /**
+         * Get number of bins
+         *
+         * @return Number of bins
+         */
+        public int size() {
+            return n;
+        }
+
+        /**
+         * Get the bin index of a value
+         *
+         * @param v The value
+         * @return Bin index, -1 if the value is less than the first edge or is
+         * NaN, and the number of bins if the value is larger than the last
+         * edge
+         */
+        public int find(double v) {
+            if (!(v >= edges[0])) {
+                return -1;
+            }
+            if (v >= edges[n]) {
+                return v == edges[n] ? n - 1 : n;
+            }
+            int j;
+            if (uniform) {
+                //Arithmetic guess, corrected against the edges
+                j = Math.min((int) ((v - edges[0]) / width), n - 1);
+                while (v < edges[j]) {
+                    j -= 1;
+                }
+                while (v >= edges[j + 1]) {
+                    j += 1;
+                }
+            } else {
+                int lo = 0, hi = n;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (edges[mid] <= v) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                j = lo - 1;
+            }
+            return j;
+        }
+    }
+
+    private static Array contiguous(Array a) {
+        return a.getIndexPrivate().isFastIterator() ? a : a.copy();
+    }
+
+    /**
+     * Compute the histogram of an array
+     *
+     * @param a The array
+     * @param edges The bin edges
+     * @return Counts of the bins
+     */
+    public static Array histogram(Array a, double[] edges) {
+        final Bins bins = new Bins(edges);
+        final int n = bins.size();
+        final Array src = contiguous(a);
+        final int[] r = new int[n];
+        ParallelUtil.forRange(src.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                int[] c = new int[n];
+                for (int i = from; i < to; i++) {
+                    int j = bins.find(src.getDouble(i));
+                    if (j >= 0 && j < n) {
+                        c[j] += 1;
+                    }
+                }
+                add(r, c);
+            }
+        });
+
+        return Array.factory(DataType.INT, new int[]{n}, r);
+    }
+
+    /**
+     * Compute the histogram of an array with an underflow and an overflow
+     * count
+     *
+     * @param a The array
+     * @param edges The bin edges
+     * @return Counts of the values less than the first edge, of the bins and
+     * of the values larger than the last edge
+     */
+    public static int[] histogramOpen(Array a, double[] edges) {
+        final Bins bins = new Bins(edges);
+        final int n = bins.size();
+        final Array src = contiguous(a);
+        final int[] r = new int[n + 2];
+        ParallelUtil.forRange(src.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                int[] c = new int[n + 2];
+                for (int i = from; i < to; i++) {
+                    double v = src.getDouble(i);
+                    if (!Double.isNaN(v)) {
+                        c[bins.find(v) + 1] += 1;
+                    }
+                }
+                add(r, c);
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Compute the weighted histogram of an array
+     *
+     * @param a The array
+     * @param weights The weights - same shape as the array
+     * @param edges The bin edges
+     * @return Sums of the weights of the bins
+     */
+    public static Array histogram(Array a, Array weights, double[] edges) {
+        checkShape(a, weights);
+        final Bins bins = new Bins(edges);
+        final int n = bins.size();
+        final Array src = contiguous(a);
+        final Array ws = contiguous(weights);
+        final ConcurrentSkipListMap<Integer, double[]> parts = new ConcurrentSkipListMap<>();
+        ParallelUtil.forRange(src.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] c = new double[n];
+                for (int i = from; i < to; i++) {
+                    int j = bins.find(src.getDouble(i));
+                    if (j >= 0 && j < n) {
+                        c[j] += ws.getDouble(i);
+                    }
+                }
+                parts.put(from, c);
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, new int[]{n}, sum(parts, n));
+    }
+
+    /**
+     * Compute the 2-D histogram of two arrays
+     *
+     * @param x The x values
+     * @param y The y values - same shape as x
+     * @param weights The weights - same shape as x, or null to count the
+     * values
+     * @param xedges The bin edges of x
+     * @param yedges The bin edges of y
+     * @return Counts (int) or sums of the weights (double) of the bins - the
+     * first dimension is x and the second is y
+     */
+    public static Array histogram2d(Array x, Array y, Array weights, double[] xedges, double[] yedges) {
+        checkShape(x, y);
+        if (weights != null) {
+            checkShape(x, weights);
+        }
+        final Bins xbins = new Bins(xedges);
+        final Bins ybins = new Bins(yedges);
+        final int nx = xbins.size();
+        final int ny = ybins.size();
+        final Array xs = contiguous(x);
+        final Array ys = contiguous(y);
+        final Array ws = weights == null ? null : contiguous(weights);
+        final int[] count = ws == null ? new int[nx * ny] : null;
+        final ConcurrentSkipListMap<Integer, double[]> parts = new ConcurrentSkipListMap<>();
+        ParallelUtil.forRange(xs.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                int[] c = ws == null ? new int[nx * ny] : null;
+                double[] s = ws == null ? null : new double[nx * ny];
+                for (int i = from; i < to; i++) {
+                    int jx = xbins.find(xs.getDouble(i));
+                    if (jx < 0 || jx >= nx) {
+                        continue;
+                    }
+                    int jy = ybins.find(ys.getDouble(i));
+                    if (jy < 0 || jy >= ny) {
+                        continue;
+                    }
+                    if (c == null) {
+                        s[jx * ny + jy] += ws.getDouble(i);
+                    } else {
+                        c[jx * ny + jy] += 1;
+                    }
+                }
+                if (c == null) {
+                    parts.put(from, s);
+                } else {
+                    add(count, c);
+                }
+            }
+        });
+
+        if (ws == null) {
+            return Array.factory(DataType.INT, new int[]{nx, ny}, count);
+        } else {
+            return Array.factory(DataType.DOUBLE, new int[]{nx, ny}, sum(parts, nx * ny));
+        }
+    }
+
+    private static void checkShape(Array a, Array b) {
+        if (!Arrays.equals(a.getShape(), b.getShape())) {
+            throw new IllegalArgumentException("The arrays must have the same shape");
+        }
+    }
+
+    private static void add(int[] r, int[] c) {
+        synchronized (r) {
+            for (int j = 0; j < r.length; j++) {
+                r[j] += c[j];
+            }
+        }
+    }
+
+    private static double[] sum(ConcurrentSkipListMap<Integer, double[]> parts, int n) {
+        double[] r = new double[n];
+        for (double[] c : parts.values()) {
+            for (int j = 0; j < n; j++) {
+                r[j] += c[j];
+            }
+        }
+        return r;
+    }
+}
@@ -2,14 +2,25 @@ package org.meteothink.math;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import org.meteothink.ndarray.Array;
 
 public abstract class KDTree<T> {
 
     //use a big bucketSize so that we have less node bounds (for more cache hits) and better splits
     private static final int _bucketSize = 50;
 
+    //minimum number of query points to run a batch query in parallel
+    private static final int _queryGrain = 256;
+
+    //minimum number of points of a subtree to build its two halves in parallel
+    private static final int _forkSize = 1 << 15;
+
     private final int _dimensions;
     private int _nodes;
+    //id of the next added point - one past the largest id in the tree
+    private int nextId;
     private final Node root;
     private final ArrayList<Node> nodeList = new ArrayList<>();
 
@@ -50,8 +61,169 @@ public abstract class KDTree<T> {
         return root.entries;
     }
 
+    /**
+     * Bulk load points into the empty tree as a balanced tree. The points are
+     * split at the median of the widest dimension of each node until the
+     * leaves hold no more than the bucket size, large subtrees being built in
+     * parallel. All leaves share the two given arrays, which are reordered in
+     * place, and the payload of each point is its id.
+     *
+     * @param points Packed point coordinates
+     * @param ids Point ids
+     */
+    private void bulkLoad(double[] points, int[] ids) {
+        int n = ids.length;
+        if (n == 0) {
+            return;
+        }
+        for (int id : ids) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        plan(root, points, ids, 0, n);
+        BuildAction action = new BuildAction(root, points, ids);
+        if (n <= _forkSize || ParallelUtil.getParallelism() <= 1) {
+            action.compute();
+        } else if (ForkJoinTask.inForkJoinPool()) {
+            action.invoke();
+        } else {
+            ParallelUtil.getPool().invoke(action);
+        }
+    }
+
+    //create the nodes of a balanced subtree in depth first order
+    private void plan(Node node, double[] points, int[] ids, int lo, int hi) {
+        node.start = lo;
+        node.entries = hi - lo;
+        if (hi - lo <= _bucketSize) {
+            node.pointLocations = new ContiguousDoubleArrayList(points);
+            node.pointLocations.size = points.length;
+            node.pointIds = ids;
+            node.pointPayloads = null;
+            node.shared = true;
+        } else {
+            node.pointLocations = null;
+            node.pointIds = null;
+            node.pointPayloads = null;
+            int mid = (lo + hi) >>> 1;
+            Node less = new Node(lo, mid - lo);
+            node.lessIndex = less.index;
+            plan(less, points, ids, lo, mid);
+            Node more = new Node(mid, hi - mid);
+            node.moreIndex = more.index;
+            plan(more, points, ids, mid, hi);
+        }
+    }
+
+    private class BuildAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+        private final double[] points;
+        private final int[] ids;
+
+        BuildAction(Node node, double[] points, int[] ids) {
+            this.node = node;
+            this.points = points;
+            this.ids = ids;
+        }
+
+        @Override
+        protected void compute() {
+            int lo = node.start;
+            int hi = lo + node.entries;
+            int offset = node.index * 2 * _dimensions;
+            double[] bounds = nodeMinMaxBounds.array;
+            double diff = -1;
+            for (int d = 0; d < _dimensions; d++, offset += 2) {
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+                for (int i = lo * _dimensions + d, end = hi * _dimensions; i < end; i += _dimensions) {
+                    min = Math.min(min, points[i]);
+                    max = Math.max(max, points[i]);
+                }
+                bounds[offset] = min;
+                bounds[offset + 1] = max;
+                if (max - min > diff) {
+                    diff = max - min;
+                    node.splitDim = d;
+                }
+            }
+            if (node.pointLocations != null) {
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            select(points, ids, _dimensions, node.splitDim, lo, hi - 1, mid);
+            node.splitVal = points[mid * _dimensions + node.splitDim];
+            BuildAction less = new BuildAction(nodeList.get(node.lessIndex), points, ids);
+            BuildAction more = new BuildAction(nodeList.get(node.moreIndex), points, ids);
+            if (node.entries > _forkSize && ForkJoinTask.inForkJoinPool()) {
+                invokeAll(less, more);
+            } else {
+                less.compute();
+                more.compute();
+            }
+        }
+    }
+
+    /**
+     * Partially sort the points between lo and hi (inclusive) along a
+     * dimension so the point k is in its sorted position, with no greater
+     * point before it and no smaller point after it.
+     */
+    private static void select(double[] p, int[] ids, int dims, int d, int lo, int hi, int k) {
+        while (hi > lo) {
+            //median of three pivot
+            int mid = (lo + hi) >>> 1;
+            if (p[mid * dims + d] < p[lo * dims + d]) {
+                swap(p, ids, dims, mid, lo);
+            }
+            if (p[hi * dims + d] < p[lo * dims + d]) {
+                swap(p, ids, dims, hi, lo);
+            }
+            if (p[hi * dims + d] < p[mid * dims + d]) {
+                swap(p, ids, dims, hi, mid);
+            }
+            double pivot = p[mid * dims + d];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (p[i * dims + d] < pivot) {
+                    i++;
+                }
+                while (p[j * dims + d] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(p, ids, dims, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(double[] p, int[] ids, int dims, int i, int j) {
+        int t = ids[i];
+        ids[i] = ids[j];
+        ids[j] = t;
+        for (int a = i * dims, b = j * dims, end = a + dims; a < end; a++, b++) {
+            double v = p[a];
+            p[a] = p[b];
+            p[b] = v;
+        }
+    }
+
     public int addPoint(double[] location, T payload) {
 
+        //points are identified by their ids in the batch queries - insertion
+        //order, or after the largest id of a tree built with given ids
+        int id = nextId++;
         Node addNode = root;
         //Do a Depth First Search to find the Node where 'location' should be stored
         while (addNode.pointLocations == null) {
@@ -64,7 +236,7 @@ public abstract class KDTree<T> {
         }
         addNode.expandBounds(location);
 
-        int nodeSize = addNode.add(location, payload);
+        int nodeSize = addNode.add(location, payload, id);
 
         if (nodeSize % _bucketSize == 0) //try splitting again once every time the node passes a _bucketSize multiple
         //in case it is full of points of the same location and won't split
@@ -145,6 +317,159 @@ public abstract class KDTree<T> {
         return results;
     }
 
+    /**
+     * Search the K nearest neighbours of a location with a reusable query
+     * context. The point ids (insertion order) and distances of the neighbours
+     * are kept in the context, closest first.
+     *
+     * @param searchLocation Search location
+     * @param K Neighbour number
+     * @param context Query context
+     * @return Number of neighbours found - the smaller of K and the tree size
+     */
+    public int nearestNeighbours(double[] searchLocation, int K, QueryContext context) {
+        context.resetNearest(K);
+        if (K <= 0) {
+            return 0;
+        }
+
+        IntStack stack = context.stack;
+        stack.push(root.index);
+
+        int added = 0;
+
+        while (stack.size() > 0) {
+            int nodeIndex = stack.pop();
+            if (added < K || context.minPrio > pointRectDist(nodeIndex, searchLocation)) {
+                Node node = nodeList.get(nodeIndex);
+                if (node.pointLocations == null) {
+                    node.search(searchLocation, stack);
+                } else {
+                    added += node.search(searchLocation, context);
+                }
+            }
+        }
+
+        context.size = Math.min(K, root.entries);
+        return context.size;
+    }
+
+    /**
+     * Search the points within a distance of a location with a reusable query
+     * context. The point ids (insertion order) and distances of the points are
+     * kept in the context.
+     *
+     * @param searchLocation Search location
+     * @param radius Search distance - squared for Euclidean trees
+     * @param context Query context
+     * @return Number of points found
+     */
+    public int ballSearch(double[] searchLocation, double radius, QueryContext context) {
+        context.resetBall();
+        IntStack stack = context.stack;
+        stack.push(root.index);
+
+        while (stack.size() > 0) {
+            int nodeIndex = stack.pop();
+            if (radius > pointRectDist(nodeIndex, searchLocation)) {
+                Node node = nodeList.get(nodeIndex);
+                if (node.pointLocations == null) {
+                    stack.push(node.moreIndex).push(node.lessIndex);
+                } else {
+                    node.searchBall(searchLocation, radius, context);
+                }
+            }
+        }
+        return context.size;
+    }
+
+    /**
+     * Search the K nearest neighbours of many locations in parallel
+     *
+     * @param locations Search locations - packed coordinates of each location
+     * @param K Neighbour number
+     * @param ids Output point ids (insertion order) - K per location, closest
+     * first, -1 if the tree has less than K points
+     * @param distances Output distances - K per location
+     */
+    public void batchNearestNeighbours(final double[] locations, final int K, final int[] ids,
+            final double[] distances) {
+        final int dims = _dimensions;
+        query(locations.length / dims, new QueryTask() {
+            @Override
+            public void run(QueryContext context, int from, int to) {
+                double[] location = new double[dims];
+                for (int i = from; i < to; i++) {
+                    System.arraycopy(locations, i * dims, location, 0, dims);
+                    int n = nearestNeighbours(location, K, context);
+                    for (int k = 0, o = i * K; k < K; k++, o++) {
+                        if (k < n) {
+                            ids[o] = context.ids[k];
+                            distances[o] = context.distances[k];
+                        } else {
+                            ids[o] = -1;
+                            distances[o] = Double.POSITIVE_INFINITY;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Search the points within a distance of many locations in parallel
+     *
+     * @param locations Search locations - packed coordinates of each location
+     * @param radius Search distance - squared for Euclidean trees
+     * @return Neighbours of all locations
+     */
+    public Neighbours batchBallSearch(final double[] locations, final double radius) {
+        final int dims = _dimensions;
+        final int n = locations.length / dims;
+        final int[][] rids = new int[n][];
+        final double[][] rdists = new double[n][];
+        query(n, new QueryTask() {
+            @Override
+            public void run(QueryContext context, int from, int to) {
+                double[] location = new double[dims];
+                for (int i = from; i < to; i++) {
+                    System.arraycopy(locations, i * dims, location, 0, dims);
+                    int m = ballSearch(location, radius, context);
+                    rids[i] = Arrays.copyOf(context.ids, m);
+                    rdists[i] = Arrays.copyOf(context.distances, m);
+                }
+            }
+        });
+
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + rids[i].length;
+        }
+        int[] ids = new int[offsets[n]];
+        double[] distances = new double[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(rids[i], 0, ids, offsets[i], rids[i].length);
+            System.arraycopy(rdists[i], 0, distances, offsets[i], rdists[i].length);
+        }
+        return new Neighbours(offsets, ids, distances);
+    }
+
+    /**
+     * Run a query task over the index range [0, n) of query points in
+     * parallel. Each chunk of the range gets its own query context.
+     *
+     * @param n Query point number
+     * @param task The task
+     */
+    public void query(int n, final QueryTask task) {
+        ParallelUtil.forRange(n, _queryGrain, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                task.run(new QueryContext(), from, to);
+            }
+        });
+    }
+
     public ArrayList<T> rectSearch(double[] mins, double[] maxs) {
         IntStack stack = new IntStack();
         ArrayList<T> results = new ArrayList<>();
@@ -202,6 +527,68 @@ public abstract class KDTree<T> {
             super(dims);
         }
 
+        /**
+         * Build a balanced 2-D tree from coordinate arrays. The payload of each
+         * point is its index in the arrays. Points added later get ids from
+         * the tree size on.
+         *
+         * @param xs X coordinates
+         * @param ys Y coordinates
+         * @return The tree
+         */
+        public static Euclidean<Integer> build(double[] xs, double[] ys) {
+            int[] ids = new int[xs.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = i;
+            }
+            return build(xs, ys, ids);
+        }
+
+        /**
+         * Build a balanced 2-D tree from coordinate arrays
+         *
+         * @param xs X coordinates
+         * @param ys Y coordinates
+         * @param ids Payload index of each point, such as the index of a valid
+         * point in the original data. Points added later get ids after the
+         * largest one.
+         * @return The tree
+         */
+        public static Euclidean<Integer> build(double[] xs, double[] ys, int[] ids) {
+            int n = ids.length;
+            double[] points = new double[n * 2];
+            for (int i = 0; i < n; i++) {
+                points[2 * i] = xs[i];
+                points[2 * i + 1] = ys[i];
+            }
+            Euclidean<Integer> tree = new Euclidean<>(2);
+            ((KDTree<Integer>) tree).bulkLoad(points, ids.clone());
+            return tree;
+        }
+
+        /**
+         * Build a balanced tree from a coordinate array
+         *
+         * @param coords Coordinate array - point number x dimension number
+         * @return The tree
+         */
+        public static Euclidean<Integer> build(Array coords) {
+            int[] shape = coords.getShape();
+            int n = shape[0];
+            int dims = shape.length > 1 ? shape[1] : 1;
+            double[] points = (double[]) coords.get1DJavaArray(double.class);
+            if (points == coords.getStorage()) {
+                points = points.clone();
+            }
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = i;
+            }
+            Euclidean<Integer> tree = new Euclidean<>(dims);
+            ((KDTree<Integer>) tree).bulkLoad(points, ids);
+            return tree;
+        }
+
         @Override
         double pointRectDist(int offset, final double[] location) {
             offset *= (2 * super._dimensions);
@@ -389,6 +776,129 @@ public abstract class KDTree<T> {
         }
     }
 
+    /**
+     * Reusable state of the queries of one thread - the traversal stack and
+     * the point ids and distances of the last query result.
+     */
+    public static class QueryContext {
+
+        private final IntStack stack = new IntStack();
+        int[] ids = new int[64];
+        double[] distances = new double[64];
+        int size;
+        private double minPrio;
+
+        /**
+         * Get the number of points of the last query result
+         *
+         * @return Point number
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get the point id (insertion order) of a result
+         *
+         * @param i Result index
+         * @return Point id
+         */
+        public int getId(int i) {
+            return ids[i];
+        }
+
+        /**
+         * Get the distance of a result
+         *
+         * @param i Result index
+         * @return Distance - squared for Euclidean trees
+         */
+        public double getDistance(int i) {
+            return distances[i];
+        }
+
+        private void ensure(int n) {
+            if (n > ids.length) {
+                int len = Math.max(n, ids.length * 2);
+                ids = Arrays.copyOf(ids, len);
+                distances = Arrays.copyOf(distances, len);
+            }
+        }
+
+        private void resetNearest(int K) {
+            stack.size = 0;
+            ensure(K);
+            Arrays.fill(ids, 0, Math.max(K, 0), -1);
+            Arrays.fill(distances, 0, Math.max(K, 0), Double.POSITIVE_INFINITY);
+            size = Math.max(K, 0);
+            minPrio = Double.POSITIVE_INFINITY;
+        }
+
+        private void resetBall() {
+            stack.size = 0;
+            size = 0;
+        }
+
+        //same sorted insertion as PrioQueue.addNoGrow
+        private void addNearest(int id, double priority) {
+            int i = size - 1;
+            int j = 0;
+            while (i >= j) {
+                int index = (i + j) >>> 1;
+                if (distances[index] < priority) {
+                    j = index + 1;
+                } else {
+                    i = index - 1;
+                }
+            }
+            int length = size - j - 1;
+            System.arraycopy(ids, j, ids, j + 1, length);
+            System.arraycopy(distances, j, distances, j + 1, length);
+            ids[j] = id;
+            distances[j] = priority;
+            minPrio = distances[size - 1];
+        }
+
+        private void add(int id, double distance) {
+            ensure(size + 1);
+            ids[size] = id;
+            distances[size] = distance;
+            size++;
+        }
+    }
+
+    /**
+     * Task run over a range of query points with a query context
+     */
+    public static abstract class QueryTask {
+
+        /**
+         * Run the task over a range of query points
+         *
+         * @param context Query context of this range
+         * @param from Start index - inclusive
+         * @param to End index - exclusive
+         */
+        public abstract void run(QueryContext context, int from, int to);
+    }
+
+    /**
+     * Neighbours of many query points. The point ids and distances of query
+     * point i are at offsets[i] to offsets[i + 1] - 1.
+     */
+    public static class Neighbours {
+
+        public final int[] offsets;
+        public final int[] ids;
+        public final double[] distances;
+
+        Neighbours(int[] offsets, int[] ids, double[] distances) {
+            this.offsets = offsets;
+            this.ids = ids;
+            this.distances = distances;
+        }
+    }
+
     private class Node {
 
         //for accessing bounding box data 
@@ -400,7 +910,13 @@ public abstract class KDTree<T> {
 
         //leaf
         ContiguousDoubleArrayList pointLocations;
-        ArrayList<T> pointPayloads = new ArrayList<>(_bucketSize);
+        ArrayList<T> pointPayloads;
+        int[] pointIds;
+
+        //bulk loaded leaf - the points are at start to start + entries - 1 of
+        //the location and id arrays shared by all leaves, and the payloads are the ids
+        int start;
+        boolean shared;
 
         //stem
         //Node less, more;
@@ -414,6 +930,17 @@ public abstract class KDTree<T> {
 
         Node(double[] pointMemory) {
             pointLocations = new ContiguousDoubleArrayList(pointMemory);
+            pointPayloads = new ArrayList<>(_bucketSize);
+            pointIds = new int[_bucketSize];
+            index = _nodes++;
+            nodeList.add(this);
+            nodeMinMaxBounds.add(bounds_template);
+        }
+
+        //node of a bulk loaded tree
+        Node(int start, int entries) {
+            this.start = start;
+            this.entries = entries;
             index = _nodes++;
             nodeList.add(this);
             nodeMinMaxBounds.add(bounds_template);
@@ -430,45 +957,95 @@ public abstract class KDTree<T> {
         //returns number of points added to results
         int search(double[] searchLocation, PrioQueue<T> results) {
             int updated = 0;
-            for (int j = entries; j-- > 0;) {
+            for (int j = start + entries; j-- > start;) {
                 double distance = pointDist(pointLocations.array, searchLocation, j);
                 if (results.peekPrio() > distance) {
                     updated++;
-                    results.addNoGrow(pointPayloads.get(j), distance);
+                    results.addNoGrow(payload(j), distance);
                 }
             }
             return updated;
         }
 
+        //returns number of points added to results
+        int search(double[] searchLocation, QueryContext context) {
+            int updated = 0;
+            for (int j = start + entries; j-- > start;) {
+                double distance = pointDist(pointLocations.array, searchLocation, j);
+                if (context.minPrio > distance) {
+                    updated++;
+                    context.addNearest(pointIds[j], distance);
+                }
+            }
+            return updated;
+        }
+
+        void searchBall(double[] searchLocation, double radius, QueryContext context) {
+            for (int j = start + entries; j-- > start;) {
+                double distance = pointDist(pointLocations.array, searchLocation, j);
+                if (radius >= distance) {
+                    context.add(pointIds[j], distance);
+                }
+            }
+        }
+
         void searchBall(double[] searchLocation, double radius, ArrayList<T> results) {
 
-            for (int j = entries; j-- > 0;) {
+            for (int j = start + entries; j-- > start;) {
                 double distance = pointDist(pointLocations.array, searchLocation, j);
                 if (radius >= distance) {
-                    results.add(pointPayloads.get(j));
+                    results.add(payload(j));
                 }
             }
         }
         
         void searchBall_distance(double[] searchLocation, double radius, ArrayList<SearchResult<T>> results) {
-            for (int j = entries; j-- > 0;) {
+            for (int j = start + entries; j-- > start;) {
                 double distance = pointDist(pointLocations.array, searchLocation, j);
                 if (radius >= distance) {
-                    results.add(new SearchResult(distance, pointPayloads.get(j)));
+                    results.add(new SearchResult(distance, payload(j)));
                 }
             }
         }
 
         void searchRect(double[] mins, double[] maxs, ArrayList<T> results) {
 
-            for (int j = entries; j-- > 0;) {
+            for (int j = start + entries; j-- > start;) {
                 if (contains(pointLocations.array, mins, maxs, j)) {
-                    results.add(pointPayloads.get(j));
+                    results.add(payload(j));
                 }
             }
 
         }
 
+        T payload(int j) {
+            return pointPayloads == null ? idPayload(pointIds[j]) : pointPayloads.get(j);
+        }
+
+        //payload of a bulk loaded point - the trees are built as KDTree<Integer>
+        @SuppressWarnings("unchecked")
+        T idPayload(int id) {
+            return (T) Integer.valueOf(id);
+        }
+
+        //copy the points of a bulk loaded leaf to its own memory before adding points
+        void detach() {
+            int n = entries - 1;
+            double[] mem = new double[Math.max(_bucketSize, n + 1) * _dimensions];
+            System.arraycopy(pointLocations.array, start * _dimensions, mem, 0, n * _dimensions);
+            pointLocations = new ContiguousDoubleArrayList(mem);
+            pointLocations.size = n * _dimensions;
+            int[] ids = new int[Math.max(_bucketSize, n + 1)];
+            System.arraycopy(pointIds, start, ids, 0, n);
+            pointIds = ids;
+            pointPayloads = new ArrayList<>(Math.max(_bucketSize, n + 1));
+            for (int j = 0; j < n; j++) {
+                pointPayloads.add(idPayload(ids[j]));
+            }
+            start = 0;
+            shared = false;
+        }
+
         void expandBounds(double[] location) {
             entries++;
             int mio = index * 2 * _dimensions;
@@ -478,9 +1055,17 @@ public abstract class KDTree<T> {
             }
         }
 
-        int add(double[] location, T load) {
+        int add(double[] location, T load, int id) {
+            if (shared) {
+                detach();
+            }
             pointLocations.add(location);
             pointPayloads.add(load);
+            int n = pointPayloads.size();
+            if (n > pointIds.length) {
+                pointIds = Arrays.copyOf(pointIds, pointIds.length * 2);
+            }
+            pointIds[n - 1] = id;
             return entries;
         }
 
@@ -536,10 +1121,10 @@ public abstract class KDTree<T> {
 
                 if (pointLocation[splitDim] < splitVal) {
                     less.expandBounds(pointLocation);
-                    less.add(pointLocation, load);
+                    less.add(pointLocation, load, pointIds[i]);
                 } else {
                     more.expandBounds(pointLocation);
-                    more.add(pointLocation, load);
+                    more.add(pointLocation, load, pointIds[i]);
                 }
             }
             if (less.entries * more.entries == 0) {
@@ -556,6 +1141,7 @@ public abstract class KDTree<T> {
 
                 pointPayloads.clear();
                 pointPayloads = null;
+                pointIds = null;
             }
         }
 
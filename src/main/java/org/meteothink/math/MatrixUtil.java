@@ -0,0 +1,166 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+/**
+ * Blocked matrix multiplication over row major primitive storage. The right
+ * matrix is packed panel by panel in transposed order so the inner products
+ * run over contiguous memory, and the rows of each panel product are computed
+ * in parallel.
+ *
+ * @author Yaqiang Wang
+ */
+public class MatrixUtil {
+
+    /**
+     * Panel depth (columns of a / rows of b)
+     */
+    private static final int KC = 256;
+    /**
+     * Panel width (columns of b)
+     */
+    private static final int NC = 128;
+
+    /**
+     * Matrix multiplication c = a * b
+     *
+     * @param a Matrix a storage - m x k, row major
+     * @param b Matrix b storage - k x n, row major
+     * @param m Rows of a
+     * @param n Columns of b
+     * @param k Columns of a / rows of b
+     * @return Matrix c storage - m x n, row major
+     */
+    public static double[] gemm(final double[] a, final double[] b, final int m, final int n, final int k) {
+        final double[] c = new double[m * n];
+        final double[] bt = new double[Math.min(NC, n) * Math.min(KC, k)];
+        for (int kk = 0; kk < k; kk += KC) {
+            final int kc = Math.min(KC, k - kk);
+            for (int jj = 0; jj < n; jj += NC) {
+                final int nc = Math.min(NC, n - jj);
+                for (int p = 0; p < kc; p++) {
+                    int bi = (kk + p) * n + jj;
+                    for (int j = 0; j < nc; j++) {
+                        bt[j * kc + p] = b[bi + j];
+                    }
+                }
+                final int k0 = kk;
+                final int j0 = jj;
+                ParallelUtil.forRange(m, minRows(nc, kc), new ParallelUtil.RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            int ai = i * k + k0;
+                            int ci = i * n + j0;
+                            int j = 0;
+                            for (; j + 3 < nc; j += 4) {
+                                int b0 = j * kc;
+                                int b1 = b0 + kc;
+                                int b2 = b1 + kc;
+                                int b3 = b2 + kc;
+                                double s0 = 0, s1 = 0, s2 = 0, s3 = 0, v;
+                                for (int p = 0; p < kc; p++) {
+                                    v = a[ai + p];
+                                    s0 += v * bt[b0 + p];
+                                    s1 += v * bt[b1 + p];
+                                    s2 += v * bt[b2 + p];
+                                    s3 += v * bt[b3 + p];
+                                }
+                                c[ci + j] += s0;
+                                c[ci + j + 1] += s1;
+                                c[ci + j + 2] += s2;
+                                c[ci + j + 3] += s3;
+                            }
+                            for (; j < nc; j++) {
+                                int b0 = j * kc;
+                                double s = 0;
+                                for (int p = 0; p < kc; p++) {
+                                    s += a[ai + p] * bt[b0 + p];
+                                }
+                                c[ci + j] += s;
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Matrix multiplication c = a * b. The panel products are accumulated in
+     * double precision.
+     *
+     * @param a Matrix a storage - m x k, row major
+     * @param b Matrix b storage - k x n, row major
+     * @param m Rows of a
+     * @param n Columns of b
+     * @param k Columns of a / rows of b
+     * @return Matrix c storage - m x n, row major
+     */
+    public static float[] gemm(final float[] a, final float[] b, final int m, final int n, final int k) {
+        final float[] c = new float[m * n];
+        final float[] bt = new float[Math.min(NC, n) * Math.min(KC, k)];
+        for (int kk = 0; kk < k; kk += KC) {
+            final int kc = Math.min(KC, k - kk);
+            for (int jj = 0; jj < n; jj += NC) {
+                final int nc = Math.min(NC, n - jj);
+                for (int p = 0; p < kc; p++) {
+                    int bi = (kk + p) * n + jj;
+                    for (int j = 0; j < nc; j++) {
+                        bt[j * kc + p] = b[bi + j];
+                    }
+                }
+                final int k0 = kk;
+                final int j0 = jj;
+                ParallelUtil.forRange(m, minRows(nc, kc), new ParallelUtil.RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            int ai = i * k + k0;
+                            int ci = i * n + j0;
+                            int j = 0;
+                            for (; j + 3 < nc; j += 4) {
+                                int b0 = j * kc;
+                                int b1 = b0 + kc;
+                                int b2 = b1 + kc;
+                                int b3 = b2 + kc;
+                                double s0 = 0, s1 = 0, s2 = 0, s3 = 0, v;
+                                for (int p = 0; p < kc; p++) {
+                                    v = a[ai + p];
+                                    s0 += v * bt[b0 + p];
+                                    s1 += v * bt[b1 + p];
+                                    s2 += v * bt[b2 + p];
+                                    s3 += v * bt[b3 + p];
+                                }
+                                c[ci + j] += s0;
+                                c[ci + j + 1] += s1;
+                                c[ci + j + 2] += s2;
+                                c[ci + j + 3] += s3;
+                            }
+                            for (; j < nc; j++) {
+                                int b0 = j * kc;
+                                double s = 0;
+                                for (int p = 0; p < kc; p++) {
+                                    s += a[ai + p] * bt[b0 + p];
+                                }
+                                c[ci + j] += s;
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Minimum number of rows of a panel product worth running in parallel
+     */
+    private static int minRows(int nc, int kc) {
+        return Math.max(1, ParallelUtil.getThreshold() / (nc * kc));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Chunked parallel execution of index ranges on a fork/join pool. Ranges
+ * smaller than the threshold are run sequentially on the calling thread.
+ *
+ * @author Yaqiang Wang
+ */
+public class ParallelUtil {
+
+    private static ForkJoinPool pool = null;
+    //the pool is created here, not set by the caller
+    private static boolean ownPool = false;
+    private static int threshold = 65536;
+
+    /**
+     * Task run over a sub range of indices
+     */
+    public static abstract class RangeTask {
+
+        /**
+         * Run the task over an index range
+         *
+         * @param from Start index - inclusive
+         * @param to End index - exclusive
+         */
+        public abstract void run(int from, int to);
+    }
+
+    /**
+     * Get the fork/join pool. A pool with the parallelism of the available
+     * processors is created on first use.
+     *
+     * @return The pool
+     */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+            ownPool = true;
+        }
+        return pool;
+    }
+
+    /**
+     * Set the fork/join pool. The previous pool is not shut down if it was
+     * also set by the caller.
+     *
+     * @param value The pool
+     */
+    public static synchronized void setPool(ForkJoinPool value) {
+        if (pool != null && pool != value && ownPool) {
+            pool.shutdown();
+        }
+        pool = value;
+        ownPool = false;
+    }
+
+    /**
+     * Set the number of worker threads. A value of 1 disables parallel
+     * execution. The pool is only replaced if the parallelism changes, and a
+     * replaced pool created here is shut down.
+     *
+     * @param n Parallelism
+     */
+    public static synchronized void setParallelism(int n) {
+        if (pool != null && pool.getParallelism() == n) {
+            return;
+        }
+        setPool(new ForkJoinPool(n));
+        ownPool = true;
+    }
+
+    /**
+     * Get the parallelism of the pool
+     *
+     * @return Parallelism
+     */
+    public static int getParallelism() {
+        return getPool().getParallelism();
+    }
+
+    /**
+     * Get the minimum size of a range to be run in parallel
+     *
+     * @return Threshold
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the minimum size of a range to be run in parallel
+     *
+     * @param value Threshold
+     */
+    public static void setThreshold(int value) {
+        threshold = value;
+    }
+
+    /**
+     * Run a task over the index range [0, n), split into chunks executed in
+     * parallel when n is not less than the threshold.
+     *
+     * @param n Range size - not larger than Integer.MAX_VALUE
+     * @param task The task
+     */
+    public static void forRange(long n, RangeTask task) {
+        forRange(n, threshold, task);
+    }
+
+    /**
+     * Run a task over the index range [0, n), split into chunks executed in
+     * parallel when n is not less than the given threshold. Use a small
+     * threshold for tasks whose single index is expensive, such as a grid row
+     * or an array lane.
+     *
+     * @param n Range size - not larger than Integer.MAX_VALUE
+     * @param minSize Minimum range size to run in parallel
+     * @param task The task
+     */
+    public static void forRange(long n, int minSize, RangeTask task) {
+        if (n > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The range size is larger than Integer.MAX_VALUE");
+        }
+        int size = (int) n;
+        ForkJoinPool p = getPool();
+        int parallelism = p.getParallelism();
+        if (size < Math.max(minSize, 2) || parallelism <= 1) {
+            task.run(0, size);
+            return;
+        }
+
+        int grain = Math.max(1, size / (parallelism * 4));
+        RangeAction action = new RangeAction(task, 0, size, grain);
+        if (ForkJoinTask.inForkJoinPool()) {
+            action.invoke();
+        } else {
+            p.invoke(action);
+        }
+    }
+
+    private static class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final RangeTask task;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeAction(RangeTask task, int from, int to, int grain) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                task.run(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeAction(task, from, mid, grain),
+                        new RangeAction(task, mid, to, grain));
+            }
+        }
+    }
+}
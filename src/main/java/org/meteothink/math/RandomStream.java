@@ -0,0 +1,227 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Splittable random number stream (SplitMix64). A stream can be split into
+ * statistically independent child streams, or give the child stream of an
+ * index without advancing, so bulk fills can assign a fixed stream to each
+ * block of elements and produce the same values whatever the number of
+ * threads. Normal variates use the Ziggurat method (Marsaglia and Tsang,
+ * with the improvements of Doornik) and Poisson variates use inversion for
+ * small means and transformed rejection (PTRS, Hormann) for large ones.
+ * <p>
+ * A stream is not thread safe - each thread uses its own stream.
+ *
+ * @author Yaqiang Wang
+ */
+public class RandomStream {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    // <editor-fold desc="Ziggurat tables">
+    private static final int ZIG_LAYERS = 128;
+    private static final double ZIG_R = 3.442619855899;
+    private static final double ZIG_V = 9.91256303526217e-3;
+    private static final double[] ZIG_X = new double[ZIG_LAYERS + 1];
+    private static final double[] ZIG_RATIO = new double[ZIG_LAYERS];
+
+    static {
+        double f = Math.exp(-0.5 * ZIG_R * ZIG_R);
+        ZIG_X[0] = ZIG_V / f;
+        ZIG_X[1] = ZIG_R;
+        ZIG_X[ZIG_LAYERS] = 0;
+        for (int i = 2; i < ZIG_LAYERS; i++) {
+            ZIG_X[i] = Math.sqrt(-2 * Math.log(ZIG_V / ZIG_X[i - 1] + f));
+            f = Math.exp(-0.5 * ZIG_X[i] * ZIG_X[i]);
+        }
+        for (int i = 0; i < ZIG_LAYERS; i++) {
+            ZIG_RATIO[i] = ZIG_X[i + 1] / ZIG_X[i];
+        }
+    }
+    // </editor-fold>
+
+    private long state;
+    private final long gamma;
+
+    /**
+     * Constructor
+     *
+     * @param seed Seed
+     */
+    public RandomStream(long seed) {
+        this(mix64(seed), GOLDEN_GAMMA);
+    }
+
+    private RandomStream(long state, long gamma) {
+        this.state = state;
+        this.gamma = gamma;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    //odd gamma with enough bit transitions
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+    /**
+     * Split a new independent stream from this stream. This stream is
+     * advanced.
+     *
+     * @return New stream
+     */
+    public RandomStream split() {
+        long s = nextLong();
+        return new RandomStream(s, mixGamma(nextLong() ^ s));
+    }
+
+    /**
+     * Get the child stream of an index. The child streams only depend on this
+     * stream state and the index, and this stream is not advanced.
+     *
+     * @param index The index
+     * @return Child stream
+     */
+    public RandomStream stream(long index) {
+        long s = mix64(state + gamma * (2 * index + 1));
+        long g = mixGamma(state + gamma * (2 * index + 2));
+        return new RandomStream(mix64(s ^ gamma), g);
+    }
+
+    /**
+     * Get next random long value
+     *
+     * @return Random long value
+     */
+    public long nextLong() {
+        return mix64(state += gamma);
+    }
+
+    /**
+     * Get next random double value in [0, 1)
+     *
+     * @return Random double value
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Get next random int value in [0, bound)
+     *
+     * @param bound Upper bound - exclusive, positive
+     * @return Random int value
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("The bound must be positive");
+        }
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+        for (int u = r; u - (r = u % bound) + m < 0; u = (int) (nextLong() >>> 33)) {
+        }
+        return r;
+    }
+
+    /**
+     * Get next standard normal random value (Ziggurat method)
+     *
+     * @return Random normal value
+     */
+    public double nextGaussian() {
+        while (true) {
+            long bits = nextLong();
+            int i = (int) (bits & (ZIG_LAYERS - 1));
+            double u = 2 * ((bits >>> 11) * DOUBLE_UNIT) - 1;
+            if (Math.abs(u) < ZIG_RATIO[i]) {
+                return u * ZIG_X[i];
+            }
+            if (i == 0) {
+                //the tail beyond R
+                double x, y;
+                do {
+                    x = Math.log(1 - nextDouble()) / ZIG_R;
+                    y = Math.log(1 - nextDouble());
+                } while (-2 * y < x * x);
+                return u < 0 ? x - ZIG_R : ZIG_R - x;
+            }
+            double x = u * ZIG_X[i];
+            double f0 = Math.exp(-0.5 * (ZIG_X[i] * ZIG_X[i] - x * x));
+            double f1 = Math.exp(-0.5 * (ZIG_X[i + 1] * ZIG_X[i + 1] - x * x));
+            if (f1 + nextDouble() * (f0 - f1) < 1.0) {
+                return x;
+            }
+        }
+    }
+
+    /**
+     * Get next Poisson random value
+     *
+     * @param mean Poisson mean - not negative
+     * @return Random Poisson value
+     */
+    public long nextPoisson(double mean) {
+        if (!(mean >= 0)) {
+            throw new IllegalArgumentException("The mean must not be negative");
+        }
+        if (mean == 0) {
+            return 0;
+        }
+        if (mean < 10) {
+            //inversion by sequential search
+            double p = Math.exp(-mean), s = p, u = nextDouble();
+            long k = 0;
+            while (u > s) {
+                k += 1;
+                p *= mean / k;
+                double ns = s + p;
+                if (ns == s) {
+                    break;
+                }
+                s = ns;
+            }
+            return k;
+        }
+        //transformed rejection with squeeze
+        double slam = Math.sqrt(mean);
+        double loglam = Math.log(mean);
+        double b = 0.931 + 2.53 * slam;
+        double a = -0.059 + 0.02483 * b;
+        double invalpha = 1.1239 + 1.1328 / (b - 3.4);
+        double vr = 0.9277 - 3.6224 / (b - 2);
+        while (true) {
+            double u = nextDouble() - 0.5;
+            double v = nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) {
+                return k;
+            }
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+            if (Math.log(v) + Math.log(invalpha) - Math.log(a / (us * us) + b)
+                    <= -mean + k * loglam - Gamma.logGamma(k + 1)) {
+                return k;
+            }
+        }
+    }
+}
@@ -6,29 +6,163 @@
 package org.meteothink.math;
 
 import java.util.List;
-import java.util.Random;
-import org.apache.commons.math3.random.RandomDataGenerator;
 import org.meteothink.ndarray.Array;
 import org.meteothink.ndarray.DataType;
 
 /**
+ * Random data generation. Values come from a global {@link RandomStream},
+ * which is reseeded with the seed if set. Arrays are filled in parallel with
+ * fixed size blocks, each block using its own child stream of a stream split
+ * from the global one, so the same seed gives the same arrays whatever the
+ * number of threads.
  *
  * @author Yaqiang Wang
  */
 public class RandomUtil {
     public static long seed = 1;
     public static boolean useSeed = false;
+
+    //number of elements filled with one child stream
+    private static final int BLOCK = 4096;
+
+    private static final int UNIFORM = 0;
+    private static final int NORMAL = 1;
+    private static final int INTEGER = 2;
+    private static final int POISSON = 3;
+
+    private static RandomStream stream = null;
+    private static long streamSeed;
+    private static boolean streamUseSeed;
+
+    /**
+     * Set the seed. The global stream restarts from the seed.
+     *
+     * @param value Seed
+     */
+    public static synchronized void setSeed(long value) {
+        seed = value;
+        useSeed = true;
+        stream = null;
+    }
+
+    /**
+     * Clear the seed. The global stream restarts from a time based seed.
+     */
+    public static synchronized void clearSeed() {
+        useSeed = false;
+        stream = null;
+    }
+
+    /**
+     * Get the global stream, created again if the seed fields have been
+     * changed
+     */
+    private static RandomStream current() {
+        if (stream == null || streamUseSeed != useSeed || (useSeed && streamSeed != seed)) {
+            streamUseSeed = useSeed;
+            streamSeed = seed;
+            stream = new RandomStream(useSeed ? seed : System.nanoTime() ^ System.identityHashCode(RandomUtil.class));
+        }
+        return stream;
+    }
+
+    /**
+     * Split a new stream from the global stream, such as for each thread of
+     * a parallel task
+     *
+     * @return New stream
+     */
+    public static synchronized RandomStream newStream() {
+        return current().split();
+    }
+
+    private static int[] toShape(List<Integer> shape) {
+        int[] ashape = new int[shape.size()];
+        for (int i = 0; i < shape.size(); i++) {
+            ashape[i] = shape.get(i);
+        }
+        return ashape;
+    }
+
+    /**
+     * Fill a new array in parallel with fixed size blocks of random values
+     *
+     * @param dataType Data type - DOUBLE or INT
+     * @param shape Shape
+     * @param kind Random value kind
+     * @param param Bound of the integers or Poisson mean
+     * @return Result array
+     */
+    private static Array fill(DataType dataType, int[] shape, final int kind, final double param) {
+        Array a = Array.factory(dataType, shape);
+        final Object storage = a.getStorage();
+        final RandomStream root = newStream();
+        final int n = (int) a.getSize();
+        int nb = (n + BLOCK - 1) / BLOCK;
+        ParallelUtil.forRange(nb, Math.max(1, ParallelUtil.getThreshold() / BLOCK), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int b = from; b < to; b++) {
+                    RandomStream rs = root.stream(b);
+                    int start = b * BLOCK;
+                    int end = Math.min(n, start + BLOCK);
+                    switch (kind) {
+                        case UNIFORM: {
+                            double[] d = (double[]) storage;
+                            for (int i = start; i < end; i++) {
+                                d[i] = rs.nextDouble();
+                            }
+                            break;
+                        }
+                        case NORMAL: {
+                            double[] d = (double[]) storage;
+                            for (int i = start; i < end; i++) {
+                                d[i] = rs.nextGaussian();
+                            }
+                            break;
+                        }
+                        case INTEGER: {
+                            int[] d = (int[]) storage;
+                            int bound = (int) param;
+                            for (int i = start; i < end; i++) {
+                                d[i] = rs.nextInt(bound);
+                            }
+                            break;
+                        }
+                        case POISSON: {
+                            int[] d = (int[]) storage;
+                            for (int i = start; i < end; i++) {
+                                d[i] = (int) rs.nextPoisson(param);
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+
+        return a;
+    }
+
+    private static void checkBound(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("The bound must be positive");
+        }
+    }
+
+    private static void checkMean(double mean) {
+        if (!(mean >= 0)) {
+            throw new IllegalArgumentException("The mean must not be negative");
+        }
+    }
     
     /**
      * Get random value
      *
      * @return Random value
      */
-    public static double rand() {
-        Random r = new Random();
-        if (useSeed)
-            r.setSeed(seed);
-        return r.nextDouble();
+    public static synchronized double rand() {
+        return current().nextDouble();
     }
 
     /**
@@ -38,15 +172,7 @@ public class RandomUtil {
      * @return Result array
      */
     public static Array rand(int n) {
-        Array r = Array.factory(DataType.DOUBLE, new int[]{n});
-        Random rd = new Random();
-        if (useSeed)
-            rd.setSeed(seed);
-        for (int i = 0; i < r.getSize(); i++) {
-            r.setDouble(i, rd.nextDouble());
-        }
-
-        return r;
+        return fill(DataType.DOUBLE, new int[]{n}, UNIFORM, 0);
     }
 
     /**
@@ -56,19 +182,7 @@ public class RandomUtil {
      * @return Array Result array
      */
     public static Array rand(List<Integer> shape) {
-        int[] ashape = new int[shape.size()];
-        for (int i = 0; i < shape.size(); i++) {
-            ashape[i] = shape.get(i);
-        }
-        Array a = Array.factory(DataType.DOUBLE, ashape);
-        Random rd = new Random();
-        if (useSeed)
-            rd.setSeed(seed);
-        for (int i = 0; i < a.getSize(); i++) {
-            a.setDouble(i, rd.nextDouble());
-        }
-
-        return a;
+        return fill(DataType.DOUBLE, toShape(shape), UNIFORM, 0);
     }
     
     /**
@@ -76,11 +190,8 @@ public class RandomUtil {
      *
      * @return Random value
      */
-    public static double randn() {
-        Random r = new Random();
-        if (useSeed)
-            r.setSeed(seed);
-        return r.nextGaussian();
+    public static synchronized double randn() {
+        return current().nextGaussian();
     }
 
     /**
@@ -90,15 +201,7 @@ public class RandomUtil {
      * @return Result array
      */
     public static Array randn(int n) {
-        Array r = Array.factory(DataType.DOUBLE, new int[]{n});
-        Random rd = new Random();
-        if (useSeed)
-            rd.setSeed(seed);
-        for (int i = 0; i < r.getSize(); i++) {
-            r.setDouble(i, rd.nextGaussian());
-        }
-
-        return r;
+        return fill(DataType.DOUBLE, new int[]{n}, NORMAL, 0);
     }
 
     /**
@@ -108,19 +211,7 @@ public class RandomUtil {
      * @return Array Result array
      */
     public static Array randn(List<Integer> shape) {
-        int[] ashape = new int[shape.size()];
-        for (int i = 0; i < shape.size(); i++) {
-            ashape[i] = shape.get(i);
-        }
-        Array a = Array.factory(DataType.DOUBLE, ashape);
-        Random rd = new Random();
-        if (useSeed)
-            rd.setSeed(seed);
-        for (int i = 0; i < a.getSize(); i++) {
-            a.setDouble(i, rd.nextGaussian());
-        }
-
-        return a;
+        return fill(DataType.DOUBLE, toShape(shape), NORMAL, 0);
     }
     
     /**
@@ -129,11 +220,8 @@ public class RandomUtil {
      * @param bound Highest value
      * @return Random int value
      */
-    public static int randint(int bound) {
-        Random r = new Random();
-        if (useSeed)
-            r.setSeed(seed);
-        return r.nextInt(bound);
+    public static synchronized int randint(int bound) {
+        return current().nextInt(bound);
     }
     
     /**
@@ -144,15 +232,8 @@ public class RandomUtil {
      * @return Array Result array
      */
     public static Array randint(int bound, int n) {
-        Array a = Array.factory(DataType.INT, new int[]{n});
-        Random rd = new Random();
-        if (useSeed)
-            rd.setSeed(seed);
-        for (int i = 0; i < a.getSize(); i++) {
-            a.setDouble(i, rd.nextInt(bound));
-        }
-
-        return a;
+        checkBound(bound);
+        return fill(DataType.INT, new int[]{n}, INTEGER, bound);
     }
     
     /**
@@ -163,19 +244,8 @@ public class RandomUtil {
      * @return Array Result array
      */
     public static Array randint(int bound, List<Integer> shape) {
-        int[] ashape = new int[shape.size()];
-        for (int i = 0; i < shape.size(); i++) {
-            ashape[i] = shape.get(i);
-        }
-        Array a = Array.factory(DataType.INT, ashape);
-        Random rd = new Random();
-        if (useSeed)
-            rd.setSeed(seed);
-        for (int i = 0; i < a.getSize(); i++) {
-            a.setDouble(i, rd.nextInt(bound));
-        }
-
-        return a;
+        checkBound(bound);
+        return fill(DataType.INT, toShape(shape), INTEGER, bound);
     }
     
     /**
@@ -183,11 +253,8 @@ public class RandomUtil {
      * @param mean Poisson mean
      * @return Random value
      */
-    public static double poisson(double mean){
-        RandomDataGenerator rdg = new RandomDataGenerator();
-        if (useSeed)
-            rdg.reSeed(seed);
-        return rdg.nextPoisson(mean);
+    public static synchronized double poisson(double mean){
+        return current().nextPoisson(mean);
     }
     
     /**
@@ -198,15 +265,8 @@ public class RandomUtil {
      * @return Array Result array
      */
     public static Array poisson(double mean, int n) {
-        Array a = Array.factory(DataType.INT, new int[]{n});
-        RandomDataGenerator rd = new RandomDataGenerator();
-        if (useSeed)
-            rd.reSeed(seed);
-        for (int i = 0; i < a.getSize(); i++) {
-            a.setDouble(i, rd.nextPoisson(mean));
-        }
-
-        return a;
+        checkMean(mean);
+        return fill(DataType.INT, new int[]{n}, POISSON, mean);
     }
     
     /**
@@ -217,19 +277,8 @@ public class RandomUtil {
      * @return Array Result array
      */
     public static Array poisson(double mean, List<Integer> shape) {
-        int[] ashape = new int[shape.size()];
-        for (int i = 0; i < shape.size(); i++) {
-            ashape[i] = shape.get(i);
-        }
-        Array a = Array.factory(DataType.INT, ashape);
-        RandomDataGenerator rd = new RandomDataGenerator();
-        if (useSeed)
-            rd.reSeed(seed);
-        for (int i = 0; i < a.getSize(); i++) {
-            a.setDouble(i, rd.nextPoisson(mean));
-        }
-
-        return a;
+        checkMean(mean);
+        return fill(DataType.INT, toShape(shape), POISSON, mean);
     }
         
 }
@@ -0,0 +1,423 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import java.util.Arrays;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+import org.meteothink.ndarray.Index;
+
+/**
+ * Axis reduction engine. The input array is walked once in memory order using
+ * the strides of its index, and the results are accumulated into primitive
+ * output buffers. NaN values are skipped the same way as the ArrayMath
+ * functions.
+ *
+ * @author Yaqiang Wang
+ */
+public class ReduceUtil {
+
+    // <editor-fold desc="Lanes">
+    /**
+     * Get the shape of an array reduced along an axis
+     *
+     * @param shape The array shape
+     * @param axis The axis
+     * @return Reduced shape
+     */
+    public static int[] reduceShape(int[] shape, int axis) {
+        int[] r = new int[shape.length - 1];
+        int idx = 0;
+        for (int i = 0; i < shape.length; i++) {
+            if (i != axis) {
+                r[idx] = shape[i];
+                idx += 1;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Get the number of elements of the dimensions after an axis
+     *
+     * @param shape The array shape
+     * @param axis The axis
+     * @return Inner size
+     */
+    public static int innerSize(int[] shape, int axis) {
+        int n = 1;
+        for (int i = axis + 1; i < shape.length; i++) {
+            n *= shape[i];
+        }
+        return n;
+    }
+
+    /**
+     * Get the stride of an axis into the backing storage of an array
+     *
+     * @param a The array
+     * @param axis The axis
+     * @return Axis stride
+     */
+    public static int axisStride(Array a, int axis) {
+        return a.getIndexPrivate().getStride()[axis];
+    }
+
+    /**
+     * Get the backing storage offsets of all elements of an array in canonical
+     * order.
+     *
+     * @param a The array
+     * @return Element offsets
+     */
+    public static int[] elementOffsets(Array a) {
+        Index index = a.getIndexPrivate();
+        return offsets(index.getShape(), index.getStride(), index.getOffset());
+    }
+
+    /**
+     * Get the backing storage offsets of the first element of each lane along
+     * an axis. The lanes are ordered as the canonical order of the array
+     * reduced along the axis, and element k of a lane is at offset + k *
+     * axisStride(a, axis).
+     *
+     * @param a The array
+     * @param axis The axis
+     * @return Lane offsets
+     */
+    public static int[] laneOffsets(Array a, int axis) {
+        Index index = a.getIndexPrivate();
+        return offsets(reduceShape(index.getShape(), axis),
+                reduceShape(index.getStride(), axis), index.getOffset());
+    }
+
+    private static int[] offsets(int[] shape, int[] stride, int offset) {
+        int rank = shape.length;
+        int n = (int) Index.computeSize(shape);
+        int[] r = new int[n];
+        if (n == 0) {
+            return r;
+        }
+        if (rank == 0) {
+            r[0] = offset;
+            return r;
+        }
+        int last = rank - 1;
+        int len = shape[last];
+        int st = stride[last];
+        int[] counter = new int[rank];
+        int base = offset;
+        int i = 0;
+        while (i < n) {
+            for (int j = 0, e = base; j < len; j++, e += st) {
+                r[i++] = e;
+            }
+            //Carry into the slower dimensions
+            int d = last - 1;
+            while (d >= 0) {
+                counter[d] += 1;
+                base += stride[d];
+                if (counter[d] < shape[d]) {
+                    break;
+                }
+                base -= stride[d] * shape[d];
+                counter[d] = 0;
+                d -= 1;
+            }
+        }
+        return r;
+    }
+
+    private static double[] doubleStorage(Array a) {
+        Object s = a.getStorage();
+        return s instanceof double[] ? (double[]) s : null;
+    }
+
+    private static double get(Array a, double[] d, int i) {
+        return d == null ? a.getDouble(i) : d[i];
+    }
+    // </editor-fold>
+    // <editor-fold desc="Reduction">
+
+    /**
+     * Compute sum value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Sum value array
+     */
+    public static Array sum(Array a, int axis) {
+        int[] shape = a.getShape();
+        int[] lanes = laneOffsets(a, axis);
+        double[] s = new double[lanes.length];
+        int[] count = new int[lanes.length];
+        accumulate(a, axis, lanes, s, count);
+        for (int i = 0; i < s.length; i++) {
+            if (count[i] == 0) {
+                s[i] = Double.NaN;
+            }
+        }
+        return Array.factory(DataType.DOUBLE, reduceShape(shape, axis), s);
+    }
+
+    /**
+     * Compute mean value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Mean value array
+     */
+    public static Array mean(Array a, int axis) {
+        int[] shape = a.getShape();
+        int[] lanes = laneOffsets(a, axis);
+        double[] s = new double[lanes.length];
+        int[] count = new int[lanes.length];
+        accumulate(a, axis, lanes, s, count);
+        for (int i = 0; i < s.length; i++) {
+            s[i] = count[i] == 0 ? Double.NaN : s[i] / count[i];
+        }
+        return Array.factory(DataType.DOUBLE, reduceShape(shape, axis), s);
+    }
+
+    /**
+     * Compute variance value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Variance value array
+     */
+    public static Array var(Array a, int axis) {
+        int[] shape = a.getShape();
+        return Array.factory(DataType.DOUBLE, reduceShape(shape, axis), variance(a, axis));
+    }
+
+    /**
+     * Compute standard deviation value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Standard deviation value array
+     */
+    public static Array std(Array a, int axis) {
+        int[] shape = a.getShape();
+        double[] s = variance(a, axis);
+        for (int i = 0; i < s.length; i++) {
+            s[i] = Math.sqrt(s[i]);
+        }
+        return Array.factory(DataType.DOUBLE, reduceShape(shape, axis), s);
+    }
+
+    /**
+     * Compute minimum value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Minimum value array
+     */
+    public static Array min(Array a, int axis) {
+        return extreme(a, axis, true);
+    }
+
+    /**
+     * Compute maximum value of an array along an axis (dimension)
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Maximum value array
+     */
+    public static Array max(Array a, int axis) {
+        return extreme(a, axis, false);
+    }
+
+    /**
+     * Get the indices of the minimum values along an axis.
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Indices
+     */
+    public static Array argMin(Array a, int axis) {
+        return argExtreme(a, axis, true);
+    }
+
+    /**
+     * Get the indices of the maximum values along an axis.
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Indices
+     */
+    public static Array argMax(Array a, int axis) {
+        return argExtreme(a, axis, false);
+    }
+
+    /**
+     * Test whether any array element along a given axis evaluates to True.
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Boolean array
+     */
+    public static Array any(Array a, int axis) {
+        return logical(a, axis, true);
+    }
+
+    /**
+     * Test whether all array element along a given axis evaluates to True.
+     *
+     * @param a Array a
+     * @param axis Axis
+     * @return Boolean array
+     */
+    public static Array all(Array a, int axis) {
+        return logical(a, axis, false);
+    }
+
+    /**
+     * Accumulate the sum and the valid (not NaN) value count of each lane.
+     */
+    private static void accumulate(Array a, int axis, int[] lanes, double[] s, int[] count) {
+        double[] d = doubleStorage(a);
+        int[] shape = a.getShape();
+        int n = shape[axis];
+        int ni = innerSize(shape, axis);
+        int sk = axisStride(a, axis);
+        double v;
+        for (int base = 0; base < lanes.length; base += ni) {
+            int end = base + ni;
+            for (int k = 0, koff = 0; k < n; k++, koff += sk) {
+                for (int j = base; j < end; j++) {
+                    v = get(a, d, lanes[j] + koff);
+                    if (!Double.isNaN(v)) {
+                        s[j] += v;
+                        count[j] += 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Population variance of each lane, computed with a mean pass followed by
+     * a squared deviation pass.
+     */
+    private static double[] variance(Array a, int axis) {
+        int[] lanes = laneOffsets(a, axis);
+        double[] mean = new double[lanes.length];
+        int[] count = new int[lanes.length];
+        accumulate(a, axis, lanes, mean, count);
+        for (int i = 0; i < mean.length; i++) {
+            mean[i] = count[i] == 0 ? Double.NaN : mean[i] / count[i];
+        }
+
+        double[] d = doubleStorage(a);
+        int[] shape = a.getShape();
+        int n = shape[axis];
+        int ni = innerSize(shape, axis);
+        int sk = axisStride(a, axis);
+        double[] s = new double[lanes.length];
+        double v;
+        for (int base = 0; base < lanes.length; base += ni) {
+            int end = base + ni;
+            for (int k = 0, koff = 0; k < n; k++, koff += sk) {
+                for (int j = base; j < end; j++) {
+                    v = get(a, d, lanes[j] + koff);
+                    if (!Double.isNaN(v)) {
+                        v -= mean[j];
+                        s[j] += v * v;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < s.length; i++) {
+            s[i] = count[i] == 0 ? Double.NaN : s[i] / count[i];
+        }
+        return s;
+    }
+
+    private static Array extreme(Array a, int axis, boolean isMin) {
+        int[] shape = a.getShape();
+        int[] lanes = laneOffsets(a, axis);
+        double[] d = doubleStorage(a);
+        int n = shape[axis];
+        int ni = innerSize(shape, axis);
+        int sk = axisStride(a, axis);
+        double[] r = new double[lanes.length];
+        Arrays.fill(r, Double.NaN);
+        double v;
+        for (int base = 0; base < lanes.length; base += ni) {
+            int end = base + ni;
+            for (int k = 0, koff = 0; k < n; k++, koff += sk) {
+                for (int j = base; j < end; j++) {
+                    v = get(a, d, lanes[j] + koff);
+                    if (!Double.isNaN(v)) {
+                        //NaN compares false, so the first valid value always replaces it
+                        if (isMin) {
+                            if (!(v >= r[j])) {
+                                r[j] = v;
+                            }
+                        } else if (!(v <= r[j])) {
+                            r[j] = v;
+                        }
+                    }
+                }
+            }
+        }
+        return Array.factory(DataType.DOUBLE, reduceShape(shape, axis), r);
+    }
+
+    private static Array argExtreme(Array a, int axis, boolean isMin) {
+        int[] shape = a.getShape();
+        int[] lanes = laneOffsets(a, axis);
+        double[] d = doubleStorage(a);
+        int n = shape[axis];
+        int ni = innerSize(shape, axis);
+        int sk = axisStride(a, axis);
+        double[] best = new double[lanes.length];
+        Arrays.fill(best, Double.NaN);
+        int[] r = new int[lanes.length];
+        double v;
+        for (int base = 0; base < lanes.length; base += ni) {
+            int end = base + ni;
+            for (int k = 0, koff = 0; k < n; k++, koff += sk) {
+                for (int j = base; j < end; j++) {
+                    v = get(a, d, lanes[j] + koff);
+                    if (!Double.isNaN(v)) {
+                        if (Double.isNaN(best[j]) || (isMin ? v < best[j] : v > best[j])) {
+                            best[j] = v;
+                            r[j] = k;
+                        }
+                    }
+                }
+            }
+        }
+        return Array.factory(DataType.INT, reduceShape(shape, axis), r);
+    }
+
+    private static Array logical(Array a, int axis, boolean isAny) {
+        int[] shape = a.getShape();
+        int[] lanes = laneOffsets(a, axis);
+        int n = shape[axis];
+        int ni = innerSize(shape, axis);
+        int sk = axisStride(a, axis);
+        boolean[] r = new boolean[lanes.length];
+        if (!isAny) {
+            Arrays.fill(r, true);
+        }
+        for (int base = 0; base < lanes.length; base += ni) {
+            int end = base + ni;
+            for (int k = 0, koff = 0; k < n; k++, koff += sk) {
+                for (int j = base; j < end; j++) {
+                    if (a.getBoolean(lanes[j] + koff) == isAny) {
+                        r[j] = isAny;
+                    }
+                }
+            }
+        }
+        return Array.factory(DataType.BOOLEAN, reduceShape(shape, axis), r);
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,256 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Rolling (moving) window statistics along an axis. Each lane is scanned once
+ * with the window statistic updated as values enter and leave the window:
+ * compensated running sums for sum and mean, Welford updates for variance and
+ * standard deviation, and monotonic deques for minimum and maximum. NaN
+ * values are skipped and not counted, and windows with fewer valid values
+ * than the minimum periods give NaN. Lanes are processed in parallel.
+ * <p>
+ * The window of element i is [i - window + 1, i], or [i - window / 2, i +
+ * (window - 1) / 2] if centered, clipped to the lane.
+ *
+ * @author Yaqiang Wang
+ */
+public class RollingUtil {
+
+    /**
+     * Rolling window statistic
+     */
+    public static enum Statistic {
+        SUM, MEAN, VAR, STD, MIN, MAX, COUNT
+    }
+
+    /**
+     * Compute a rolling window statistic of an array along an axis
+     *
+     * @param a The array
+     * @param stat The statistic name - sum, mean, var, std, min, max or count
+     * @param window Size of the moving window
+     * @param axis The axis
+     * @param center Center the window on the elements or not
+     * @param minPeriods Minimum number of valid values in a window
+     * @return Result array - same shape as the array, var and std with
+     * delta degrees of freedom 1 (sample variance)
+     */
+    public static Array rolling(Array a, String stat, int window, int axis, boolean center, int minPeriods) {
+        return rolling(a, stat, window, axis, center, minPeriods, 1);
+    }
+
+    /**
+     * Compute a rolling window statistic of an array along an axis
+     *
+     * @param a The array
+     * @param stat The statistic name - sum, mean, var, std, min, max or count
+     * @param window Size of the moving window
+     * @param axis The axis
+     * @param center Center the window on the elements or not
+     * @param minPeriods Minimum number of valid values in a window
+     * @param ddof Delta degrees of freedom of variance and standard deviation
+     * @return Result array - same shape as the array
+     */
+    public static Array rolling(Array a, String stat, int window, int axis, boolean center, int minPeriods,
+            int ddof) {
+        return rolling(a, Statistic.valueOf(stat.toUpperCase()), window, axis, center, minPeriods, ddof);
+    }
+
+    /**
+     * Compute a rolling window statistic of an array along an axis
+     *
+     * @param a The array
+     * @param stat The statistic
+     * @param window Size of the moving window
+     * @param axis The axis
+     * @param center Center the window on the elements or not
+     * @param minPeriods Minimum number of valid values in a window
+     * @param ddof Delta degrees of freedom of variance and standard deviation
+     * @return Result array - same shape as the array
+     */
+    public static Array rolling(final Array a, final Statistic stat, final int window, int axis,
+            boolean center, int minPeriods, final int ddof) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window size must be positive");
+        }
+        int[] shape = a.getShape();
+        final int len = shape[axis];
+        final int inner = ReduceUtil.innerSize(shape, axis);
+        final int[] lanes = ReduceUtil.laneOffsets(a, axis);
+        final int stride = ReduceUtil.axisStride(a, axis);
+        final int offset = center ? (window - 1) / 2 : 0;
+        final int minCount = Math.max(minPeriods, stat == Statistic.COUNT ? 0 : 1);
+        Object s = a.getStorage();
+        final double[] d = s instanceof double[] ? (double[]) s : null;
+        final double[] r = new double[(int) a.getSize()];
+        ParallelUtil.forRange(lanes.length, Math.max(1, ParallelUtil.getThreshold() / Math.max(1, len)),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] v = new double[len];
+                double[] out = new double[len];
+                int[] deque = stat == Statistic.MIN || stat == Statistic.MAX ? new int[len] : null;
+                for (int l = from; l < to; l++) {
+                    for (int k = 0, o = lanes[l]; k < len; k++, o += stride) {
+                        v[k] = d == null ? a.getDouble(o) : d[o];
+                    }
+                    switch (stat) {
+                        case MIN:
+                        case MAX:
+                            extreme(v, out, len, window, offset, minCount, stat == Statistic.MAX, deque);
+                            break;
+                        case VAR:
+                        case STD:
+                            variance(v, out, len, window, offset, minCount, ddof, stat == Statistic.STD);
+                            break;
+                        default:
+                            sum(v, out, len, window, offset, minCount, stat);
+                            break;
+                    }
+                    int ro = (l / inner) * len * inner + l % inner;
+                    for (int k = 0; k < len; k++, ro += inner) {
+                        r[ro] = out[k];
+                    }
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, shape, r);
+    }
+
+    /**
+     * Rolling sum, mean and count with a compensated running sum
+     */
+    private static void sum(double[] v, double[] out, int len, int window, int offset, int minCount,
+            Statistic stat) {
+        double sum = 0, c = 0;
+        int n = 0;
+        int hi = 0, lo = 0;
+        for (int i = 0; i < len; i++) {
+            int end = Math.min(i + offset, len - 1);
+            int start = i + offset - window + 1;
+            for (; hi <= end; hi++) {
+                double x = v[hi];
+                if (!Double.isNaN(x)) {
+                    double y = x - c;
+                    double t = sum + y;
+                    c = (t - sum) - y;
+                    sum = t;
+                    n += 1;
+                }
+            }
+            for (; lo < start; lo++) {
+                double x = v[lo];
+                if (!Double.isNaN(x)) {
+                    double y = -x - c;
+                    double t = sum + y;
+                    c = (t - sum) - y;
+                    sum = t;
+                    n -= 1;
+                }
+            }
+            if (n == 0) {
+                sum = 0;
+                c = 0;
+            }
+            if (n < minCount) {
+                out[i] = Double.NaN;
+            } else {
+                switch (stat) {
+                    case COUNT:
+                        out[i] = n;
+                        break;
+                    case MEAN:
+                        out[i] = sum / n;
+                        break;
+                    default:
+                        out[i] = sum;
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rolling variance or standard deviation with Welford updates
+     */
+    private static void variance(double[] v, double[] out, int len, int window, int offset, int minCount,
+            int ddof, boolean std) {
+        double mean = 0, m2 = 0;
+        int n = 0;
+        int hi = 0, lo = 0;
+        for (int i = 0; i < len; i++) {
+            int end = Math.min(i + offset, len - 1);
+            int start = i + offset - window + 1;
+            for (; hi <= end; hi++) {
+                double x = v[hi];
+                if (!Double.isNaN(x)) {
+                    n += 1;
+                    double dx = x - mean;
+                    mean += dx / n;
+                    m2 += dx * (x - mean);
+                }
+            }
+            for (; lo < start; lo++) {
+                double x = v[lo];
+                if (!Double.isNaN(x)) {
+                    n -= 1;
+                    if (n == 0) {
+                        mean = 0;
+                        m2 = 0;
+                    } else {
+                        double dx = x - mean;
+                        mean -= dx / n;
+                        m2 -= dx * (x - mean);
+                    }
+                }
+            }
+            if (n < minCount || n <= ddof) {
+                out[i] = Double.NaN;
+            } else {
+                double var = Math.max(m2, 0) / (n - ddof);
+                out[i] = std ? Math.sqrt(var) : var;
+            }
+        }
+    }
+
+    /**
+     * Rolling minimum or maximum with a monotonic deque of indices
+     */
+    private static void extreme(double[] v, double[] out, int len, int window, int offset, int minCount,
+            boolean max, int[] deque) {
+        int head = 0, tail = 0;
+        int n = 0;
+        int hi = 0, lo = 0;
+        for (int i = 0; i < len; i++) {
+            int end = Math.min(i + offset, len - 1);
+            int start = i + offset - window + 1;
+            for (; hi <= end; hi++) {
+                double x = v[hi];
+                if (!Double.isNaN(x)) {
+                    while (tail > head && (max ? v[deque[tail - 1]] <= x : v[deque[tail - 1]] >= x)) {
+                        tail -= 1;
+                    }
+                    deque[tail++] = hi;
+                    n += 1;
+                }
+            }
+            for (; lo < start; lo++) {
+                if (!Double.isNaN(v[lo])) {
+                    n -= 1;
+                }
+            }
+            while (tail > head && deque[head] < start) {
+                head += 1;
+            }
+            out[i] = n < minCount || n == 0 ? Double.NaN : v[deque[head]];
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import java.util.Arrays;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+import org.meteothink.ndarray.IndexIterator;
+
+/**
+ * Order statistics engine. The valid (not NaN) values of an array or of each
+ * lane along an axis are copied into a primitive scratch buffer, and only the
+ * needed ranks are placed with an introspective selection (quickselect with a
+ * median of three pivot, falling back to a sort if the partitions do not
+ * shrink), so no full sort is done. The lanes along an axis are processed in
+ * parallel with one scratch buffer per chunk.
+ *
+ * @author Yaqiang Wang
+ */
+public class SelectUtil {
+
+    private static final int INSERTION_SIZE = 16;
+
+    // <editor-fold desc="Selection">
+    /**
+     * Partially sort a range of an array so that the element at rank k is in
+     * its sorted position, the elements before it are not greater and the
+     * elements after it are not less.
+     *
+     * @param v The array - without NaN
+     * @param from The first index of the range, inclusive
+     * @param to The last index of the range, exclusive
+     * @param k The rank index
+     */
+    public static void select(double[] v, int from, int to, int k) {
+        int lo = from;
+        int hi = to - 1;
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+        while (hi > lo) {
+            if (hi - lo < INSERTION_SIZE) {
+                insertionSort(v, lo, hi);
+                return;
+            }
+            if (depth-- == 0) {
+                Arrays.sort(v, lo, hi + 1);
+                return;
+            }
+            int p = partition(v, lo, hi);
+            if (k == p) {
+                return;
+            } else if (k < p) {
+                hi = p - 1;
+            } else {
+                lo = p + 1;
+            }
+        }
+    }
+
+    /**
+     * Partially sort a range of an array so that the elements at several ranks
+     * are all in their sorted positions.
+     *
+     * @param v The array - without NaN
+     * @param from The first index of the range, inclusive
+     * @param to The last index of the range, exclusive
+     * @param ks The rank indices - ascending
+     * @param kFrom The first rank index to use, inclusive
+     * @param kTo The last rank index to use, exclusive
+     */
+    public static void select(double[] v, int from, int to, int[] ks, int kFrom, int kTo) {
+        while (kFrom < kTo && from < to) {
+            int m = (kFrom + kTo) >>> 1;
+            int k = ks[m];
+            select(v, from, to, k);
+            //Ranks equal to k are done, the others are in one of the two sides
+            int lo = m;
+            while (lo > kFrom && ks[lo - 1] == k) {
+                lo -= 1;
+            }
+            int hi = m + 1;
+            while (hi < kTo && ks[hi] == k) {
+                hi += 1;
+            }
+            select(v, from, k, ks, kFrom, lo);
+            from = k + 1;
+            kFrom = hi;
+        }
+    }
+
+    private static int partition(double[] v, int lo, int hi) {
+        int mid = (lo + hi) >>> 1;
+        if (v[mid] < v[lo]) {
+            swap(v, lo, mid);
+        }
+        if (v[hi] < v[lo]) {
+            swap(v, lo, hi);
+        }
+        if (v[hi] < v[mid]) {
+            swap(v, mid, hi);
+        }
+        //v[lo] and v[hi - 1] are the sentinels of the scans
+        double pivot = v[mid];
+        swap(v, mid, hi - 1);
+        int i = lo;
+        int j = hi - 1;
+        while (true) {
+            while (v[++i] < pivot) {
+            }
+            while (v[--j] > pivot) {
+            }
+            if (i >= j) {
+                break;
+            }
+            swap(v, i, j);
+        }
+        swap(v, i, hi - 1);
+        return i;
+    }
+
+    private static void insertionSort(double[] v, int lo, int hi) {
+        for (int i = lo + 1; i <= hi; i++) {
+            double x = v[i];
+            int j = i - 1;
+            while (j >= lo && v[j] > x) {
+                v[j + 1] = v[j];
+                j -= 1;
+            }
+            v[j + 1] = x;
+        }
+    }
+
+    private static void swap(double[] v, int i, int j) {
+        double t = v[i];
+        v[i] = v[j];
+        v[j] = t;
+    }
+    // </editor-fold>
+    // <editor-fold desc="Estimators">
+
+    /**
+     * Compute a quartile of the first n values of a buffer. The buffer is
+     * reordered.
+     *
+     * @param v The buffer - without NaN
+     * @param n Number of values
+     * @param aNum Quartile index - 0 (minimum) to 4 (maximum), 2 is median
+     * @return Quartile value, NaN if there are no values, or less than 4
+     * values for the first and third quartiles
+     */
+    public static double quartile(double[] v, int n, int aNum) {
+        if (aNum < 0 || aNum > 4) {
+            throw new IllegalArgumentException("The quartile index must be 0 to 4");
+        }
+        if (n == 0 || (n < 4 && (aNum == 1 || aNum == 3))) {
+            return Double.NaN;
+        }
+        int m;
+        switch (aNum) {
+            case 0:
+                select(v, 0, n, 0);
+                return v[0];
+            case 1:
+                m = (n + 1) / 4;
+                return interpolate(v, n, m - 1, (n + 1) % 4 == 0 ? 0 : 0.75);
+            case 2:
+                if (n % 2 == 0) {
+                    m = n / 2;
+                    select(v, 0, n, m);
+                    select(v, 0, m, m - 1);
+                    return (v[m] + v[m - 1]) / 2.0;
+                } else {
+                    select(v, 0, n, n / 2);
+                    return v[n / 2];
+                }
+            case 3:
+                m = (n + 1) * 3 / 4;
+                return interpolate(v, n, m - 1, (n + 1) % 4 == 0 ? 0 : 0.25);
+            default:
+                select(v, 0, n, n - 1);
+                return v[n - 1];
+        }
+    }
+
+    /**
+     * Value at rank k plus a fraction of the difference to the value at rank
+     * k + 1.
+     */
+    private static double interpolate(double[] v, int n, int k, double dif) {
+        select(v, 0, n, k);
+        if (dif == 0) {
+            return v[k];
+        }
+        select(v, k + 1, n, k + 1);
+        return v[k] + dif * (v[k + 1] - v[k]);
+    }
+
+    /**
+     * Compute a percentile of the first n values of a buffer, with the same
+     * estimation as the default of Apache Commons Math Percentile. The buffer
+     * is reordered.
+     *
+     * @param v The buffer - without NaN
+     * @param n Number of values
+     * @param p The percentile - (0, 100]
+     * @return Percentile value
+     */
+    public static double percentile(double[] v, int n, double p) {
+        double[] r = new double[1];
+        percentile(v, n, new double[]{p}, new int[2], r, 0, 1);
+        return r[0];
+    }
+
+    /**
+     * Compute several percentiles of the first n values of a buffer. The ranks
+     * of all the percentiles are selected in one pass.
+     *
+     * @param v The buffer - without NaN
+     * @param n Number of values
+     * @param p The percentiles - (0, 100]
+     * @param ks Rank buffer - at least twice the number of percentiles
+     * @param r Result array
+     * @param off Offset of the first result
+     * @param stride Stride of the results
+     */
+    private static void percentile(double[] v, int n, double[] p, int[] ks, double[] r, int off, int stride) {
+        int np = p.length;
+        if (n == 0) {
+            for (int i = 0; i < np; i++) {
+                r[off + i * stride] = Double.NaN;
+            }
+            return;
+        }
+        for (int i = 0; i < np; i++) {
+            double pos = position(p[i], n);
+            int k = pos < 1 ? 0 : pos >= n ? n - 1 : (int) Math.floor(pos) - 1;
+            ks[2 * i] = k;
+            ks[2 * i + 1] = Math.min(k + 1, n - 1);
+        }
+        Arrays.sort(ks, 0, 2 * np);
+        select(v, 0, n, ks, 0, 2 * np);
+        for (int i = 0; i < np; i++) {
+            double pos = position(p[i], n);
+            double q;
+            if (n == 1 || pos < 1) {
+                q = v[0];
+            } else if (pos >= n) {
+                q = v[n - 1];
+            } else {
+                double fpos = Math.floor(pos);
+                int k = (int) fpos;
+                double lower = v[k - 1];
+                double upper = v[k];
+                q = lower + (pos - fpos) * (upper - lower);
+            }
+            r[off + i * stride] = q;
+        }
+    }
+
+    private static double position(double p, int n) {
+        double q = p / 100d;
+        return q == 0 ? 0 : q == 1 ? n : q * (n + 1);
+    }
+
+    private static void checkPercentiles(double[] p) {
+        for (double v : p) {
+            if (!(v > 0 && v <= 100)) {
+                throw new IllegalArgumentException("Percentile " + v + " out of range (0, 100]");
+            }
+        }
+    }
+    // </editor-fold>
+    // <editor-fold desc="Array">
+
+    /**
+     * Copy the valid values of an array into a new buffer
+     *
+     * @param a The array
+     * @param count Output - number of valid values
+     * @return Buffer with the valid values, its length may be larger than the
+     * number of values
+     */
+    private static double[] validValues(Array a, int[] count) {
+        double[] v = new double[(int) a.getSize()];
+        int n = 0;
+        IndexIterator ii = a.getIndexIterator();
+        while (ii.hasNext()) {
+            double x = ii.getDoubleNext();
+            if (!Double.isNaN(x)) {
+                v[n++] = x;
+            }
+        }
+        count[0] = n;
+        return v;
+    }
+
+    /**
+     * Compute a quartile of the valid values of an array. Arrays with less
+     * than 4 valid values give NaN.
+     *
+     * @param a The array
+     * @param aNum Quartile index - 0 (minimum) to 4 (maximum), 2 is median
+     * @return Quartile value
+     */
+    public static double quartile(Array a, int aNum) {
+        int[] n = new int[1];
+        double[] v = validValues(a, n);
+        return n[0] <= 3 ? Double.NaN : quartile(v, n[0], aNum);
+    }
+
+    /**
+     * Compute several percentiles of the valid values of an array
+     *
+     * @param a The array
+     * @param p The percentiles - (0, 100]
+     * @return Percentile values
+     */
+    public static double[] percentile(Array a, double[] p) {
+        checkPercentiles(p);
+        int[] n = new int[1];
+        double[] v = validValues(a, n);
+        double[] r = new double[p.length];
+        percentile(v, n[0], p, new int[2 * p.length], r, 0, 1);
+        return r;
+    }
+
+    /**
+     * Compute a quartile of the valid values along an axis. Lanes with less
+     * than 4 valid values give NaN.
+     *
+     * @param a The array
+     * @param axis The axis
+     * @param aNum Quartile index - 0 (minimum) to 4 (maximum), 2 is median
+     * @return Quartile value array
+     */
+    public static Array quartile(final Array a, int axis, final int aNum) {
+        int[] shape = a.getShape();
+        final int len = shape[axis];
+        final int[] lanes = ReduceUtil.laneOffsets(a, axis);
+        final int stride = ReduceUtil.axisStride(a, axis);
+        Object s = a.getStorage();
+        final double[] d = s instanceof double[] ? (double[]) s : null;
+        final double[] r = new double[lanes.length];
+        ParallelUtil.forRange(lanes.length, Math.max(1, ParallelUtil.getThreshold() / Math.max(1, len)),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] v = new double[len];
+                for (int l = from; l < to; l++) {
+                    int n = lane(a, d, lanes[l], stride, len, v);
+                    r[l] = n <= 3 ? Double.NaN : quartile(v, n, aNum);
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, ReduceUtil.reduceShape(shape, axis), r);
+    }
+
+    /**
+     * Compute several percentiles of the valid values along an axis. The
+     * percentiles of a lane are computed in one selection pass.
+     *
+     * @param a The array
+     * @param p The percentiles - (0, 100]
+     * @param axis The axis
+     * @return Percentile value array - the first dimension is the percentiles
+     * and the others are the array dimensions without the axis
+     */
+    public static Array percentile(final Array a, final double[] p, int axis) {
+        checkPercentiles(p);
+        int[] shape = a.getShape();
+        final int len = shape[axis];
+        final int[] lanes = ReduceUtil.laneOffsets(a, axis);
+        final int stride = ReduceUtil.axisStride(a, axis);
+        Object s = a.getStorage();
+        final double[] d = s instanceof double[] ? (double[]) s : null;
+        final int nl = lanes.length;
+        final double[] r = new double[p.length * nl];
+        ParallelUtil.forRange(nl, Math.max(1, ParallelUtil.getThreshold() / Math.max(1, len)),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] v = new double[len];
+                int[] ks = new int[2 * p.length];
+                for (int l = from; l < to; l++) {
+                    int n = lane(a, d, lanes[l], stride, len, v);
+                    percentile(v, n, p, ks, r, l, nl);
+                }
+            }
+        });
+
+        int[] rshape = ReduceUtil.reduceShape(shape, axis);
+        int[] pshape = new int[rshape.length + 1];
+        pshape[0] = p.length;
+        System.arraycopy(rshape, 0, pshape, 1, rshape.length);
+        return Array.factory(DataType.DOUBLE, pshape, r);
+    }
+
+    /**
+     * Copy the valid values of a lane into a buffer
+     *
+     * @return Number of valid values
+     */
+    private static int lane(Array a, double[] d, int offset, int stride, int len, double[] v) {
+        int n = 0;
+        for (int k = 0, o = offset; k < len; k++, o += stride) {
+            double x = d == null ? a.getDouble(o) : d[o];
+            if (!Double.isNaN(x)) {
+                v[n++] = x;
+            }
+        }
+        return n;
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,440 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import java.util.Arrays;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Sorting of numeric arrays on primitive storage. The flattened array is
+ * sorted in chunks in parallel and the sorted chunks are merged, and lanes
+ * along an axis are sorted in parallel with scratch buffers reused in each
+ * chunk of lanes. Argsort sorts an int permutation with a stable merge sort
+ * over long keys which have the same order as the values, so equal values keep
+ * their original order. NaN values are sorted to the end.
+ *
+ * @author Yaqiang Wang
+ */
+public class SortUtil {
+
+    /**
+     * Whether an array data type can be sorted by this class
+     *
+     * @param dataType The data type
+     * @return Is sortable or not
+     */
+    public static boolean isSortable(DataType dataType) {
+        return dataType.isIntegral() || dataType.isFloatingPoint();
+    }
+
+    // <editor-fold desc="Sort">
+    /**
+     * Sort the flattened array
+     *
+     * @param a The array
+     * @return Sorted 1-D array
+     */
+    public static Array sort(Array a) {
+        DataType dataType = a.getDataType();
+        Object storage = a.copyTo1DJavaArray();
+        switch (dataType) {
+            case DOUBLE:
+                sort((double[]) storage);
+                break;
+            case FLOAT:
+                sort((float[]) storage);
+                break;
+            case INT:
+                Arrays.sort((int[]) storage);
+                break;
+            case LONG:
+                Arrays.sort((long[]) storage);
+                break;
+            case SHORT:
+                Arrays.sort((short[]) storage);
+                break;
+            case BYTE:
+                Arrays.sort((byte[]) storage);
+                break;
+            default:
+                throw new IllegalArgumentException("Data type not supported: " + dataType);
+        }
+        return Array.factory(dataType, new int[]{(int) a.getSize()}, storage);
+    }
+
+    /**
+     * Sort an array along an axis
+     *
+     * @param a The array
+     * @param axis The axis
+     * @return Sorted array
+     */
+    public static Array sort(final Array a, int axis) {
+        final DataType dataType = a.getDataType();
+        if (!isSortable(dataType)) {
+            throw new IllegalArgumentException("Data type not supported: " + dataType);
+        }
+        int[] shape = a.getShape();
+        final Array r = Array.factory(dataType, shape);
+        final int len = shape[axis];
+        final int[] lanes = ReduceUtil.laneOffsets(a, axis);
+        final int[] rLanes = ReduceUtil.laneOffsets(r, axis);
+        final int stride = ReduceUtil.axisStride(a, axis);
+        final int rStride = ReduceUtil.axisStride(r, axis);
+        ParallelUtil.forRange(lanes.length, minLanes(len), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                if (dataType == DataType.LONG) {
+                    //Long values may not be exact as double
+                    long[] v = new long[len];
+                    for (int l = from; l < to; l++) {
+                        for (int k = 0, o = lanes[l]; k < len; k++, o += stride) {
+                            v[k] = a.getLong(o);
+                        }
+                        Arrays.sort(v);
+                        for (int k = 0, o = rLanes[l]; k < len; k++, o += rStride) {
+                            r.setLong(o, v[k]);
+                        }
+                    }
+                } else {
+                    double[] v = new double[len];
+                    for (int l = from; l < to; l++) {
+                        for (int k = 0, o = lanes[l]; k < len; k++, o += stride) {
+                            v[k] = a.getDouble(o);
+                        }
+                        Arrays.sort(v);
+                        for (int k = 0, o = rLanes[l]; k < len; k++, o += rStride) {
+                            r.setDouble(o, v[k]);
+                        }
+                    }
+                }
+            }
+        });
+
+        return r;
+    }
+
+    /**
+     * Sort an array in parallel chunks and merge the chunks
+     *
+     * @param v The array
+     */
+    public static void sort(final double[] v) {
+        final int[] bounds = chunks(v.length);
+        if (bounds == null) {
+            Arrays.sort(v);
+            return;
+        }
+        final int nc = bounds.length - 1;
+        ParallelUtil.forRange(nc, 1, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int c = from; c < to; c++) {
+                    Arrays.sort(v, bounds[c], bounds[c + 1]);
+                }
+            }
+        });
+        double[] src = v;
+        double[] dst = new double[v.length];
+        for (int w = 1; w < nc; w *= 2) {
+            final double[] s = src;
+            final double[] d = dst;
+            final int width = w;
+            ParallelUtil.forRange((nc + 2 * w - 1) / (2 * w), 1, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int g = from; g < to; g++) {
+                        int lo = bounds[g * 2 * width];
+                        int mid = bounds[Math.min(g * 2 * width + width, nc)];
+                        int hi = bounds[Math.min(g * 2 * width + 2 * width, nc)];
+                        int i = lo, j = mid, k = lo;
+                        while (i < mid && j < hi) {
+                            d[k++] = Double.compare(s[j], s[i]) < 0 ? s[j++] : s[i++];
+                        }
+                        System.arraycopy(s, i, d, k, mid - i);
+                        System.arraycopy(s, j, d, k + mid - i, hi - j);
+                    }
+                }
+            });
+            src = d;
+            dst = s;
+        }
+        if (src != v) {
+            System.arraycopy(src, 0, v, 0, v.length);
+        }
+    }
+
+    /**
+     * Sort an array in parallel chunks and merge the chunks
+     *
+     * @param v The array
+     */
+    public static void sort(final float[] v) {
+        final int[] bounds = chunks(v.length);
+        if (bounds == null) {
+            Arrays.sort(v);
+            return;
+        }
+        final int nc = bounds.length - 1;
+        ParallelUtil.forRange(nc, 1, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int c = from; c < to; c++) {
+                    Arrays.sort(v, bounds[c], bounds[c + 1]);
+                }
+            }
+        });
+        float[] src = v;
+        float[] dst = new float[v.length];
+        for (int w = 1; w < nc; w *= 2) {
+            final float[] s = src;
+            final float[] d = dst;
+            final int width = w;
+            ParallelUtil.forRange((nc + 2 * w - 1) / (2 * w), 1, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int g = from; g < to; g++) {
+                        int lo = bounds[g * 2 * width];
+                        int mid = bounds[Math.min(g * 2 * width + width, nc)];
+                        int hi = bounds[Math.min(g * 2 * width + 2 * width, nc)];
+                        int i = lo, j = mid, k = lo;
+                        while (i < mid && j < hi) {
+                            d[k++] = Float.compare(s[j], s[i]) < 0 ? s[j++] : s[i++];
+                        }
+                        System.arraycopy(s, i, d, k, mid - i);
+                        System.arraycopy(s, j, d, k + mid - i, hi - j);
+                    }
+                }
+            });
+            src = d;
+            dst = s;
+        }
+        if (src != v) {
+            System.arraycopy(src, 0, v, 0, v.length);
+        }
+    }
+    // </editor-fold>
+    // <editor-fold desc="Argsort">
+
+    /**
+     * Get the indices that sort the flattened array
+     *
+     * @param a The array
+     * @return Indices of the sorted array - 1-D
+     */
+    public static Array argSort(Array a) {
+        DataType dataType = a.getDataType();
+        if (!isSortable(dataType)) {
+            throw new IllegalArgumentException("Data type not supported: " + dataType);
+        }
+        final long[] keys = keys(a);
+        final int n = keys.length;
+        final int[] perm = new int[n];
+        final int[] tmp = new int[n];
+        final int[] bounds = chunks(n);
+        if (bounds == null) {
+            for (int i = 0; i < n; i++) {
+                perm[i] = i;
+            }
+            mergeSort(keys, perm, tmp, 0, n);
+        } else {
+            final int nc = bounds.length - 1;
+            ParallelUtil.forRange(nc, 1, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int c = from; c < to; c++) {
+                        for (int i = bounds[c]; i < bounds[c + 1]; i++) {
+                            perm[i] = i;
+                        }
+                        mergeSort(keys, perm, tmp, bounds[c], bounds[c + 1]);
+                    }
+                }
+            });
+            int[] src = perm;
+            int[] dst = tmp;
+            for (int w = 1; w < nc; w *= 2) {
+                final int[] s = src;
+                final int[] d = dst;
+                final int width = w;
+                ParallelUtil.forRange((nc + 2 * w - 1) / (2 * w), 1, new ParallelUtil.RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int g = from; g < to; g++) {
+                            int lo = bounds[g * 2 * width];
+                            int mid = bounds[Math.min(g * 2 * width + width, nc)];
+                            int hi = bounds[Math.min(g * 2 * width + 2 * width, nc)];
+                            merge(keys, s, d, lo, mid, hi);
+                        }
+                    }
+                });
+                src = d;
+                dst = s;
+            }
+            if (src != perm) {
+                System.arraycopy(src, 0, perm, 0, n);
+            }
+        }
+
+        return Array.factory(DataType.INT, new int[]{n}, perm);
+    }
+
+    /**
+     * Get the indices that sort an array along an axis
+     *
+     * @param a The array
+     * @param axis The axis
+     * @return Indices of the sorted array along the axis
+     */
+    public static Array argSort(final Array a, int axis) {
+        final DataType dataType = a.getDataType();
+        if (!isSortable(dataType)) {
+            throw new IllegalArgumentException("Data type not supported: " + dataType);
+        }
+        int[] shape = a.getShape();
+        final int[] r = new int[(int) a.getSize()];
+        final int len = shape[axis];
+        final int inner = ReduceUtil.innerSize(shape, axis);
+        final int[] lanes = ReduceUtil.laneOffsets(a, axis);
+        final int stride = ReduceUtil.axisStride(a, axis);
+        ParallelUtil.forRange(lanes.length, minLanes(len), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                long[] keys = new long[len];
+                int[] perm = new int[len];
+                int[] tmp = new int[len];
+                for (int l = from; l < to; l++) {
+                    for (int k = 0, o = lanes[l]; k < len; k++, o += stride) {
+                        keys[k] = key(a, dataType, o);
+                        perm[k] = k;
+                    }
+                    mergeSort(keys, perm, tmp, 0, len);
+                    int ro = (l / inner) * len * inner + l % inner;
+                    for (int k = 0; k < len; k++, ro += inner) {
+                        r[ro] = perm[k];
+                    }
+                }
+            }
+        });
+
+        return Array.factory(DataType.INT, shape, r);
+    }
+
+    /**
+     * Get the sort keys of the flattened array in canonical order
+     */
+    private static long[] keys(Array a) {
+        final DataType dataType = a.getDataType();
+        final Array src = a.getIndexPrivate().isFastIterator() ? a : a.copy();
+        final long[] keys = new long[(int) a.getSize()];
+        ParallelUtil.forRange(keys.length, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    keys[i] = key(src, dataType, i);
+                }
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Get the sort key of an element. The signed order of the keys is the
+     * order of the values, with NaN after all other values and -0.0 before
+     * 0.0, as Double.compare.
+     */
+    private static long key(Array a, DataType dataType, int i) {
+        switch (dataType) {
+            case DOUBLE:
+            case FLOAT:
+                long bits = Double.doubleToLongBits(a.getDouble(i));
+                return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+            default:
+                return a.getLong(i);
+        }
+    }
+
+    /**
+     * Stable merge sort of a range of a permutation by the keys
+     */
+    private static void mergeSort(long[] keys, int[] perm, int[] tmp, int from, int to) {
+        int n = to - from;
+        if (n < 2) {
+            return;
+        }
+        //Insertion sort of small runs
+        final int run = 32;
+        for (int lo = from; lo < to; lo += run) {
+            int hi = Math.min(lo + run, to);
+            for (int i = lo + 1; i < hi; i++) {
+                int p = perm[i];
+                long k = keys[p];
+                int j = i - 1;
+                while (j >= lo && keys[perm[j]] > k) {
+                    perm[j + 1] = perm[j];
+                    j -= 1;
+                }
+                perm[j + 1] = p;
+            }
+        }
+        int[] src = perm;
+        int[] dst = tmp;
+        for (int w = run; w < n; w *= 2) {
+            for (int lo = from; lo < to; lo += 2 * w) {
+                int mid = Math.min(lo + w, to);
+                int hi = Math.min(lo + 2 * w, to);
+                merge(keys, src, dst, lo, mid, hi);
+            }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != perm) {
+            System.arraycopy(src, from, perm, from, n);
+        }
+    }
+
+    /**
+     * Merge two sorted ranges of a permutation, taking the left one on equal
+     * keys
+     */
+    private static void merge(long[] keys, int[] s, int[] d, int lo, int mid, int hi) {
+        int i = lo, j = mid, k = lo;
+        if (i < mid && j < hi && keys[s[mid - 1]] <= keys[s[mid]]) {
+            System.arraycopy(s, lo, d, lo, hi - lo);
+            return;
+        }
+        while (i < mid && j < hi) {
+            d[k++] = keys[s[j]] < keys[s[i]] ? s[j++] : s[i++];
+        }
+        System.arraycopy(s, i, d, k, mid - i);
+        System.arraycopy(s, j, d, k + mid - i, hi - j);
+    }
+    // </editor-fold>
+
+    /**
+     * Split a length into chunks to sort in parallel
+     *
+     * @return Chunk bounds, null if not worth to run in parallel
+     */
+    private static int[] chunks(int n) {
+        int p = ParallelUtil.getParallelism();
+        int threshold = ParallelUtil.getThreshold();
+        if (p <= 1 || n < 2 * threshold) {
+            return null;
+        }
+        int nc = Math.min(p * 4, n / threshold);
+        int[] bounds = new int[nc + 1];
+        for (int c = 0; c <= nc; c++) {
+            bounds[c] = (int) ((long) n * c / nc);
+        }
+        return bounds;
+    }
+
+    private static int minLanes(int len) {
+        return Math.max(1, ParallelUtil.getThreshold() / Math.max(1, len));
+    }
+}
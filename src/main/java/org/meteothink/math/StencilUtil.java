@@ -0,0 +1,306 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Stencil (convolution) engine. A kernel of weights is applied on the planes
+ * of two axes of an array (the trailing two dimensions by default), reading
+ * the neighbours directly from the backing storage with the array strides.
+ * The zero weights of the kernel are dropped, and the other taps are applied
+ * in the row major order of the kernel. The rows of all the planes are
+ * processed in parallel.
+ *
+ * @author Yaqiang Wang
+ */
+public class StencilUtil {
+
+    /**
+     * Handling of the neighbours out of the grid
+     */
+    public static enum Edge {
+        /**
+         * Treat them as missing values
+         */
+        MISSING,
+        /**
+         * The result is NaN
+         */
+        NAN,
+        /**
+         * The result is the original value
+         */
+        KEEP
+    }
+
+    /**
+     * Handling of missing neighbours
+     */
+    public static enum Missing {
+        /**
+         * Skip them - the weights of the valid values are used if normalized,
+         * and the result is NaN if all values are missing
+         */
+        SKIP,
+        /**
+         * The result is NaN
+         */
+        PROPAGATE,
+        /**
+         * The result is the original value
+         */
+        KEEP
+    }
+
+    /**
+     * Stencil kernel
+     */
+    public static class Kernel {
+
+        private final int[] dy;
+        private final int[] dx;
+        private final double[] w;
+
+        /**
+         * Constructor
+         *
+         * @param weights The weights - rows x cols, row major
+         * @param rows Number of rows - odd
+         * @param cols Number of columns - odd
+         */
+        public Kernel(double[] weights, int rows, int cols) {
+            if (rows % 2 == 0 || cols % 2 == 0 || weights.length != rows * cols) {
+                throw new IllegalArgumentException("The kernel must have odd rows and columns");
+            }
+            int ry = rows / 2;
+            int rx = cols / 2;
+            List<int[]> taps = new ArrayList<>();
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    if (weights[i * cols + j] != 0) {
+                        taps.add(new int[]{i - ry, j - rx, i * cols + j});
+                    }
+                }
+            }
+            int n = taps.size();
+            this.dy = new int[n];
+            this.dx = new int[n];
+            this.w = new double[n];
+            for (int k = 0; k < n; k++) {
+                int[] t = taps.get(k);
+                dy[k] = t[0];
+                dx[k] = t[1];
+                w[k] = weights[t[2]];
+            }
+        }
+
+        /**
+         * Create a 1-D kernel along x
+         *
+         * @param weights The weights - odd length
+         * @return The kernel
+         */
+        public static Kernel x(double... weights) {
+            return new Kernel(weights, 1, weights.length);
+        }
+
+        /**
+         * Create a 1-D kernel along y
+         *
+         * @param weights The weights - odd length
+         * @return The kernel
+         */
+        public static Kernel y(double... weights) {
+            return new Kernel(weights, weights.length, 1);
+        }
+    }
+
+    /**
+     * Apply a kernel on the trailing two dimensions of an array. A 1-D array
+     * is a single row.
+     *
+     * @param a The array
+     * @param kernel The kernel
+     * @param edge Out of grid neighbours handling
+     * @param missing Missing neighbours handling
+     * @param missingValue Missing value besides NaN
+     * @param normalize Divide the result by the sum of the weights used
+     * @param dataType Result data type
+     * @return Result array
+     */
+    public static Array apply(Array a, Kernel kernel, Edge edge, Missing missing, double missingValue,
+            boolean normalize, DataType dataType) {
+        int rank = a.getRank();
+        return apply(a, kernel, rank - 2, rank - 1, edge, missing, missingValue, normalize, dataType);
+    }
+
+    /**
+     * Apply a kernel on the planes of two axes of an array
+     *
+     * @param a The array
+     * @param kernel The kernel
+     * @param yAxis The axis of the kernel rows, -1 for none
+     * @param xAxis The axis of the kernel columns
+     * @param edge Out of grid neighbours handling
+     * @param missing Missing neighbours handling
+     * @param missingValue Missing value besides NaN
+     * @param normalize Divide the result by the sum of the weights used
+     * @param dataType Result data type
+     * @return Result array
+     */
+    public static Array apply(Array a, Kernel kernel, int yAxis, int xAxis, Edge edge, Missing missing,
+            double missingValue, boolean normalize, DataType dataType) {
+        return apply(a, kernel, yAxis, xAxis, edge, missing, missingValue, true, normalize, dataType);
+    }
+
+    /**
+     * Apply a kernel on the planes of two axes of an array
+     *
+     * @param a The array
+     * @param kernel The kernel
+     * @param yAxis The axis of the kernel rows, -1 for none
+     * @param xAxis The axis of the kernel columns
+     * @param edge Out of grid neighbours handling
+     * @param missing Missing neighbours handling
+     * @param missingValue Missing value besides NaN
+     * @param nanMissing Whether NaN is a missing value - if not, NaN
+     * neighbours are summed and give NaN
+     * @param normalize Divide the result by the sum of the weights used
+     * @param dataType Result data type
+     * @return Result array
+     */
+    public static Array apply(final Array a, final Kernel kernel, int yAxis, int xAxis, final Edge edge,
+            final Missing missing, final double missingValue, final boolean nanMissing, final boolean normalize,
+            DataType dataType) {
+        int[] shape = a.getShape();
+        int rank = shape.length;
+        int[] stride = a.getIndexPrivate().getStride();
+        int[] rstride = new int[rank];
+        int s = 1;
+        for (int d = rank - 1; d >= 0; d--) {
+            rstride[d] = s;
+            s *= shape[d];
+        }
+        final int ny = yAxis < 0 ? 1 : shape[yAxis];
+        final int nx = shape[xAxis];
+        final int sy = yAxis < 0 ? 0 : stride[yAxis];
+        final int sx = stride[xAxis];
+        final int rsy = yAxis < 0 ? 0 : rstride[yAxis];
+        final int rsx = rstride[xAxis];
+
+        //Plane offsets of the other dimensions
+        int np = 1;
+        for (int d = 0; d < rank; d++) {
+            if (d != yAxis && d != xAxis) {
+                np *= shape[d];
+            }
+        }
+        final int[] planes = new int[np];
+        final int[] rplanes = new int[np];
+        int[] counter = new int[rank];
+        int offset = a.getIndexPrivate().getOffset();
+        for (int p = 0; p < np; p++) {
+            int o = offset, ro = 0;
+            for (int d = 0; d < rank; d++) {
+                o += counter[d] * stride[d];
+                ro += counter[d] * rstride[d];
+            }
+            planes[p] = o;
+            rplanes[p] = ro;
+            for (int d = rank - 1; d >= 0; d--) {
+                if (d == yAxis || d == xAxis) {
+                    continue;
+                }
+                counter[d] += 1;
+                if (counter[d] < shape[d]) {
+                    break;
+                }
+                counter[d] = 0;
+            }
+        }
+
+        final int nt = kernel.w.length;
+        final int[] tapOffset = new int[nt];
+        for (int k = 0; k < nt; k++) {
+            tapOffset[k] = kernel.dy[k] * sy + kernel.dx[k] * sx;
+        }
+        Object storage = a.getStorage();
+        final double[] ad = storage instanceof double[] ? (double[]) storage : null;
+        final Array r = Array.factory(dataType, shape);
+        Object rstorage = r.getStorage();
+        final double[] rd = rstorage instanceof double[] ? (double[]) rstorage : null;
+        final boolean checkValue = !Double.isNaN(missingValue);
+        ParallelUtil.forRange((long) np * ny, Math.max(1, ParallelUtil.getThreshold() / Math.max(1, nx * nt)),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    int p = row / ny;
+                    int i = row - p * ny;
+                    int base = planes[p] + i * sy;
+                    int rbase = rplanes[p] + i * rsy;
+                    for (int j = 0; j < nx; j++) {
+                        int o = base + j * sx;
+                        double sum = 0, wsum = 0, v;
+                        int n = 0;
+                        boolean keep = false, nan = false;
+                        for (int k = 0; k < nt; k++) {
+                            int ii = i + kernel.dy[k];
+                            int jj = j + kernel.dx[k];
+                            if (ii < 0 || ii >= ny || jj < 0 || jj >= nx) {
+                                if (edge == Edge.NAN) {
+                                    nan = true;
+                                    break;
+                                } else if (edge == Edge.KEEP) {
+                                    keep = true;
+                                    break;
+                                }
+                                continue;
+                            }
+                            int oo = o + tapOffset[k];
+                            v = ad == null ? a.getDouble(oo) : ad[oo];
+                            if ((nanMissing && Double.isNaN(v)) || (checkValue && v == missingValue)) {
+                                if (missing == Missing.PROPAGATE) {
+                                    nan = true;
+                                    break;
+                                } else if (missing == Missing.KEEP) {
+                                    keep = true;
+                                    break;
+                                }
+                                continue;
+                            }
+                            sum += v * kernel.w[k];
+                            wsum += kernel.w[k];
+                            n += 1;
+                        }
+                        double x;
+                        if (nan) {
+                            x = Double.NaN;
+                        } else if (keep) {
+                            x = ad == null ? a.getDouble(o) : ad[o];
+                        } else if (n == 0) {
+                            x = Double.NaN;
+                        } else {
+                            x = normalize ? sum / wsum : sum;
+                        }
+                        int ro = rbase + j * rsx;
+                        if (rd == null) {
+                            r.setDouble(ro, x);
+                        } else {
+                            rd[ro] = x;
+                        }
+                    }
+                }
+            }
+        });
+
+        return r;
+    }
+}
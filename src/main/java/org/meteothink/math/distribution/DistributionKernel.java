@@ -0,0 +1,428 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.distribution;
+
+import org.apache.commons.math3.distribution.AbstractRealDistribution;
+import org.apache.commons.math3.distribution.BetaDistribution;
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.apache.commons.math3.distribution.ExponentialDistribution;
+import org.apache.commons.math3.distribution.FDistribution;
+import org.apache.commons.math3.distribution.GammaDistribution;
+import org.apache.commons.math3.distribution.LogNormalDistribution;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.distribution.RealDistribution;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.distribution.UniformRealDistribution;
+import org.apache.commons.math3.special.Erf;
+import org.apache.commons.math3.special.Gamma;
+import org.apache.commons.math3.util.FastMath;
+import org.meteothink.math.RandomStream;
+
+/**
+ * Element function of a distribution - pdf, log pdf, cdf, pmf or ppf. The
+ * normal and exponential distributions have closed form kernels with the
+ * parameters hoisted, and the gamma ppf uses Newton iterations on the
+ * regularized gamma function instead of the generic bracketing solver.
+ * Other distributions call the distribution object, whose evaluation
+ * functions have no mutable state. Kernels can be shared by threads.
+ * <p>
+ * Samplers draw from a {@link RandomStream}. The common distributions have
+ * direct samplers (Ziggurat normal, Marsaglia-Tsang gamma and those built
+ * on them), others are sampled by inversion of the cdf.
+ *
+ * @author Yaqiang Wang
+ */
+public abstract class DistributionKernel {
+
+    /**
+     * Distribution function
+     */
+    public static enum Function {
+        PDF,
+        LOGPDF,
+        CDF,
+        PMF,
+        PPF
+    }
+
+    private static final double SQRT2 = FastMath.sqrt(2.0);
+    private static final double HALF_LOG_2PI = 0.5 * FastMath.log(2 * FastMath.PI);
+
+    /**
+     * Evaluate the function at a value
+     *
+     * @param x The value
+     * @return Function value
+     */
+    public abstract double apply(double x);
+
+    /**
+     * Get the kernel of a distribution function
+     *
+     * @param dis The distribution
+     * @param function The function
+     * @return Kernel
+     */
+    public static DistributionKernel of(final RealDistribution dis, Function function) {
+        if (dis instanceof NormalDistribution) {
+            NormalDistribution nd = (NormalDistribution) dis;
+            return normal(nd, nd.getMean(), nd.getStandardDeviation(), function);
+        }
+        if (dis instanceof ExponentialDistribution) {
+            return exponential(dis, ((ExponentialDistribution) dis).getMean(), function);
+        }
+        if (dis instanceof GammaDistribution && function == Function.PPF) {
+            GammaDistribution gd = (GammaDistribution) dis;
+            return gammaPpf(dis, gd.getShape(), gd.getScale());
+        }
+        switch (function) {
+            case PDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return dis.density(x);
+                    }
+                };
+            case LOGPDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return dis instanceof AbstractRealDistribution
+                                ? ((AbstractRealDistribution) dis).logDensity(x) : FastMath.log(dis.density(x));
+                    }
+                };
+            case CDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return dis.cumulativeProbability(x);
+                    }
+                };
+            case PMF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return dis.probability(x);
+                    }
+                };
+            default:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return dis.inverseCumulativeProbability(x);
+                    }
+                };
+        }
+    }
+
+    private static DistributionKernel normal(final RealDistribution dis, final double mean, final double sd,
+            Function function) {
+        final double logNorm = FastMath.log(sd) + HALF_LOG_2PI;
+        switch (function) {
+            case PDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        double z = (x - mean) / sd;
+                        return FastMath.exp(-0.5 * z * z - logNorm);
+                    }
+                };
+            case LOGPDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        double z = (x - mean) / sd;
+                        return -0.5 * z * z - logNorm;
+                    }
+                };
+            case CDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        double dev = x - mean;
+                        if (FastMath.abs(dev) > 40 * sd) {
+                            return dev < 0 ? 0.0 : 1.0;
+                        }
+                        return 0.5 * Erf.erfc(-dev / (sd * SQRT2));
+                    }
+                };
+            case PMF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return 0;
+                    }
+                };
+            default:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double p) {
+                        if (p < 0 || p > 1) {
+                            return dis.inverseCumulativeProbability(p);
+                        }
+                        return mean + sd * SQRT2 * Erf.erfInv(2 * p - 1);
+                    }
+                };
+        }
+    }
+
+    private static DistributionKernel exponential(final RealDistribution dis, final double mean,
+            Function function) {
+        final double logMean = FastMath.log(mean);
+        switch (function) {
+            case PDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return x < 0 ? 0 : FastMath.exp(-x / mean - logMean);
+                    }
+                };
+            case LOGPDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return x < 0 ? Double.NEGATIVE_INFINITY : -x / mean - logMean;
+                    }
+                };
+            case CDF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return x <= 0 ? 0 : 1 - FastMath.exp(-x / mean);
+                    }
+                };
+            case PMF:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double x) {
+                        return 0;
+                    }
+                };
+            default:
+                return new DistributionKernel() {
+                    @Override
+                    public double apply(double p) {
+                        if (p < 0 || p > 1) {
+                            return dis.inverseCumulativeProbability(p);
+                        }
+                        return p == 1 ? Double.POSITIVE_INFINITY : -mean * FastMath.log(1 - p);
+                    }
+                };
+        }
+    }
+
+    private static DistributionKernel gammaPpf(final RealDistribution dis, final double shape,
+            final double scale) {
+        final double logGammaShape = Gamma.logGamma(shape);
+        return new DistributionKernel() {
+            @Override
+            public double apply(double p) {
+                if (p < 0 || p > 1) {
+                    return dis.inverseCumulativeProbability(p);
+                }
+                if (p == 0) {
+                    return 0;
+                }
+                if (p == 1) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                if (Double.isNaN(p)) {
+                    return Double.NaN;
+                }
+                return scale * gammaQuantile(shape, logGammaShape, p);
+            }
+        };
+    }
+
+    /**
+     * Quantile of the standard gamma distribution - Wilson-Hilferty or small
+     * x approximation refined by safeguarded Newton iterations
+     */
+    private static double gammaQuantile(double a, double logGammaA, double p) {
+        double x;
+        if (a > 1) {
+            double z = SQRT2 * Erf.erfInv(2 * p - 1);
+            double c = 1 / (9 * a);
+            double t = 1 - c + z * FastMath.sqrt(c);
+            x = t > 0 ? a * t * t * t : 0;
+        } else {
+            x = 0;
+        }
+        if (x <= 0) {
+            //P(a, x) ~ x^a / (a Gamma(a)) for small x
+            x = FastMath.exp((FastMath.log(p) + logGammaA + FastMath.log(a)) / a);
+        }
+        double lo = 0, hi = Double.POSITIVE_INFINITY;
+        for (int iter = 0; iter < 100; iter++) {
+            double f = Gamma.regularizedGammaP(a, x) - p;
+            if (f == 0) {
+                return x;
+            }
+            if (f < 0) {
+                lo = x;
+            } else {
+                hi = x;
+            }
+            double d = FastMath.exp((a - 1) * FastMath.log(x) - x - logGammaA);
+            double xn = d > 0 ? x - f / d : Double.NaN;
+            if (!(xn > lo && xn < hi)) {
+                xn = Double.isInfinite(hi) ? 2 * x : 0.5 * (lo + hi);
+            }
+            if (FastMath.abs(xn - x) <= 1e-15 * xn) {
+                return xn;
+            }
+            x = xn;
+        }
+        return x;
+    }
+
+    /**
+     * Sampler of a distribution
+     */
+    public static abstract class Sampler {
+
+        /**
+         * Draw a random value
+         *
+         * @param rs The random stream
+         * @return Random value
+         */
+        public abstract double sample(RandomStream rs);
+    }
+
+    /**
+     * Get the sampler of a distribution
+     *
+     * @param dis The distribution
+     * @return Sampler
+     */
+    public static Sampler sampler(final RealDistribution dis) {
+        if (dis instanceof NormalDistribution) {
+            final double mean = ((NormalDistribution) dis).getMean();
+            final double sd = ((NormalDistribution) dis).getStandardDeviation();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    return mean + sd * rs.nextGaussian();
+                }
+            };
+        }
+        if (dis instanceof LogNormalDistribution) {
+            final double mu = ((LogNormalDistribution) dis).getScale();
+            final double sigma = ((LogNormalDistribution) dis).getShape();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    return FastMath.exp(mu + sigma * rs.nextGaussian());
+                }
+            };
+        }
+        if (dis instanceof ExponentialDistribution) {
+            final double mean = ((ExponentialDistribution) dis).getMean();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    return -mean * FastMath.log(1 - rs.nextDouble());
+                }
+            };
+        }
+        if (dis instanceof UniformRealDistribution) {
+            final double lower = dis.getSupportLowerBound();
+            final double upper = dis.getSupportUpperBound();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    double u = rs.nextDouble();
+                    return u * upper + (1 - u) * lower;
+                }
+            };
+        }
+        if (dis instanceof GammaDistribution) {
+            final double shape = ((GammaDistribution) dis).getShape();
+            final double scale = ((GammaDistribution) dis).getScale();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    return scale * nextGamma(rs, shape);
+                }
+            };
+        }
+        if (dis instanceof ChiSquaredDistribution) {
+            final double half = ((ChiSquaredDistribution) dis).getDegreesOfFreedom() / 2;
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    return 2 * nextGamma(rs, half);
+                }
+            };
+        }
+        if (dis instanceof BetaDistribution) {
+            final double alpha = ((BetaDistribution) dis).getAlpha();
+            final double beta = ((BetaDistribution) dis).getBeta();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    double x = nextGamma(rs, alpha);
+                    double y = nextGamma(rs, beta);
+                    return x / (x + y);
+                }
+            };
+        }
+        if (dis instanceof TDistribution) {
+            final double df = ((TDistribution) dis).getDegreesOfFreedom();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    double z = rs.nextGaussian();
+                    return z / FastMath.sqrt(2 * nextGamma(rs, df / 2) / df);
+                }
+            };
+        }
+        if (dis instanceof FDistribution) {
+            final double d1 = ((FDistribution) dis).getNumeratorDegreesOfFreedom();
+            final double d2 = ((FDistribution) dis).getDenominatorDegreesOfFreedom();
+            return new Sampler() {
+                @Override
+                public double sample(RandomStream rs) {
+                    return (nextGamma(rs, d1 / 2) / d1) / (nextGamma(rs, d2 / 2) / d2);
+                }
+            };
+        }
+        return new Sampler() {
+            @Override
+            public double sample(RandomStream rs) {
+                return dis.inverseCumulativeProbability(rs.nextDouble());
+            }
+        };
+    }
+
+    /**
+     * Standard gamma random value (Marsaglia and Tsang)
+     */
+    private static double nextGamma(RandomStream rs, double shape) {
+        if (shape < 1) {
+            double u = rs.nextDouble();
+            return nextGamma(rs, shape + 1) * FastMath.pow(1 - u, 1 / shape);
+        }
+        double d = shape - 1.0 / 3;
+        double c = 1 / FastMath.sqrt(9 * d);
+        while (true) {
+            double x, v;
+            do {
+                x = rs.nextGaussian();
+                v = 1 + c * x;
+            } while (v <= 0);
+            v = v * v * v;
+            double u = rs.nextDouble();
+            if (u < 1 - 0.0331 * x * x * x * x) {
+                return d * v;
+            }
+            if (FastMath.log(u) < 0.5 * x * x + d * (1 - v + FastMath.log(v))) {
+                return d * v;
+            }
+        }
+    }
+}
@@ -8,14 +8,62 @@ package org.meteothink.math.distribution;
 import java.util.List;
 import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.commons.math3.distribution.RealDistribution;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.math.RandomStream;
+import org.meteothink.math.RandomUtil;
+import org.meteothink.math.distribution.DistributionKernel.Function;
 import org.meteothink.ndarray.Array;
 import org.meteothink.ndarray.DataType;
 
 /**
+ * Distribution functions and random variates of arrays. Arrays are evaluated
+ * in parallel chunks with the kernels of {@link DistributionKernel}, and the
+ * results can be written into preallocated output arrays. Random variates
+ * are drawn in parallel with fixed size blocks, each block using its own
+ * child stream of a stream split from the global stream of RandomUtil, so
+ * the samples follow the seed whatever the number of threads.
  *
  * @author wyq
  */
 public class DistributionUtil {
+
+    //number of samples drawn with one child stream
+    private static final int BLOCK = 4096;
+
+    /**
+     * Evaluate a distribution function of an array into an output array
+     */
+    private static Array evaluate(RealDistribution dis, Array x, Function function, Array out) {
+        if (out.getSize() != x.getSize()) {
+            throw new IllegalArgumentException("The output array must have the same size as x");
+        }
+        if (!out.getIndexPrivate().isFastIterator()) {
+            throw new IllegalArgumentException("The output array must be contiguous");
+        }
+        final DistributionKernel kernel = DistributionKernel.of(dis, function);
+        final Array src = x.getIndexPrivate().isFastIterator() ? x : x.copy();
+        final Array dst = out;
+        Object s = src.getStorage();
+        final double[] xd = s instanceof double[] ? (double[]) s : null;
+        s = out.getStorage();
+        final double[] od = s instanceof double[] ? (double[]) s : null;
+        ParallelUtil.forRange(src.getSize(), Math.max(1, ParallelUtil.getThreshold() / 16),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double v = kernel.apply(xd == null ? src.getDouble(i) : xd[i]);
+                    if (od == null) {
+                        dst.setDouble(i, v);
+                    } else {
+                        od[i] = v;
+                    }
+                }
+            }
+        });
+
+        return out;
+    }
     /**
      * Random variates of given type.
      * @param dis Distribution.
@@ -23,9 +71,7 @@ public class DistributionUtil {
      * @return Rsult array.
      */
     public static Array rvs(RealDistribution dis, int n){
-        double[] samples = dis.sample(n);
-        Array r = Array.factory(DataType.DOUBLE, new int[]{n}, samples);        
-        return r;
+        return rvs(dis, Array.factory(DataType.DOUBLE, new int[]{n}));
     }
     
     /**
@@ -35,17 +81,49 @@ public class DistributionUtil {
      * @return Rsult array.
      */
     public static Array rvs(RealDistribution dis, List<Integer> shape){
-        int n = 1;
-        for (int s : shape) {
-            n = n * s;
-        }
-        double[] samples = dis.sample(n);
         int[] ashape = new int[shape.size()];
         for (int i = 0; i < shape.size(); i++) {
             ashape[i] = shape.get(i);
         }
-        Array r = Array.factory(DataType.DOUBLE, ashape, samples);
-        return r;
+        return rvs(dis, Array.factory(DataType.DOUBLE, ashape));
+    }
+    
+    /**
+     * Random variates of given type written into an output array.
+     * @param dis Distribution.
+     * @param out Output array - contiguous.
+     * @return Output array.
+     */
+    public static Array rvs(RealDistribution dis, Array out){
+        if (!out.getIndexPrivate().isFastIterator()) {
+            throw new IllegalArgumentException("The output array must be contiguous");
+        }
+        final DistributionKernel.Sampler sampler = DistributionKernel.sampler(dis);
+        final RandomStream root = RandomUtil.newStream();
+        final Array dst = out;
+        Object s = out.getStorage();
+        final double[] od = s instanceof double[] ? (double[]) s : null;
+        final int n = (int) out.getSize();
+        int nb = (n + BLOCK - 1) / BLOCK;
+        ParallelUtil.forRange(nb, Math.max(1, ParallelUtil.getThreshold() / (16 * BLOCK)),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int b = from; b < to; b++) {
+                    RandomStream rs = root.stream(b);
+                    int end = Math.min(n, (b + 1) * BLOCK);
+                    for (int i = b * BLOCK; i < end; i++) {
+                        double v = sampler.sample(rs);
+                        if (od == null) {
+                            dst.setDouble(i, v);
+                        } else {
+                            od[i] = v;
+                        }
+                    }
+                }
+            }
+        });
+        return out;
     }
     
     /**
@@ -65,12 +143,18 @@ public class DistributionUtil {
      * @return Probability density array.
      */
     public static Array pdf(RealDistribution dis, Array x){
-        Array r = Array.factory(DataType.DOUBLE, x.getShape());
-        for (int i = 0; i < r.getSize(); i++){
-            r.setDouble(i, dis.density(x.getDouble(i)));
-        }
-        
-        return r;
+        return evaluate(dis, x, Function.PDF, Array.factory(DataType.DOUBLE, x.getShape()));
+    }
+    
+    /**
+     * Probability density function at x written into an output array
+     * @param dis Distribution.
+     * @param x X array.
+     * @param out Output array - contiguous, same size as x.
+     * @return Output array.
+     */
+    public static Array pdf(RealDistribution dis, Array x, Array out){
+        return evaluate(dis, x, Function.PDF, out);
     }
     
     /**
@@ -90,12 +174,7 @@ public class DistributionUtil {
      * @return Result array.
      */
     public static Array logpdf(NormalDistribution dis, Array x){
-        Array r = Array.factory(DataType.DOUBLE, x.getShape());
-        for (int i = 0; i < r.getSize(); i++){
-            r.setDouble(i, dis.logDensity(x.getDouble(i)));
-        }
-        
-        return r;
+        return evaluate(dis, x, Function.LOGPDF, Array.factory(DataType.DOUBLE, x.getShape()));
     }
     
     /**
@@ -115,12 +194,18 @@ public class DistributionUtil {
      * @return Result array.
      */
     public static Array cdf(RealDistribution dis, Array x){
-        Array r = Array.factory(DataType.DOUBLE, x.getShape());
-        for (int i = 0; i < r.getSize(); i++){
-            r.setDouble(i, dis.cumulativeProbability(x.getDouble(i)));
-        }
-        
-        return r;
+        return evaluate(dis, x, Function.CDF, Array.factory(DataType.DOUBLE, x.getShape()));
+    }
+    
+    /**
+     * Cumulative distribution function at x written into an output array
+     * @param dis Distribution.
+     * @param x X array.
+     * @param out Output array - contiguous, same size as x.
+     * @return Output array.
+     */
+    public static Array cdf(RealDistribution dis, Array x, Array out){
+        return evaluate(dis, x, Function.CDF, out);
     }
     
     /**
@@ -140,12 +225,7 @@ public class DistributionUtil {
      * @return Result array.
      */
     public static Array pmf(RealDistribution dis, Array x){
-        Array r = Array.factory(DataType.DOUBLE, x.getShape());
-        for (int i = 0; i < r.getSize(); i++){
-            r.setDouble(i, dis.probability(x.getDouble(i)));
-        }
-        
-        return r;
+        return evaluate(dis, x, Function.PMF, Array.factory(DataType.DOUBLE, x.getShape()));
     }
     
     /**
@@ -165,11 +245,17 @@ public class DistributionUtil {
      * @return Result array.
      */
     public static Array ppf(RealDistribution dis, Array q){
-        Array r = Array.factory(DataType.DOUBLE, q.getShape());
-        for (int i = 0; i < r.getSize(); i++){
-            r.setDouble(i, dis.inverseCumulativeProbability(q.getDouble(i)));
-        }
-        
-        return r;
+        return evaluate(dis, q, Function.PPF, Array.factory(DataType.DOUBLE, q.getShape()));
+    }
+    
+    /**
+     * Percent point function (inverse of cdf) at q written into an output array
+     * @param dis Distribution.
+     * @param q Q array.
+     * @param out Output array - contiguous, same size as q.
+     * @return Output array.
+     */
+    public static Array ppf(RealDistribution dis, Array q, Array out){
+        return evaluate(dis, q, Function.PPF, out);
     }
 }
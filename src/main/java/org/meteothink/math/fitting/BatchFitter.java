@@ -0,0 +1,317 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.fitting;
+
+import java.util.Arrays;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.math.ReduceUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Least squares fitting of many series sharing the same x values, such as
+ * the time series of every grid point of a field. The design matrix of the
+ * trend line model is built and factorized (Householder QR) once, and each
+ * series only needs Q^T y and a back substitution. Blocks of neighbouring
+ * series are accumulated together so each step along the axis reads a
+ * contiguous run of the storage, and blocks are fitted in parallel. Series
+ * with missing values are fitted on their valid values with their own
+ * factorization.
+ *
+ * @author Yaqiang Wang
+ */
+public class BatchFitter {
+
+    //number of neighbouring series accumulated together
+    private static final int BLOCK = 256;
+
+    private final OLSTrendLine model;
+    private final int n;
+    private final int p;
+    private final double[][] design;
+    private final boolean[] rowValid;
+    private final double[] q;
+    private final double[] r;
+    private final boolean singular;
+
+    /**
+     * Constructor
+     *
+     * @param model The trend line model - provides the predictors of x
+     * @param x X values
+     */
+    public BatchFitter(OLSTrendLine model, Array x) {
+        this.model = model;
+        this.n = (int) x.getSize();
+        this.p = model.xVector(0).length;
+        this.design = new double[n][];
+        this.rowValid = new boolean[n];
+        int m = 0;
+        for (int k = 0; k < n; k++) {
+            design[k] = model.xVector(x.getDouble(k));
+            rowValid[k] = true;
+            for (double v : design[k]) {
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    rowValid[k] = false;
+                    break;
+                }
+            }
+            if (rowValid[k]) {
+                m += 1;
+            }
+        }
+        //shared factorization of the valid rows, Q is zero on the others
+        double[] a = new double[n * p];
+        for (int k = 0; k < n; k++) {
+            if (rowValid[k]) {
+                System.arraycopy(design[k], 0, a, k * p, p);
+            }
+        }
+        this.q = new double[n * p];
+        this.r = new double[p * p];
+        this.singular = m < p || !decompose(a, n, p, q, r);
+    }
+
+    /**
+     * Get number of the parameters
+     *
+     * @return Parameter number
+     */
+    public int getParameterNumber() {
+        return p;
+    }
+
+    /**
+     * Householder QR decomposition of an m x p matrix (row major) into the
+     * thin Q (m x p) and R (p x p)
+     *
+     * @return False if the matrix is rank deficient
+     */
+    private static boolean decompose(double[] a, int m, int p, double[] q, double[] r) {
+        double[] alpha = new double[p];
+        double[] vnorm = new double[p];
+        double scale = 0;
+        for (int k = 0; k < p; k++) {
+            double norm = 0;
+            for (int i = k; i < m; i++) {
+                norm += a[i * p + k] * a[i * p + k];
+            }
+            norm = Math.sqrt(norm);
+            scale = Math.max(scale, norm);
+            if (norm <= 1e-13 * scale) {
+                return false;
+            }
+            alpha[k] = a[k * p + k] > 0 ? -norm : norm;
+            a[k * p + k] -= alpha[k];
+            double vv = 0;
+            for (int i = k; i < m; i++) {
+                vv += a[i * p + k] * a[i * p + k];
+            }
+            vnorm[k] = vv;
+            for (int j = k + 1; j < p; j++) {
+                double s = 0;
+                for (int i = k; i < m; i++) {
+                    s += a[i * p + k] * a[i * p + j];
+                }
+                s = 2 * s / vv;
+                for (int i = k; i < m; i++) {
+                    a[i * p + j] -= s * a[i * p + k];
+                }
+            }
+        }
+        for (int k = 0; k < p; k++) {
+            r[k * p + k] = alpha[k];
+            for (int j = k + 1; j < p; j++) {
+                r[k * p + j] = a[k * p + j];
+            }
+        }
+        //Q = H0 H1 ... H(p-1) applied to the first p columns of the identity
+        for (int j = 0; j < p; j++) {
+            for (int i = 0; i < m; i++) {
+                q[i * p + j] = i == j ? 1 : 0;
+            }
+            for (int k = p - 1; k >= 0; k--) {
+                double s = 0;
+                for (int i = k; i < m; i++) {
+                    s += a[i * p + k] * q[i * p + j];
+                }
+                s = 2 * s / vnorm[k];
+                for (int i = k; i < m; i++) {
+                    q[i * p + j] -= s * a[i * p + k];
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solve R c = b in place by back substitution
+     */
+    private static void backSubstitute(double[] r, int p, double[] b, int off, int stride) {
+        for (int k = p - 1; k >= 0; k--) {
+            double s = b[off + k * stride];
+            for (int j = k + 1; j < p; j++) {
+                s -= r[k * p + j] * b[off + j * stride];
+            }
+            b[off + k * stride] = s / r[k * p + k];
+        }
+    }
+
+    private double transform(double v) {
+        return model.logY() ? Math.log(v) : v;
+    }
+
+    private double predict(double[] c, int off, int stride, int k) {
+        double s = 0;
+        double[] xv = design[k];
+        for (int j = 0; j < p; j++) {
+            s += c[off + j * stride] * xv[j];
+        }
+        return model.logY() ? Math.exp(s) : s;
+    }
+
+    /**
+     * Fit the series of an array along an axis
+     *
+     * @param y Y array - the length of the axis is the number of x values
+     * @param axis The axis
+     * @return Coefficients array (parameter number plus the array shape
+     * without the axis, in the order of the model predictors) and coefficient
+     * of determination array (computed with the predicted y)
+     */
+    public Array[] fit(final Array y, int axis) {
+        int[] shape = y.getShape();
+        if (shape[axis] != n) {
+            throw new IllegalArgumentException("The length of the axis must be the number of x values");
+        }
+        final int[] lanes = ReduceUtil.laneOffsets(y, axis);
+        final int stride = ReduceUtil.axisStride(y, axis);
+        Object s = y.getStorage();
+        final double[] yd = s instanceof double[] ? (double[]) s : null;
+        final int nl = lanes.length;
+        final double[] coef = new double[p * nl];
+        final double[] r2 = new double[nl];
+        int nb = (nl + BLOCK - 1) / BLOCK;
+        ParallelUtil.forRange(nb, Math.max(1, ParallelUtil.getThreshold() / (BLOCK * Math.max(1, n * p))),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] sum = new double[BLOCK];
+                int[] count = new int[BLOCK];
+                boolean[] missing = new boolean[BLOCK];
+                double[] c = new double[p * BLOCK];
+                double[] sse = new double[BLOCK], sst = new double[BLOCK];
+                double[] buf = new double[n];
+                for (int b = from; b < to; b++) {
+                    int l0 = b * BLOCK;
+                    int m = Math.min(BLOCK, nl - l0);
+                    Arrays.fill(sum, 0);
+                    Arrays.fill(count, 0);
+                    Arrays.fill(missing, false);
+                    Arrays.fill(c, 0);
+                    Arrays.fill(sse, 0);
+                    Arrays.fill(sst, 0);
+                    //Q^T y with the shared factorization, j * BLOCK + i
+                    for (int k = 0; k < n; k++) {
+                        if (!rowValid[k]) {
+                            continue;
+                        }
+                        int qo = k * p;
+                        for (int i = 0; i < m; i++) {
+                            int o = lanes[l0 + i] + k * stride;
+                            double v = yd == null ? y.getDouble(o) : yd[o];
+                            double t = transform(v);
+                            if (Double.isNaN(t) || Double.isInfinite(t)) {
+                                missing[i] = true;
+                                continue;
+                            }
+                            sum[i] += v;
+                            count[i] += 1;
+                            for (int j = 0; j < p; j++) {
+                                c[j * BLOCK + i] += q[qo + j] * t;
+                            }
+                        }
+                    }
+                    for (int i = 0; i < m; i++) {
+                        if (missing[i] || singular) {
+                            fitMissing(y, lanes[l0 + i], stride, yd, buf, c, i);
+                        } else {
+                            backSubstitute(r, p, c, i, BLOCK);
+                        }
+                    }
+                    //coefficient of determination
+                    for (int k = 0; k < n; k++) {
+                        if (!rowValid[k]) {
+                            continue;
+                        }
+                        for (int i = 0; i < m; i++) {
+                            int o = lanes[l0 + i] + k * stride;
+                            double v = yd == null ? y.getDouble(o) : yd[o];
+                            double t = transform(v);
+                            if (Double.isNaN(t) || Double.isInfinite(t) || count[i] == 0) {
+                                continue;
+                            }
+                            double d = v - predict(c, i, BLOCK, k);
+                            sse[i] += d * d;
+                            d = v - sum[i] / count[i];
+                            sst[i] += d * d;
+                        }
+                    }
+                    for (int i = 0; i < m; i++) {
+                        int l = l0 + i;
+                        for (int j = 0; j < p; j++) {
+                            coef[j * nl + l] = c[j * BLOCK + i];
+                        }
+                        r2[l] = Double.isNaN(c[i]) ? Double.NaN : 1 - sse[i] / sst[i];
+                    }
+                }
+            }
+        });
+
+        int[] rshape = ReduceUtil.reduceShape(shape, axis);
+        int[] cshape = new int[rshape.length + 1];
+        cshape[0] = p;
+        System.arraycopy(rshape, 0, cshape, 1, rshape.length);
+        return new Array[]{Array.factory(DataType.DOUBLE, cshape, coef),
+            Array.factory(DataType.DOUBLE, rshape, r2)};
+    }
+
+    /**
+     * Fit a series with missing values on its valid values
+     */
+    private void fitMissing(Array y, int offset, int stride, double[] yd, double[] buf, double[] c, int i) {
+        int m = 0;
+        double[] a = new double[n * p];
+        for (int k = 0; k < n; k++) {
+            if (!rowValid[k]) {
+                continue;
+            }
+            int o = offset + k * stride;
+            double t = transform(yd == null ? y.getDouble(o) : yd[o]);
+            if (Double.isNaN(t) || Double.isInfinite(t)) {
+                continue;
+            }
+            System.arraycopy(design[k], 0, a, m * p, p);
+            buf[m++] = t;
+        }
+        double[] qm = new double[m * p];
+        double[] rm = new double[p * p];
+        if (m < p || !decompose(a, m, p, qm, rm)) {
+            for (int j = 0; j < p; j++) {
+                c[j * BLOCK + i] = Double.NaN;
+            }
+            return;
+        }
+        for (int j = 0; j < p; j++) {
+            double s = 0;
+            for (int k = 0; k < m; k++) {
+                s += qm[k * p + j] * buf[k];
+            }
+            c[j * BLOCK + i] = s;
+        }
+        backSubstitute(rm, p, c, i, BLOCK);
+    }
+}
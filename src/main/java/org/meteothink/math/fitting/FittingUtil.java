@@ -85,6 +85,47 @@ public class FittingUtil {
         return new Object[]{para, r, t};
     }
     
+    /**
+     * Power fitting of the series of an array along an axis
+     * @param x X array - the length of the axis
+     * @param y Y array
+     * @param axis The axis
+     * @return Fitting parameters a and b (y = a * x^b) and coefficient of
+     * determination arrays
+     */
+    public static Array[] powerFit(Array x, Array y, int axis){
+        Array[] r = new BatchFitter(new PowerTrendLine(), x).fit(y, axis);
+        return new Array[]{ArrayMath.exp(r[0].slice(0, 0)), r[0].slice(0, 1).copy(), r[1]};
+    }
+    
+    /**
+     * Exponent fitting of the series of an array along an axis
+     * @param x X array - the length of the axis
+     * @param y Y array
+     * @param axis The axis
+     * @return Fitting parameters a and b (y = a * e^(b * x)) and coefficient
+     * of determination arrays
+     */
+    public static Array[] expFit(Array x, Array y, int axis){
+        Array[] r = new BatchFitter(new ExpTrendLine(), x).fit(y, axis);
+        return new Array[]{ArrayMath.exp(r[0].slice(0, 0)), r[0].slice(0, 1).copy(), r[1]};
+    }
+    
+    /**
+     * Polynomail fitting of the series of an array along an axis
+     * @param x X array - the length of the axis
+     * @param y Y array
+     * @param degree Degree
+     * @param axis The axis
+     * @return Fitting parameters array - the first dimension is the parameters
+     * from the highest degree to the constant term, and coefficient of
+     * determination array
+     */
+    public static Array[] polyFit(Array x, Array y, int degree, int axis){
+        Array[] r = new BatchFitter(new PolyTrendLine(degree), x).fit(y, axis);
+        return new Array[]{r[0].flip(0).copy(), r[1]};
+    }
+    
     /**
      * Predict a value
      * @param x X value
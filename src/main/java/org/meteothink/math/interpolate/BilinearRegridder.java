@@ -0,0 +1,245 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.interpolate;
+
+import java.util.List;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Bilinear interpolation from a rectilinear grid to other points. The source
+ * cell and the fractional position in the cell of each target point are
+ * computed once, and then applied to every 2-D slice (the last two dimensions)
+ * of any number of data arrays on the source grid. Cells with some missing
+ * corner values get the average of the valid corners.
+ *
+ * @author Yaqiang Wang
+ */
+public class BilinearRegridder {
+
+    private final int nx;
+    private final int ny;
+    private final boolean grid;
+    private final int[] outShape;
+    //Source cell lower indices (-1 outside the grid) and fractional positions
+    private final int[] xIdx;
+    private final int[] yIdx;
+    private final double[] tx;
+    private final double[] ty;
+
+    /**
+     * Constructor - regrid to a rectilinear grid
+     *
+     * @param X X coordinate of the source grid - ascending
+     * @param Y Y coordinate of the source grid - ascending
+     * @param newX X coordinate of the target grid
+     * @param newY Y coordinate of the target grid
+     */
+    public BilinearRegridder(Array X, Array Y, Array newX, Array newY) {
+        this(toDoubleArray(X), toDoubleArray(Y), toDoubleArray(newX), toDoubleArray(newY), true,
+                new int[]{(int) newY.getSize(), (int) newX.getSize()});
+    }
+
+    /**
+     * Constructor - regrid to a rectilinear grid
+     *
+     * @param X X coordinate of the source grid - ascending
+     * @param Y Y coordinate of the source grid - ascending
+     * @param newX X coordinate of the target grid
+     * @param newY Y coordinate of the target grid
+     */
+    public BilinearRegridder(List<Number> X, List<Number> Y, List<Number> newX, List<Number> newY) {
+        this(toDoubleArray(X), toDoubleArray(Y), toDoubleArray(newX), toDoubleArray(newY), true,
+                new int[]{newY.size(), newX.size()});
+    }
+
+    /**
+     * Create a regridder to scattered points
+     *
+     * @param X X coordinate of the source grid - ascending
+     * @param Y Y coordinate of the source grid - ascending
+     * @param x X coordinates of the points
+     * @param y Y coordinates of the points - same shape as x
+     * @return The regridder
+     */
+    public static BilinearRegridder toPoints(Array X, Array Y, Array x, Array y) {
+        return new BilinearRegridder(toDoubleArray(X), toDoubleArray(Y), toDoubleArray(x), toDoubleArray(y),
+                false, x.getShape());
+    }
+
+    private BilinearRegridder(double[] X, double[] Y, double[] newX, double[] newY, boolean grid, int[] outShape) {
+        this.nx = X.length;
+        this.ny = Y.length;
+        this.grid = grid;
+        this.outShape = outShape;
+        this.xIdx = new int[newX.length];
+        this.tx = new double[newX.length];
+        this.yIdx = new int[newY.length];
+        this.ty = new double[newY.length];
+        locate(X, newX, xIdx, tx);
+        locate(Y, newY, yIdx, ty);
+    }
+
+    private static double[] toDoubleArray(Array a) {
+        return (double[]) a.get1DJavaArray(double.class);
+    }
+
+    private static double[] toDoubleArray(List<Number> a) {
+        double[] r = new double[a.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = a.get(i).doubleValue();
+        }
+        return r;
+    }
+
+    /**
+     * Find the cell lower index of each value with a binary search. The index
+     * of the last coordinate is moved to the last cell, and values outside the
+     * coordinates get -1.
+     */
+    private static void locate(double[] dim, double[] v, int[] idx, double[] t) {
+        int n = dim.length;
+        for (int i = 0; i < v.length; i++) {
+            double x = v[i];
+            if (!(x >= dim[0] && x <= dim[n - 1])) {
+                idx[i] = -1;
+                continue;
+            }
+            //Number of coordinates not greater than x, minus 1
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (dim[mid] <= x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int j = Math.min(lo - 1, n - 2);
+            idx[i] = j;
+            t[i] = (x - dim[j]) / (dim[j + 1] - dim[j]);
+        }
+    }
+
+    /**
+     * Get the shape of the regridded array of a source array
+     *
+     * @param shape Source array shape
+     * @return Regridded array shape
+     */
+    public int[] getShape(int[] shape) {
+        int m = shape.length - 2;
+        int[] r = new int[m + outShape.length];
+        System.arraycopy(shape, 0, r, 0, m);
+        System.arraycopy(outShape, 0, r, m, outShape.length);
+        return r;
+    }
+
+    /**
+     * Regrid an array. The last two dimensions of the array are y and x of
+     * the source grid, the slices of the leading dimensions are regridded in
+     * parallel.
+     *
+     * @param a The source array
+     * @return Regridded array
+     */
+    public Array regrid(Array a) {
+        int[] shape = a.getShape();
+        int rank = shape.length;
+        if (shape[rank - 1] != nx || shape[rank - 2] != ny) {
+            throw new IllegalArgumentException("The last two dimensions of the array do not match the grid");
+        }
+        final Array src = a.getIndexPrivate().isFastIterator() ? a : a.copy();
+        final Object storage = src.getStorage();
+        final double[] sd = storage instanceof double[] ? (double[]) storage : null;
+        final int nOut = grid ? yIdx.length * xIdx.length : xIdx.length;
+        final int nrow = grid ? xIdx.length : 1;
+        final int slices = (int) (a.getSize() / (nx * ny));
+        final double[] r = new double[slices * nOut];
+        ParallelUtil.forRange((long) slices * nOut / nrow, Math.max(1, ParallelUtil.getThreshold() / nrow),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    int start = row * nrow;
+                    int s = start / nOut;
+                    int base = s * nx * ny;
+                    for (int o = start, p = start - s * nOut; o < start + nrow; o++, p++) {
+                        int xi, yi;
+                        if (grid) {
+                            yi = p / xIdx.length;
+                            xi = p - yi * xIdx.length;
+                        } else {
+                            xi = yi = p;
+                        }
+                        int j1 = xIdx[xi];
+                        int i1 = yIdx[yi];
+                        if (j1 < 0 || i1 < 0) {
+                            r[o] = Double.NaN;
+                            continue;
+                        }
+                        int k = base + i1 * nx + j1;
+                        double va, vb, vc, vd;
+                        if (sd == null) {
+                            va = src.getDouble(k);
+                            vb = src.getDouble(k + 1);
+                            vc = src.getDouble(k + nx);
+                            vd = src.getDouble(k + nx + 1);
+                        } else {
+                            va = sd[k];
+                            vb = sd[k + 1];
+                            vc = sd[k + nx];
+                            vd = sd[k + nx + 1];
+                        }
+                        r[o] = interpolate(va, vb, vc, vd, tx[xi], ty[yi]);
+                    }
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, getShape(shape), r);
+    }
+
+    /**
+     * Bilinear interpolation in a cell, or the average of the valid corner
+     * values if some of them are NaN.
+     *
+     * @param a Lower left value
+     * @param b Lower right value
+     * @param c Upper left value
+     * @param d Upper right value
+     * @param tx Fractional x position
+     * @param ty Fractional y position
+     * @return Interpolated value
+     */
+    public static double interpolate(double a, double b, double c, double d, double tx, double ty) {
+        if (Double.isNaN(a) || Double.isNaN(b) || Double.isNaN(c) || Double.isNaN(d)) {
+            double sum = 0;
+            int n = 0;
+            if (!Double.isNaN(a)) {
+                sum += a;
+                n += 1;
+            }
+            if (!Double.isNaN(b)) {
+                sum += b;
+                n += 1;
+            }
+            if (!Double.isNaN(c)) {
+                sum += c;
+                n += 1;
+            }
+            if (!Double.isNaN(d)) {
+                sum += d;
+                n += 1;
+            }
+            return n == 0 ? Double.NaN : sum / n;
+        }
+        double x1val = a + (c - a) * ty;
+        double x2val = b + (d - b) * ty;
+        return x1val + (x2val - x1val) * tx;
+    }
+}
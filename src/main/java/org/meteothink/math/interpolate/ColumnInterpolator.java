@@ -0,0 +1,152 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.interpolate;
+
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.math.ReduceUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Linear interpolation of the columns of an array along an axis to new
+ * coordinate values, such as vertical interpolation from model levels to
+ * pressure levels. The columns are read directly from the backing storage
+ * using the array strides and interpolated in parallel. The bracketing levels
+ * of a target value are searched starting from the levels of the previous
+ * target, so monotone target values only walk each column once.
+ *
+ * @author Yaqiang Wang
+ */
+public class ColumnInterpolator {
+
+    /**
+     * Interpolate the columns of an array along an axis
+     *
+     * @param x Desired interpolated values - 1-D
+     * @param xp The x-coordinates of the data points - same shape as the data,
+     * monotone along the axis in each column
+     * @param a The data to be interpolated
+     * @param axis The axis to interpolate over
+     * @param log If true interpolate linearly in the logarithm of the
+     * coordinates, such as log-pressure interpolation
+     * @return Interpolated data with the axis length replaced by the number of
+     * desired values
+     */
+    public static Array interpolate(Array x, Array xp, Array a, int axis, final boolean log) {
+        int[] shape = xp.getShape();
+        int[] ashape = a.getShape();
+        if (ashape.length != shape.length) {
+            throw new IllegalArgumentException("The data and x-coordinates should have the same shape");
+        }
+        for (int i = 0; i < shape.length; i++) {
+            if (ashape[i] != shape[i]) {
+                throw new IllegalArgumentException("The data and x-coordinates should have the same shape");
+            }
+        }
+        final int nlev = shape[axis];
+        final int nt = (int) x.getSize();
+        final int inner = ReduceUtil.innerSize(shape, axis);
+        final double[] tx = new double[nt];
+        for (int j = 0; j < nt; j++) {
+            tx[j] = log ? Math.log(x.getDouble(j)) : x.getDouble(j);
+        }
+
+        final Array xs = xp;
+        final Array as = a;
+        final int[] xLanes = ReduceUtil.laneOffsets(xp, axis);
+        final int[] aLanes = ReduceUtil.laneOffsets(a, axis);
+        final int xStride = ReduceUtil.axisStride(xp, axis);
+        final int aStride = ReduceUtil.axisStride(a, axis);
+        Object storage = xp.getStorage();
+        final double[] xd = storage instanceof double[] ? (double[]) storage : null;
+        storage = a.getStorage();
+        final double[] ad = storage instanceof double[] ? (double[]) storage : null;
+        final double[] r = new double[xLanes.length * nt];
+        ParallelUtil.forRange(xLanes.length, Math.max(1, ParallelUtil.getThreshold() / (nlev + nt)),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                //Column coordinates - negated for descending columns
+                double[] c = new double[nlev];
+                for (int l = from; l < to; l++) {
+                    for (int k = 0, o = xLanes[l]; k < nlev; k++, o += xStride) {
+                        double v = xd == null ? xs.getDouble(o) : xd[o];
+                        c[k] = log ? Math.log(v) : v;
+                    }
+                    boolean desc = nlev > 1 && c[1] < c[0];
+                    if (desc) {
+                        for (int k = 0; k < nlev; k++) {
+                            c[k] = -c[k];
+                        }
+                    }
+                    int ro = (l / inner) * nt * inner + l % inner;
+                    int ao = aLanes[l];
+                    int k = 0;
+                    for (int j = 0; j < nt; j++, ro += inner) {
+                        double v = desc ? -tx[j] : tx[j];
+                        if (!(v >= c[0] && v <= c[nlev - 1])) {
+                            r[ro] = Double.NaN;
+                            continue;
+                        }
+                        if (v == c[nlev - 1]) {
+                            int o = ao + (nlev - 1) * aStride;
+                            r[ro] = ad == null ? as.getDouble(o) : ad[o];
+                            continue;
+                        }
+                        k = bracket(c, v, k);
+                        int o = ao + k * aStride;
+                        double below = ad == null ? as.getDouble(o) : ad[o];
+                        double above = ad == null ? as.getDouble(o + aStride) : ad[o + aStride];
+                        r[ro] = (v - c[k]) / (c[k + 1] - c[k]) * (above - below) + below;
+                    }
+                }
+            }
+        });
+
+        int[] rshape = shape.clone();
+        rshape[axis] = nt;
+        if (a.getDataType() == DataType.DOUBLE) {
+            return Array.factory(DataType.DOUBLE, rshape, r);
+        }
+        Array ra = Array.factory(a.getDataType(), rshape);
+        for (int i = 0; i < r.length; i++) {
+            ra.setDouble(i, r[i]);
+        }
+        return ra;
+    }
+
+    /**
+     * Find the lower index k of the levels with c[k] <= v < c[k + 1], starting
+     * from a guess. The levels next to the guess are checked first, and a
+     * binary search is used otherwise.
+     */
+    private static int bracket(double[] c, double v, int k) {
+        int n = c.length;
+        if (k > n - 2) {
+            k = n - 2;
+        }
+        if (c[k] <= v) {
+            if (v < c[k + 1]) {
+                return k;
+            }
+            if (k + 2 < n && v < c[k + 2]) {
+                return k + 1;
+            }
+        } else if (k > 0 && c[k - 1] <= v) {
+            return k - 1;
+        }
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c[mid] <= v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+}
@@ -5,8 +5,9 @@
  */
 package org.meteothink.math.interpolate;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.math3.analysis.BivariateFunction;
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.commons.math3.analysis.interpolation.AkimaSplineInterpolator;
@@ -20,7 +21,8 @@ import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
 import org.apache.commons.math3.analysis.interpolation.UnivariateInterpolator;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 import org.meteothink.math.ArrayUtil;
-import org.meteothink.math.KDTree.Euclidean;
+import org.meteothink.math.KDTree;
+import org.meteothink.math.ParallelUtil;
 import org.meteothink.ndarray.Array;
 import org.meteothink.ndarray.DataType;
 
@@ -172,166 +174,7 @@ public class InterpUtil {
      */
     public static Array cressman(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
             List<Number> radList) {
-        int xNum = X.size();
-        int yNum = Y.size();
-        int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{yNum, xNum});
-        int irad = radList.size();
-        int i, j;
-
-        //Loop through each stn report and convert stn lat/lon to grid coordinates
-        double xMin = X.get(0).doubleValue();
-        double xMax;
-        double yMin = Y.get(0).doubleValue();
-        double yMax;
-        double xDelt = X.get(1).doubleValue() - X.get(0).doubleValue();
-        double yDelt = Y.get(1).doubleValue() - Y.get(0).doubleValue();
-        double x, y;
-        double sum;
-        double[][] stationData = new double[pNum][5];
-        for (i = 0; i < pNum; i++) {
-            x = x_s.get(i).doubleValue();
-            y = y_s.get(i).doubleValue();
-            stationData[i][0] = x;
-            stationData[i][1] = y;
-            stationData[i][2] = v_s.getDouble(i);
-            stationData[i][3] = (x - xMin) / xDelt;
-            stationData[i][4] = (y - yMin) / yDelt;
-        }
-
-        //Construct K-D tree
-        Euclidean<double[]> kdTree = new Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(stationData[i][2]))
-                kdTree.addPoint(new double[]{stationData[i][0], stationData[i][1]}, stationData[i]);
-        }
-
-        double HITOP = -999900000000000000000.0;
-        double HIBOT = 999900000000000000000.0;
-        double[][] TOP = new double[yNum][xNum];
-        double[][] BOT = new double[yNum][xNum];
-        for (i = 0; i < yNum; i++) {
-            for (j = 0; j < xNum; j++) {
-                TOP[i][j] = HITOP;
-                BOT[i][j] = HIBOT;
-            }
-        }
-
-        //Initial grid values are average of station reports within the first radius
-        double val, sx, sy, sxi, syi;
-        double rad;
-        int stNum;
-        if (radList.size() > 0) {
-            rad = radList.get(0).doubleValue();
-        } else {
-            rad = 4;
-        }
-        for (i = 0; i < yNum; i++) {
-            y = Y.get(i).doubleValue();
-            for (j = 0; j < xNum; j++) {
-                x = X.get(j).doubleValue();
-                stNum = 0;
-                sum = 0;
-                ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                for (double[] station : neighbours) {
-                    val = station[2];
-                    sum += val;
-                    stNum += 1;
-                    if (TOP[i][j] < val) {
-                        TOP[i][j] = val;
-                    }
-                    if (BOT[i][j] > val) {
-                        BOT[i][j] = val;
-                    }
-                }
-                if (stNum == 0) {
-                    r.setDouble(i * xNum + j, Double.NaN);
-                } else {
-                    r.setDouble(i * xNum + j, sum / stNum);
-                }
-            }
-        }
-
-        //Perform the objective analysis
-        for (int p = 0; p < irad; p++) {
-            rad = radList.get(p).doubleValue();
-            for (i = 0; i < yNum; i++) {
-                y = Y.get(i).doubleValue();
-                for (j = 0; j < xNum; j++) {
-                    if (Double.isNaN(r.getDouble(i * xNum + j))) {
-                        continue;
-                    }
-
-                    x = X.get(j).doubleValue();
-                    sum = 0;
-                    double wSum = 0;
-                    ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                    for (double[] station : neighbours) {
-                        val = station[2];
-                        sx = station[0];
-                        sy = station[1];
-                        sxi = station[3];
-                        syi = station[4];
-                        
-                        if (sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
-                            continue;
-                        }
-                        
-                        double dis = Math.sqrt(Math.pow(sx - x, 2) + Math.pow(sy - y, 2));
-
-                        int i1 = (int) syi;
-                        int j1 = (int) sxi;
-                        int i2 = i1 + 1;
-                        int j2 = j1 + 1;
-                        double a = r.getDouble(i1 * xNum + j1);
-                        double b = r.getDouble(i1 * xNum + j2);
-                        double c = r.getDouble(i2 * xNum + j1);
-                        double d = r.getDouble(i2 * xNum + j2);
-                        List<Double> dList = new ArrayList<>();
-                        if (!Double.isNaN(a)) {
-                            dList.add(a);
-                        }
-                        if (!Double.isNaN(b)) {
-                            dList.add(b);
-                        }
-                        if (!Double.isNaN(c)) {
-                            dList.add(c);
-                        }
-                        if (Double.isNaN(d)) {
-                            dList.add(d);
-                        }
-
-                        double calVal;
-                        if (dList.isEmpty()) {
-                            continue;
-                        } else if (dList.size() == 1) {
-                            calVal = dList.get(0);
-                        } else if (dList.size() <= 3) {
-                            double aSum = 0;
-                            for (double dd : dList) {
-                                aSum += dd;
-                            }
-                            calVal = aSum / dList.size();
-                        } else {
-                            double x1val = a + (c - a) * (syi - i1);
-                            double x2val = b + (d - b) * (syi - i1);
-                            calVal = x1val + (x2val - x1val) * (sxi - j1);
-                        }
-                        double eVal = val - calVal;
-                        double w = (rad * rad - dis * dis) / (rad * rad + dis * dis);
-                        sum += eVal * w;
-                        wSum += w;
-                    }
-                    if (wSum >= 0.000001) {
-                        double aData = r.getDouble(i * xNum + j) + sum / wSum;
-                        r.setDouble(i * xNum + j, Math.max(BOT[i][j], Math.min(TOP[i][j], aData)));
-                    }
-                }
-            }
-        }
-
-        //Return
-        return r;
+        return objectiveAnalysis(x_s, y_s, v_s, X, Y, radList, false, 0, 0);
     }
 
     /**
@@ -351,171 +194,7 @@ public class InterpUtil {
      */
     public static Array barnes(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
             List<Number> radList, double kappa, double gamma) {
-        int xNum = X.size();
-        int yNum = Y.size();
-        int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{yNum, xNum});
-        int irad = radList.size();
-        int i, j;
-
-        //Loop through each stn report and convert stn lat/lon to grid coordinates
-        double xMin = X.get(0).doubleValue();
-        double xMax;
-        double yMin = Y.get(0).doubleValue();
-        double yMax;
-        double xDelt = X.get(1).doubleValue() - X.get(0).doubleValue();
-        double yDelt = Y.get(1).doubleValue() - Y.get(0).doubleValue();
-        double x, y;
-        double sum, wSum, w;
-        double[][] stationData = new double[pNum][5];
-        for (i = 0; i < pNum; i++) {
-            x = x_s.get(i).doubleValue();
-            y = y_s.get(i).doubleValue();
-            stationData[i][0] = x;
-            stationData[i][1] = y;
-            stationData[i][2] = v_s.getDouble(i);
-            stationData[i][3] = (x - xMin) / xDelt;
-            stationData[i][4] = (y - yMin) / yDelt;
-        }
-
-        //Construct K-D tree
-        Euclidean<double[]> kdTree = new Euclidean<>(2);
-        for (i = 0; i < pNum; i++) {
-            if (!Double.isNaN(stationData[i][2]))
-                kdTree.addPoint(new double[]{stationData[i][0], stationData[i][1]}, stationData[i]);
-        }
-
-        double HITOP = -999900000000000000000.0;
-        double HIBOT = 999900000000000000000.0;
-        double[][] TOP = new double[yNum][xNum];
-        double[][] BOT = new double[yNum][xNum];
-        for (i = 0; i < yNum; i++) {
-            for (j = 0; j < xNum; j++) {
-                TOP[i][j] = HITOP;
-                BOT[i][j] = HIBOT;
-            }
-        }
-
-        //Initial grid values are average of station reports within the first radius
-        double val, sx, sy, sxi, syi;
-        double rad;
-        int stNum;
-        if (radList.size() > 0) {
-            rad = radList.get(0).doubleValue();
-        } else {
-            rad = 4;
-        }
-        for (i = 0; i < yNum; i++) {
-            y = Y.get(i).doubleValue();
-            for (j = 0; j < xNum; j++) {
-                x = X.get(j).doubleValue();
-                stNum = 0;
-                sum = 0;
-                wSum = 0;
-                ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                for (double[] station : neighbours) {
-                    val = station[2];
-                    sx = station[0];
-                    sy = station[1];
-                    double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                    w = Math.exp(-dis / (4 * kappa));
-                    wSum += w;
-                    sum += w * val;
-                    stNum += 1;
-                    if (TOP[i][j] < val) {
-                        TOP[i][j] = val;
-                    }
-                    if (BOT[i][j] > val) {
-                        BOT[i][j] = val;
-                    }
-                }
-                if (stNum == 0) {
-                    r.setDouble(i * xNum + j, Double.NaN);
-                } else {
-                    r.setDouble(i * xNum + j, sum / stNum);
-                }
-            }
-        }
-
-        //Perform the objective analysis
-        for (int p = 0; p < irad; p++) {
-            rad = radList.get(p).doubleValue();
-            for (i = 0; i < yNum; i++) {
-                y = Y.get(i).doubleValue();
-                for (j = 0; j < xNum; j++) {
-                    if (Double.isNaN(r.getDouble(i * xNum + j))) {
-                        continue;
-                    }
-
-                    x = X.get(j).doubleValue();
-                    sum = 0;
-                    wSum = 0;
-                    ArrayList<double[]> neighbours = kdTree.ballSearch(new double[]{x, y}, rad * rad);
-                    for (double[] station : neighbours) {
-                        val = station[2];
-                        sx = station[0];
-                        sy = station[1];
-                        sxi = station[3];
-                        syi = station[4];
-                        
-                        if (sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
-                            continue;
-                        }
-                        
-                        double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                        int i1 = (int) syi;
-                        int j1 = (int) sxi;
-                        int i2 = i1 + 1;
-                        int j2 = j1 + 1;
-                        double a = r.getDouble(i1 * xNum + j1);
-                        double b = r.getDouble(i1 * xNum + j2);
-                        double c = r.getDouble(i2 * xNum + j1);
-                        double d = r.getDouble(i2 * xNum + j2);
-                        List<Double> dList = new ArrayList<>();
-                        if (!Double.isNaN(a)) {
-                            dList.add(a);
-                        }
-                        if (!Double.isNaN(b)) {
-                            dList.add(b);
-                        }
-                        if (!Double.isNaN(c)) {
-                            dList.add(c);
-                        }
-                        if (Double.isNaN(d)) {
-                            dList.add(d);
-                        }
-
-                        double calVal;
-                        if (dList.isEmpty()) {
-                            continue;
-                        } else if (dList.size() == 1) {
-                            calVal = dList.get(0);
-                        } else if (dList.size() <= 3) {
-                            double aSum = 0;
-                            for (double dd : dList) {
-                                aSum += dd;
-                            }
-                            calVal = aSum / dList.size();
-                        } else {
-                            double x1val = a + (c - a) * (syi - i1);
-                            double x2val = b + (d - b) * (syi - i1);
-                            calVal = x1val + (x2val - x1val) * (sxi - j1);
-                        }
-                        double eVal = val - calVal;
-                        w = Math.exp(-dis / (4 * kappa * gamma));
-                        sum += eVal * w;
-                        wSum += w;
-                    }
-                    if (wSum >= 0.000001) {
-                        double aData = r.getDouble(i * xNum + j) + sum / wSum;
-                        r.setDouble(i * xNum + j, Math.max(BOT[i][j], Math.min(TOP[i][j], aData)));
-                    }
-                }
-            }
-        }
-
-        //Return
-        return r;
+        return objectiveAnalysis(x_s, y_s, v_s, X, Y, radList, true, kappa, gamma);
     }
 
     /**
@@ -533,127 +212,390 @@ public class InterpUtil {
      * @return result grid data
      */
     public static Array barnes(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X, List<Number> Y,
-            double kappa, double gamma) {
-        int xNum = X.size();
-        int yNum = Y.size();
+            final double kappa, final double gamma) {
+        final int xNum = X.size();
+        final int yNum = Y.size();
         int pNum = x_s.size();
-        Array r = Array.factory(DataType.DOUBLE, new int[]{yNum, xNum});
-        int i, j;
-
-        //Loop through each stn report and convert stn lat/lon to grid coordinates
-        double xMin = X.get(0).doubleValue();
-        double xMax = X.get(xNum - 1).doubleValue();
-        double yMin = Y.get(0).doubleValue();
-        double yMax = Y.get(yNum - 1).doubleValue();
-        double xDelt = X.get(1).doubleValue() - X.get(0).doubleValue();
-        double yDelt = Y.get(1).doubleValue() - Y.get(0).doubleValue();
-        double x, y;
-        double sum;
-        double[][] stationData = new double[pNum][5];
-        for (i = 0; i < pNum; i++) {
-            x = x_s.get(i).doubleValue();
-            y = y_s.get(i).doubleValue();
-            stationData[i][0] = x;
-            stationData[i][1] = y;
-            stationData[i][2] = v_s.getDouble(i);
-            stationData[i][3] = (x - xMin) / xDelt;
-            stationData[i][4] = (y - yMin) / yDelt;
+        final double[] gx = toDoubleArray(X);
+        final double[] gy = toDoubleArray(Y);
+        final Stations st = new Stations(x_s, y_s, v_s, gx, gy);
+
+        //Stations with valid values inside the grid extent
+        double xMin = Math.min(gx[0], gx[xNum - 1]);
+        double xMax = Math.max(gx[0], gx[xNum - 1]);
+        double yMin = Math.min(gy[0], gy[yNum - 1]);
+        double yMax = Math.max(gy[0], gy[yNum - 1]);
+        int n = 0;
+        int[] ids = new int[pNum];
+        for (int s = 0; s < pNum; s++) {
+            if (Double.isNaN(st.v[s]) || st.x[s] < xMin || st.x[s] > xMax || st.y[s] < yMin || st.y[s] > yMax) {
+                continue;
+            }
+            ids[n] = s;
+            n += 1;
         }
+        final int[] valid = Arrays.copyOf(ids, n);
 
         //First guess values
-        double val, sx, sy, sxi, syi;
-        for (i = 0; i < yNum; i++) {
-            y = Y.get(i).doubleValue();
-            for (j = 0; j < xNum; j++) {
-                x = X.get(j).doubleValue();
-                sum = 0;
-                double wSum = 0;
-                double w;
-                for (double[] station : stationData) {
-                    val = station[2];
-                    sx = station[0];
-                    sy = station[1];
-                    if (Double.isNaN(val) || sx < xMin || sx > xMax || sy < yMin || sy > yMax) {
-                        continue;
+        final double[] g = new double[yNum * xNum];
+        ParallelUtil.forRange(yNum, 1, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    for (int j = 0; j < xNum; j++) {
+                        double sum = 0;
+                        double wSum = 0;
+                        for (int s : valid) {
+                            double dis = sqr(st.x[s] - gx[j]) + sqr(st.y[s] - gy[i]);
+                            double w = Math.exp(-dis / (4 * kappa));
+                            wSum += w;
+                            sum += w * st.v[s];
+                        }
+                        g[i * xNum + j] = sum / wSum;
                     }
-
-                    double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                    w = Math.exp(-dis / (4 * kappa));
-                    wSum += w;
-                    sum += w * val;
                 }
-                r.setDouble(i * xNum + j, sum / wSum);
             }
-        }
+        });
 
         //Second pass
-        for (i = 0; i < yNum; i++) {
-            y = Y.get(i).doubleValue();
-            for (j = 0; j < xNum; j++) {
-                x = X.get(j).doubleValue();
-                sum = 0;
-                double wSum = 0;
-                double w;
-                for (double[] station : stationData) {
-                    val = station[2];
-                    sx = station[0];
-                    sy = station[1];
-                    sxi = station[3];
-                    syi = station[4];
-                    if (Double.isNaN(val) || sx < xMin || sx > xMax || sy < yMin || sy > yMax) {
-                        continue;
+        final double[] e = st.increments(g, xNum, yNum);
+        ParallelUtil.forRange(yNum, 1, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    for (int j = 0; j < xNum; j++) {
+                        double sum = 0;
+                        double wSum = 0;
+                        for (int s : valid) {
+                            if (Double.isNaN(e[s])) {
+                                continue;
+                            }
+                            double dis = sqr(st.x[s] - gx[j]) + sqr(st.y[s] - gy[i]);
+                            double w = Math.exp(-dis / (4 * kappa * gamma));
+                            wSum += w;
+                            sum += w * e[s];
+                        }
+                        g[i * xNum + j] += sum / wSum;
                     }
+                }
+            }
+        });
+
+        //Return
+        return Array.factory(DataType.DOUBLE, new int[]{yNum, xNum}, g);
+    }
 
-                    int i1 = (int) syi;
-                    int j1 = (int) sxi;
-                    int i2 = i1 + 1;
-                    int j2 = j1 + 1;
-                    double a = r.getDouble(i1 * xNum + j1);
-                    double b = r.getDouble(i1 * xNum + j2);
-                    double c = r.getDouble(i2 * xNum + j1);
-                    double d = r.getDouble(i2 * xNum + j2);
-                    List<Double> dList = new ArrayList<>();
-                    if (!Double.isNaN(a)) {
-                        dList.add(a);
+    // <editor-fold desc="Objective analysis">
+    /**
+     * Scatter stations of an objective analysis - flat coordinate, value and
+     * fractional grid index arrays.
+     */
+    private static class Stations {
+
+        final double[] x;
+        final double[] y;
+        final double[] v;
+        final double[] xi;
+        final double[] yi;
+
+        Stations(List<Number> x_s, List<Number> y_s, Array v_s, double[] gx, double[] gy) {
+            int n = x_s.size();
+            x = new double[n];
+            y = new double[n];
+            v = new double[n];
+            xi = new double[n];
+            yi = new double[n];
+            double xDelt = gx[1] - gx[0];
+            double yDelt = gy[1] - gy[0];
+            for (int s = 0; s < n; s++) {
+                x[s] = x_s.get(s).doubleValue();
+                y[s] = y_s.get(s).doubleValue();
+                v[s] = v_s.getDouble(s);
+                xi[s] = (x[s] - gx[0]) / xDelt;
+                yi[s] = (y[s] - gy[0]) / yDelt;
+            }
+        }
+
+        /**
+         * Get the differences between the station values and the grid
+         * analysis interpolated to the stations. A station outside the grid
+         * or without valid surrounding grid values gets NaN. The grid values
+         * of the 4 surrounding grid points are bilinear interpolated, or
+         * averaged if some of them are NaN.
+         *
+         * @param g Grid analysis
+         * @param xNum Grid x number
+         * @param yNum Grid y number
+         * @return Station increments
+         */
+        double[] increments(double[] g, int xNum, int yNum) {
+            int n = v.length;
+            double[] e = new double[n];
+            for (int s = 0; s < n; s++) {
+                double sxi = xi[s];
+                double syi = yi[s];
+                if (Double.isNaN(v[s]) || sxi < 0 || sxi >= xNum - 1 || syi < 0 || syi >= yNum - 1) {
+                    e[s] = Double.NaN;
+                    continue;
+                }
+
+                int i1 = (int) syi;
+                int j1 = (int) sxi;
+                int i2 = i1 + 1;
+                int j2 = j1 + 1;
+                double a = g[i1 * xNum + j1];
+                double b = g[i1 * xNum + j2];
+                double c = g[i2 * xNum + j1];
+                double d = g[i2 * xNum + j2];
+                double calVal;
+                if (Double.isNaN(a) || Double.isNaN(b) || Double.isNaN(c) || Double.isNaN(d)) {
+                    double aSum = 0;
+                    int aNum = 0;
+                    for (double dd : new double[]{a, b, c, d}) {
+                        if (!Double.isNaN(dd)) {
+                            aSum += dd;
+                            aNum += 1;
+                        }
                     }
-                    if (!Double.isNaN(b)) {
-                        dList.add(b);
+                    if (aNum == 0) {
+                        e[s] = Double.NaN;
+                        continue;
                     }
-                    if (!Double.isNaN(c)) {
-                        dList.add(c);
+                    calVal = aSum / aNum;
+                } else {
+                    double x1val = a + (c - a) * (syi - i1);
+                    double x2val = b + (d - b) * (syi - i1);
+                    calVal = x1val + (x2val - x1val) * (sxi - j1);
+                }
+                e[s] = v[s] - calVal;
+            }
+            return e;
+        }
+    }
+
+    private static double[] toDoubleArray(List<Number> values) {
+        double[] r = new double[values.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = values.get(i).doubleValue();
+        }
+        return r;
+    }
+
+    private static double sqr(double v) {
+        return v * v;
+    }
+
+    //Maximum number of cached neighbour entries of the objective analysis
+    private static final long NEIGHBOUR_CACHE_LIMIT = 1L << 22;
+
+    /**
+     * Neighbours of the grid points of a row block - the ids and squared
+     * distances of grid point c are at start[c] to start[c + 1].
+     */
+    private static class Neighbours {
+
+        final int[] start;
+        int[] ids;
+        double[] dis;
+        int size;
+
+        Neighbours(int cellNum) {
+            start = new int[cellNum + 1];
+            ids = new int[cellNum * 4];
+            dis = new double[cellNum * 4];
+        }
+
+        void add(KDTree.QueryContext context, int m) {
+            if (size + m > ids.length) {
+                int len = Math.max(size + m, ids.length * 2);
+                ids = Arrays.copyOf(ids, len);
+                dis = Arrays.copyOf(dis, len);
+            }
+            for (int k = 0; k < m; k++) {
+                ids[size] = context.getId(k);
+                dis[size] = context.getDistance(k);
+                size += 1;
+            }
+        }
+    }
+
+    /**
+     * Search the neighbours of the grid points in rows [from, to)
+     */
+    private static Neighbours searchNeighbours(KDTree.Euclidean<Integer> kdTree, double[] gx, double[] gy,
+            int from, int to, double r2) {
+        int xNum = gx.length;
+        Neighbours nb = new Neighbours((to - from) * xNum);
+        KDTree.QueryContext context = new KDTree.QueryContext();
+        double[] loc = new double[2];
+        //next up so points exactly at the radius are not pruned with their node
+        double sr = Math.nextUp(r2);
+        for (int c = from * xNum, i = 0; c < to * xNum; c++, i++) {
+            loc[0] = gx[c % xNum];
+            loc[1] = gy[c / xNum];
+            nb.add(context, kdTree.ballSearch(loc, sr, context));
+            nb.start[i + 1] = nb.size;
+        }
+        return nb;
+    }
+
+    /**
+     * Successive correction objective analysis - Cressman or Barnes weights.
+     * Each pass interpolates the analysis of the previous pass to the stations
+     * first, and then corrects the grid rows in parallel. The neighbours of
+     * each block of grid rows are searched once in the K-D tree at the largest
+     * radius and filtered by the radius of each pass. The neighbour lists of
+     * the blocks are kept for the following passes up to a fixed number of
+     * entries, and the other blocks are searched again in each pass, so the
+     * memory does not grow with the grid size.
+     */
+    private static Array objectiveAnalysis(List<Number> x_s, List<Number> y_s, Array v_s, List<Number> X,
+            List<Number> Y, List<Number> radList, final boolean isBarnes, final double kappa, final double gamma) {
+        final int xNum = X.size();
+        final int yNum = Y.size();
+        int pNum = x_s.size();
+        final double[] gx = toDoubleArray(X);
+        final double[] gy = toDoubleArray(Y);
+        final Stations st = new Stations(x_s, y_s, v_s, gx, gy);
+
+        //Construct K-D tree of the valid stations
+        int n = 0;
+        for (int s = 0; s < pNum; s++) {
+            if (!Double.isNaN(st.v[s])) {
+                n += 1;
+            }
+        }
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int[] ids = new int[n];
+        n = 0;
+        for (int s = 0; s < pNum; s++) {
+            if (!Double.isNaN(st.v[s])) {
+                xs[n] = st.x[s];
+                ys[n] = st.y[s];
+                ids[n] = s;
+                n += 1;
+            }
+        }
+        final KDTree.Euclidean<Integer> kdTree = KDTree.Euclidean.build(xs, ys, ids);
+
+        double rad;
+        if (radList.size() > 0) {
+            rad = radList.get(0).doubleValue();
+        } else {
+            rad = 4;
+        }
+
+        //Initial grid values are average of station reports within the first radius
+        final double HITOP = -999900000000000000000.0;
+        final double HIBOT = 999900000000000000000.0;
+        final double[] g = new double[yNum * xNum];
+        final double[] top = new double[yNum * xNum];
+        final double[] bot = new double[yNum * xNum];
+        final double r2 = rad * rad;
+        double maxRad = rad;
+        for (Number radius : radList) {
+            maxRad = Math.max(maxRad, radius.doubleValue());
+        }
+        final double maxR2 = maxRad * maxRad;
+        final int blockRows = Math.max(1, 4096 / xNum);
+        final int blockNum = (yNum + blockRows - 1) / blockRows;
+        final Neighbours[] cache = new Neighbours[blockNum];
+        final AtomicLong cacheLeft = new AtomicLong(radList.isEmpty() ? 0 : NEIGHBOUR_CACHE_LIMIT);
+        ParallelUtil.forRange(blockNum, 1, new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int bi = from; bi < to; bi++) {
+                    int row0 = bi * blockRows;
+                    int row1 = Math.min(yNum, row0 + blockRows);
+                    Neighbours nb = searchNeighbours(kdTree, gx, gy, row0, row1, maxR2);
+                    if (cacheLeft.addAndGet(-nb.size) >= 0) {
+                        cache[bi] = nb;
                     }
-                    if (Double.isNaN(d)) {
-                        dList.add(d);
+                    for (int c = row0 * xNum, i = 0; c < row1 * xNum; c++, i++) {
+                        double sum = 0;
+                        double wSum = 0;
+                        int stNum = 0;
+                        double t = HITOP;
+                        double b = HIBOT;
+                        for (int k = nb.start[i]; k < nb.start[i + 1]; k++) {
+                            double dis = nb.dis[k];
+                            if (dis > r2) {
+                                continue;
+                            }
+                            double val = st.v[nb.ids[k]];
+                            if (isBarnes) {
+                                double w = Math.exp(-dis / (4 * kappa));
+                                wSum += w;
+                                sum += w * val;
+                            } else {
+                                sum += val;
+                            }
+                            stNum += 1;
+                            t = Math.max(t, val);
+                            b = Math.min(b, val);
+                        }
+                        top[c] = t;
+                        bot[c] = b;
+                        if (stNum == 0) {
+                            g[c] = Double.NaN;
+                        } else {
+                            g[c] = isBarnes ? sum / wSum : sum / stNum;
+                        }
                     }
+                }
+            }
+        });
 
-                    double calVal;
-                    if (dList.isEmpty()) {
-                        continue;
-                    } else if (dList.size() == 1) {
-                        calVal = dList.get(0);
-                    } else if (dList.size() <= 3) {
-                        double aSum = 0;
-                        for (double dd : dList) {
-                            aSum += dd;
+        //Perform the objective analysis
+        for (Number radius : radList) {
+            rad = radius.doubleValue();
+            final double rr = rad * rad;
+            final double[] e = st.increments(g, xNum, yNum);
+            ParallelUtil.forRange(blockNum, 1, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int bi = from; bi < to; bi++) {
+                        int row0 = bi * blockRows;
+                        int row1 = Math.min(yNum, row0 + blockRows);
+                        Neighbours nb = cache[bi];
+                        if (nb == null) {
+                            nb = searchNeighbours(kdTree, gx, gy, row0, row1, maxR2);
                         }
-                        calVal = aSum / dList.size();
-                    } else {
-                        double x1val = a + (c - a) * (syi - i1);
-                        double x2val = b + (d - b) * (syi - i1);
-                        calVal = x1val + (x2val - x1val) * (sxi - j1);
-                    }
-                    double eVal = val - calVal;
+                        for (int c = row0 * xNum, i = 0; c < row1 * xNum; c++, i++) {
+                            if (Double.isNaN(g[c])) {
+                                continue;
+                            }
 
-                    double dis = Math.pow(sx - x, 2) + Math.pow(sy - y, 2);
-                    w = Math.exp(-dis / (4 * kappa * gamma));
-                    wSum += w;
-                    sum += w * eVal;
+                            double sum = 0;
+                            double wSum = 0;
+                            for (int k = nb.start[i]; k < nb.start[i + 1]; k++) {
+                                double dis = nb.dis[k];
+                                double eVal = e[nb.ids[k]];
+                                if (dis > rr || Double.isNaN(eVal)) {
+                                    continue;
+                                }
+                                double w;
+                                if (isBarnes) {
+                                    w = Math.exp(-dis / (4 * kappa * gamma));
+                                } else {
+                                    w = (rr - dis) / (rr + dis);
+                                }
+                                sum += eVal * w;
+                                wSum += w;
+                            }
+                            if (wSum >= 0.000001) {
+                                double aData = g[c] + sum / wSum;
+                                g[c] = Math.max(bot[c], Math.min(top[c], aData));
+                            }
+                        }
+                    }
                 }
-                r.setDouble(i * xNum + j, r.getDouble(i * xNum + j) + sum / wSum);
-            }
+            });
         }
 
         //Return
-        return r;
+        return Array.factory(DataType.DOUBLE, new int[]{yNum, xNum}, g);
     }
+    // </editor-fold>
 }
@@ -0,0 +1,189 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.interpolate;
+
+import java.util.List;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Multilinear interpolation on a regular grid in n dimensions. The grid
+ * coordinates are kept in primitive arrays and the storage offsets of the 2^n
+ * corners of a grid cell are computed once, so interpolating a point needs one
+ * binary search per axis and no allocation. Batches of points are interpolated
+ * in parallel.
+ *
+ * @author Yaqiang Wang
+ */
+public class RegularGridInterpolator {
+
+    private final int ndim;
+    //Grid coordinates - negated for descending axes so all are ascending
+    private final double[][] axes;
+    private final boolean[] descending;
+    private final int[] stride;
+    //Storage offsets of the cell corners, the first dimension is the highest bit
+    private final int[] corners;
+    private final Array values;
+    private final double[] dvalues;
+
+    /**
+     * Constructor
+     *
+     * @param points The points defining the regular grid in n dimensions -
+     * ascending or descending
+     * @param values The data on the regular grid in n dimensions
+     */
+    public RegularGridInterpolator(List<Array> points, Array values) {
+        this.ndim = points.size();
+        int[] shape = values.getShape();
+        if (shape.length != ndim) {
+            throw new IllegalArgumentException("There are " + ndim + " point arrays, but values has "
+                    + shape.length + " dimensions");
+        }
+        this.axes = new double[ndim][];
+        this.descending = new boolean[ndim];
+        this.stride = new int[ndim];
+        int s = 1;
+        for (int k = ndim - 1; k >= 0; k--) {
+            double[] a = ((double[]) points.get(k).get1DJavaArray(double.class)).clone();
+            if (a.length != shape[k]) {
+                throw new IllegalArgumentException("There are " + a.length + " points in dimension " + k
+                        + ", but values has " + shape[k]);
+            }
+            if (a.length < 2) {
+                throw new IllegalArgumentException("There must be at least 2 points in dimension " + k);
+            }
+            if (a[1] < a[0]) {
+                descending[k] = true;
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = -a[i];
+                }
+            }
+            axes[k] = a;
+            stride[k] = s;
+            s *= shape[k];
+        }
+        this.corners = new int[1 << ndim];
+        for (int c = 0; c < corners.length; c++) {
+            int o = 0;
+            for (int k = 0; k < ndim; k++) {
+                if (((c >> (ndim - 1 - k)) & 1) != 0) {
+                    o += stride[k];
+                }
+            }
+            corners[c] = o;
+        }
+        this.values = values.getIndexPrivate().isFastIterator() ? values : values.copy();
+        Object storage = this.values.getStorage();
+        this.dvalues = storage instanceof double[] ? (double[]) storage : null;
+    }
+
+    /**
+     * Get number of dimensions
+     *
+     * @return Number of dimensions
+     */
+    public int getNDim() {
+        return ndim;
+    }
+
+    /**
+     * Interpolate at a point
+     *
+     * @param x The coordinates of the point
+     * @return Interpolated value, NaN if the point is out of the grid
+     */
+    public double interpolate(double[] x) {
+        return interpolate(x, 0, new double[1 << ndim]);
+    }
+
+    /**
+     * Interpolate at many points. The last dimension of the coordinate array
+     * is the grid dimensions, and the shape of the result is the shape of the
+     * leading dimensions.
+     *
+     * @param xi The coordinates of the points - (..., n)
+     * @return Interpolated values - NaN for the points out of the grid
+     */
+    public Array interpolate(Array xi) {
+        int[] shape = xi.getShape();
+        int rank = shape.length;
+        if (shape[rank - 1] != ndim) {
+            throw new IllegalArgumentException("The last dimension of the coordinates should be " + ndim);
+        }
+        int[] rshape = new int[rank - 1];
+        System.arraycopy(shape, 0, rshape, 0, rank - 1);
+        final double[] x = (double[]) xi.get1DJavaArray(double.class);
+        final int n = x.length / ndim;
+        final double[] r = new double[n];
+        ParallelUtil.forRange(n, Math.max(1, ParallelUtil.getThreshold() >> ndim), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] w = new double[corners.length];
+                for (int i = from; i < to; i++) {
+                    r[i] = interpolate(x, i * ndim, w);
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, rshape, r);
+    }
+
+    /**
+     * Interpolate at a point
+     *
+     * @param x Coordinates buffer
+     * @param off Offset of the point coordinates in the buffer
+     * @param w Corner weights buffer
+     * @return Interpolated value
+     */
+    private double interpolate(double[] x, int off, double[] w) {
+        int base = 0;
+        int nw = 1;
+        w[0] = 1;
+        for (int k = 0; k < ndim; k++) {
+            double[] a = axes[k];
+            double v = descending[k] ? -x[off + k] : x[off + k];
+            int n = a.length;
+            if (!(v >= a[0] && v <= a[n - 1])) {
+                return Double.NaN;
+            }
+            //Number of coordinates not greater than v, minus 1
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (a[mid] <= v) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int j = Math.min(lo - 1, n - 2);
+            double t = (v - a[j]) / (a[j + 1] - a[j]);
+            base += j * stride[k];
+            //Split the weights of the previous dimensions into the two sides
+            for (int c = nw - 1; c >= 0; c--) {
+                w[2 * c + 1] = w[c] * t;
+                w[2 * c] = w[c] * (1 - t);
+            }
+            nw <<= 1;
+        }
+
+        double r = 0;
+        if (dvalues == null) {
+            for (int c = 0; c < nw; c++) {
+                r += values.getDouble(base + corners[c]) * w[c];
+            }
+        } else {
+            for (int c = 0; c < nw; c++) {
+                r += dvalues[base + corners[c]] * w[c];
+            }
+        }
+        return r;
+    }
+}
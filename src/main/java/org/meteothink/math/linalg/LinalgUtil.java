@@ -5,6 +5,7 @@
  */
 package org.meteothink.math.linalg;
 
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
 import org.apache.commons.math3.fitting.leastsquares.LeastSquaresOptimizer;
@@ -21,6 +22,7 @@ import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.QRDecomposition;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularMatrixException;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.apache.commons.math3.util.Pair;
 import org.ejml.data.Complex_F64;
@@ -29,6 +31,7 @@ import org.ejml.simple.SimpleEVD;
 import org.ejml.simple.SimpleMatrix;
 import org.ejml.simple.SimpleSVD;
 import org.meteothink.math.ArrayUtil;
+import org.meteothink.math.ParallelUtil;
 import org.meteothink.ndarray.Complex;
 import org.meteothink.ndarray.Array;
 import org.meteothink.ndarray.DataType;
@@ -42,11 +45,14 @@ public class LinalgUtil {
     /**
      * Solve a linear matrix equation, or system of linear scalar equations.
      *
-     * @param a Coefficient matrix.
+     * @param a Coefficient matrix, or stacked matrices (..., n, n).
      * @param b Ordinate or “dependent variable” values.
      * @return Solution to the system a x = b. Returned shape is identical to b.
      */
     public static Array solve(Array a, Array b) {
+        if (a.getRank() != 2 || b.getRank() != 1) {
+            return solveBatch(a, b);
+        }
         Array r = Array.factory(DataType.DOUBLE, b.getShape());
         double[][] aa = (double[][]) ArrayUtil.copyToNDJavaArray(a);
         RealMatrix coefficients = new Array2DRowRealMatrix(aa, false);
@@ -67,10 +73,13 @@ public class LinalgUtil {
      * a lower triangular matrix L with same size such that: A = LLT. In a
      * sense, this is the square root of A.
      *
-     * @param a The given matrix.
+     * @param a The given matrix, or stacked matrices (..., n, n).
      * @return Result array.
      */
     public static Array cholesky(Array a) {
+        if (a.getRank() > 2) {
+            return choleskyBatch(a);
+        }
         Array r = Array.factory(DataType.DOUBLE, a.getShape());
         double[][] aa = (double[][]) ArrayUtil.copyToNDJavaArray(a);
         RealMatrix matrix = new Array2DRowRealMatrix(aa, false);
@@ -396,10 +405,13 @@ public class LinalgUtil {
     /**
      * Calculate inverse matrix
      *
-     * @param a The matrix
+     * @param a The matrix, or stacked matrices (..., n, n)
      * @return Inverse matrix array
      */
     public static Array inv(Array a) {
+        if (a.getRank() > 2) {
+            return invBatch(a);
+        }
         double[][] aa = (double[][]) ArrayUtil.copyToNDJavaArray(a);
         RealMatrix matrix = new Array2DRowRealMatrix(aa, false);
         RealMatrix invm = MatrixUtils.inverse(matrix);
@@ -464,6 +476,364 @@ public class LinalgUtil {
         return x;
     }
     
+    // <editor-fold desc="Batched">
+    /**
+     * Stack of square matrices (..., n, n) read from primitive storage
+     */
+    private static class MatrixStack {
+
+        final Array src;
+        final double[] data;
+        final int n;
+        final int count;
+        final int[] batchShape;
+
+        MatrixStack(Array a) {
+            int rank = a.getRank();
+            if (rank < 2) {
+                throw new IllegalArgumentException("The array must be at least 2 dimensions");
+            }
+            int[] shape = a.getShape();
+            if (shape[rank - 1] != shape[rank - 2]) {
+                throw new IllegalArgumentException("The last two dimensions must be square");
+            }
+            this.src = a.getIndexPrivate().isFastIterator() ? a : a.copy();
+            Object s = src.getStorage();
+            this.data = s instanceof double[] ? (double[]) s : null;
+            this.n = shape[rank - 1];
+            this.batchShape = Arrays.copyOf(shape, rank - 2);
+            int c = 1;
+            for (int i = 0; i < rank - 2; i++) {
+                c *= shape[i];
+            }
+            this.count = c;
+        }
+
+        /**
+         * Copy the matrix of a batch index into a buffer (row major)
+         */
+        void read(int b, double[] buf) {
+            int nn = n * n;
+            int off = b * nn;
+            if (data != null) {
+                System.arraycopy(data, off, buf, 0, nn);
+            } else {
+                for (int i = 0; i < nn; i++) {
+                    buf[i] = src.getDouble(off + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * LU decomposition with partial pivoting in place (row major, unit lower
+     * triangle below the diagonal)
+     *
+     * @return Sign of the row permutation, 0 if the matrix is singular, NaN
+     * if the matrix has missing values
+     */
+    private static double luDecompose(double[] lu, int n, int[] piv) {
+        double sign = 1;
+        for (int i = 0; i < n; i++) {
+            piv[i] = i;
+        }
+        for (int k = 0; k < n; k++) {
+            int p = k;
+            double max = Math.abs(lu[k * n + k]);
+            boolean nan = Double.isNaN(max);
+            for (int i = k + 1; i < n; i++) {
+                double v = Math.abs(lu[i * n + k]);
+                if (v > max) {
+                    max = v;
+                    p = i;
+                } else if (Double.isNaN(v)) {
+                    nan = true;
+                }
+            }
+            if (nan) {
+                Arrays.fill(lu, Double.NaN);
+                return Double.NaN;
+            }
+            if (max == 0) {
+                return 0;
+            }
+            if (p != k) {
+                for (int j = 0; j < n; j++) {
+                    double t = lu[p * n + j];
+                    lu[p * n + j] = lu[k * n + j];
+                    lu[k * n + j] = t;
+                }
+                int t = piv[p];
+                piv[p] = piv[k];
+                piv[k] = t;
+                sign = -sign;
+            }
+            double d = lu[k * n + k];
+            for (int i = k + 1; i < n; i++) {
+                double f = lu[i * n + k] /= d;
+                if (f != 0) {
+                    for (int j = k + 1; j < n; j++) {
+                        lu[i * n + j] -= f * lu[k * n + j];
+                    }
+                }
+            }
+        }
+        return sign;
+    }
+
+    /**
+     * Solve LU x = P b for one right hand side column in place
+     */
+    private static void luSolve(double[] lu, int n, int[] piv, double[] b, double[] x, int off, int stride) {
+        for (int i = 0; i < n; i++) {
+            double s = b[off + piv[i] * stride];
+            for (int j = 0; j < i; j++) {
+                s -= lu[i * n + j] * x[j];
+            }
+            x[i] = s;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int j = i + 1; j < n; j++) {
+                s -= lu[i * n + j] * x[j];
+            }
+            x[i] = s / lu[i * n + i];
+        }
+    }
+
+    private static int minBatch(int n) {
+        return Math.max(1, ParallelUtil.getThreshold() / Math.max(1, n * n * n));
+    }
+
+    /**
+     * Compute the determinants of a stack of matrices by LU decomposition
+     *
+     * @param a Input array (..., n, n)
+     * @return Determinant array (...), NaN for matrices with missing values
+     */
+    public static Array det(Array a) {
+        final MatrixStack ms = new MatrixStack(a);
+        final int n = ms.n;
+        final double[] r = new double[ms.count];
+        ParallelUtil.forRange(ms.count, minBatch(n), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] lu = new double[n * n];
+                int[] piv = new int[n];
+                for (int b = from; b < to; b++) {
+                    ms.read(b, lu);
+                    double d = luDecompose(lu, n, piv);
+                    for (int i = 0; i < n && d != 0; i++) {
+                        d *= lu[i * n + i];
+                    }
+                    r[b] = d;
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, ms.batchShape, r);
+    }
+
+    /**
+     * Compute the signs and natural logarithms of the absolute determinants
+     * of a stack of matrices by LU decomposition. The logarithm does not
+     * overflow or underflow like the determinant of a large matrix.
+     *
+     * @param a Input array (..., n, n)
+     * @return Sign (1, -1 or 0 for singular matrices) and log absolute
+     * determinant (-Infinity for singular matrices) arrays (...), both NaN
+     * for matrices with missing values
+     */
+    public static Array[] slogdet(Array a) {
+        final MatrixStack ms = new MatrixStack(a);
+        final int n = ms.n;
+        final double[] sign = new double[ms.count];
+        final double[] logdet = new double[ms.count];
+        ParallelUtil.forRange(ms.count, minBatch(n), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] lu = new double[n * n];
+                int[] piv = new int[n];
+                for (int b = from; b < to; b++) {
+                    ms.read(b, lu);
+                    double s = luDecompose(lu, n, piv);
+                    double l = Double.isNaN(s) ? Double.NaN : 0;
+                    for (int i = 0; i < n && s != 0 && !Double.isNaN(s); i++) {
+                        double d = lu[i * n + i];
+                        if (d < 0) {
+                            s = -s;
+                        }
+                        l += Math.log(Math.abs(d));
+                    }
+                    sign[b] = s;
+                    logdet[b] = s == 0 ? Double.NEGATIVE_INFINITY : l;
+                }
+            }
+        });
+
+        return new Array[]{Array.factory(DataType.DOUBLE, ms.batchShape, sign),
+            Array.factory(DataType.DOUBLE, ms.batchShape, logdet)};
+    }
+
+    /**
+     * Solve a stack of linear matrix equations. Singular systems of a stack
+     * give NaN solutions, and a single singular system (2-D coefficient
+     * matrix) throws SingularMatrixException like the 1-D ordinate case of
+     * solve. Systems with missing values give NaN solutions.
+     *
+     * @param a Coefficient matrices (..., n, n)
+     * @param b Ordinate values (..., n) or (..., n, k)
+     * @return Solutions with the shape of b
+     */
+    public static Array solveBatch(Array a, Array b) {
+        final MatrixStack ms = new MatrixStack(a);
+        final int n = ms.n;
+        int[] bshape = b.getShape();
+        int brank = b.getRank();
+        boolean vector = brank == a.getRank() - 1;
+        if (!vector && brank != a.getRank()) {
+            throw new IllegalArgumentException("The ordinate array must be (..., n) or (..., n, k)");
+        }
+        int[] bbatch = Arrays.copyOf(bshape, vector ? brank - 1 : brank - 2);
+        if (!Arrays.equals(bbatch, ms.batchShape) || bshape[bbatch.length] != n) {
+            throw new IllegalArgumentException("The ordinate array does not match the coefficient matrices");
+        }
+        final int k = vector ? 1 : bshape[brank - 1];
+        final Array bsrc = b.getIndexPrivate().isFastIterator() ? b : b.copy();
+        Object s = bsrc.getStorage();
+        final double[] bd = s instanceof double[] ? (double[]) s : null;
+        final double[] r = new double[ms.count * n * k];
+        final boolean single = ms.batchShape.length == 0;
+        ParallelUtil.forRange(ms.count, minBatch(n), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] lu = new double[n * n];
+                int[] piv = new int[n];
+                double[] rhs = new double[n * k];
+                double[] x = new double[n];
+                for (int bi = from; bi < to; bi++) {
+                    ms.read(bi, lu);
+                    int off = bi * n * k;
+                    double sign = luDecompose(lu, n, piv);
+                    if (sign == 0 && single) {
+                        throw new SingularMatrixException();
+                    }
+                    if (sign == 0 || Double.isNaN(sign)) {
+                        Arrays.fill(r, off, off + n * k, Double.NaN);
+                        continue;
+                    }
+                    if (bd != null) {
+                        System.arraycopy(bd, off, rhs, 0, n * k);
+                    } else {
+                        for (int i = 0; i < n * k; i++) {
+                            rhs[i] = bsrc.getDouble(off + i);
+                        }
+                    }
+                    for (int c = 0; c < k; c++) {
+                        luSolve(lu, n, piv, rhs, x, c, k);
+                        for (int i = 0; i < n; i++) {
+                            r[off + i * k + c] = x[i];
+                        }
+                    }
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, bshape, r);
+    }
+
+    /**
+     * Calculate the inverse matrices of a stack of matrices. Singular
+     * matrices and matrices with missing values give NaN inverses.
+     *
+     * @param a Input array (..., n, n)
+     * @return Inverse matrix array (..., n, n)
+     */
+    public static Array invBatch(Array a) {
+        final MatrixStack ms = new MatrixStack(a);
+        final int n = ms.n;
+        final double[] r = new double[ms.count * n * n];
+        ParallelUtil.forRange(ms.count, minBatch(n), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] lu = new double[n * n];
+                int[] piv = new int[n];
+                double[] eye = new double[n * n];
+                for (int i = 0; i < n; i++) {
+                    eye[i * n + i] = 1;
+                }
+                double[] x = new double[n];
+                for (int b = from; b < to; b++) {
+                    ms.read(b, lu);
+                    int off = b * n * n;
+                    double sign = luDecompose(lu, n, piv);
+                    if (sign == 0 || Double.isNaN(sign)) {
+                        Arrays.fill(r, off, off + n * n, Double.NaN);
+                        continue;
+                    }
+                    for (int c = 0; c < n; c++) {
+                        luSolve(lu, n, piv, eye, x, c, n);
+                        for (int i = 0; i < n; i++) {
+                            r[off + i * n + c] = x[i];
+                        }
+                    }
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, a.getShape(), r);
+    }
+
+    /**
+     * Calculate the Cholesky decompositions of a stack of symmetric
+     * positive-definite matrices. Only the lower triangles are used, and
+     * matrices which are not positive-definite give NaN factors.
+     *
+     * @param a Input array (..., n, n)
+     * @return Lower triangular factor array (..., n, n)
+     */
+    public static Array choleskyBatch(Array a) {
+        final MatrixStack ms = new MatrixStack(a);
+        final int n = ms.n;
+        final double[] r = new double[ms.count * n * n];
+        ParallelUtil.forRange(ms.count, minBatch(n), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] m = new double[n * n];
+                for (int b = from; b < to; b++) {
+                    ms.read(b, m);
+                    int off = b * n * n;
+                    boolean pd = true;
+                    for (int j = 0; j < n && pd; j++) {
+                        double d = m[j * n + j];
+                        for (int p = 0; p < j; p++) {
+                            d -= r[off + j * n + p] * r[off + j * n + p];
+                        }
+                        if (!(d > 0)) {
+                            pd = false;
+                            break;
+                        }
+                        double l = Math.sqrt(d);
+                        r[off + j * n + j] = l;
+                        for (int i = j + 1; i < n; i++) {
+                            double s = m[i * n + j];
+                            for (int p = 0; p < j; p++) {
+                                s -= r[off + i * n + p] * r[off + j * n + p];
+                            }
+                            r[off + i * n + j] = s / l;
+                        }
+                    }
+                    if (!pd) {
+                        Arrays.fill(r, off, off + n * n, Double.NaN);
+                    }
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, a.getShape(), r);
+    }
+    // </editor-fold>
+
     // Function to get cofactor of  
     // mat[p][q] in temp[][]. n is  
     // current dimension of mat[][] 
@@ -497,7 +867,7 @@ public class LinalgUtil {
      /* Recursive function for finding determinant 
     of matrix. n is current dimension of mat[][]. */
     public static double determinantOfMatrix(double mat[][], int n, int N) {
-        int D = 0; // Initialize result 
+        double D = 0; // Initialize result 
 
          // Base case : if matrix contains single 
         // element 
@@ -527,14 +897,15 @@ public class LinalgUtil {
     }
 
      /**
-     * Calculate determinant of a matrix array
+     * Calculate determinant of a matrix array by LU decomposition
      *
      * @param mat Input array
      * @return Determinant
      */
     public static double determinantOfMatrix(Array mat) {
-        int n = mat.getShape()[0];
-        double[][] a = (double[][]) ArrayUtil.copyToNDJavaArray(mat);
-        return determinantOfMatrix(a, n, n);
+        if (mat.getRank() != 2) {
+            throw new IllegalArgumentException("The array must be 2 dimensions");
+        }
+        return det(mat).getDouble(0);
     }
 }
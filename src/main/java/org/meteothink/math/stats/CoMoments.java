@@ -0,0 +1,225 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.stats;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+
+/**
+ * Streaming accumulator of the co-moments of two variables - count, means,
+ * sums of squared deviations and sum of cross deviations. Pairs with a NaN
+ * value are skipped. Chunks and accumulators are combined like
+ * {@link Moments}, and the covariance and the Pearson correlation are
+ * computed from the final state.
+ *
+ * @author Yaqiang Wang
+ */
+public class CoMoments {
+
+    private long n;
+    private double meanX;
+    private double meanY;
+    private double m2x;
+    private double m2y;
+    private double cxy;
+
+    /**
+     * Constructor
+     */
+    public CoMoments() {
+    }
+
+    /**
+     * Accumulate a pair of values
+     *
+     * @param x X value
+     * @param y Y value
+     */
+    public void update(double x, double y) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            return;
+        }
+        n += 1;
+        double dx = x - meanX;
+        meanX += dx / n;
+        double dy = y - meanY;
+        meanY += dy / n;
+        m2x += dx * (x - meanX);
+        m2y += dy * (y - meanY);
+        cxy += dx * (y - meanY);
+    }
+
+    /**
+     * Accumulate the value pairs of two arrays
+     *
+     * @param x X array
+     * @param y Y array - same size as x
+     */
+    public void update(Array x, Array y) {
+        if (x.getSize() != y.getSize()) {
+            throw new IllegalArgumentException("The arrays must have the same size");
+        }
+        final Array xs = x.getIndexPrivate().isFastIterator() ? x : x.copy();
+        final Array ys = y.getIndexPrivate().isFastIterator() ? y : y.copy();
+        final ConcurrentSkipListMap<Integer, CoMoments> parts = new ConcurrentSkipListMap<>();
+        ParallelUtil.forRange(xs.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                CoMoments m = new CoMoments();
+                double sx = 0, sy = 0;
+                int c = 0;
+                for (int i = from; i < to; i++) {
+                    double vx = xs.getDouble(i), vy = ys.getDouble(i);
+                    if (!Double.isNaN(vx) && !Double.isNaN(vy)) {
+                        sx += vx;
+                        sy += vy;
+                        c += 1;
+                    }
+                }
+                if (c > 0) {
+                    double mx = sx / c, my = sy / c;
+                    double qx = 0, qy = 0, qxy = 0;
+                    for (int i = from; i < to; i++) {
+                        double vx = xs.getDouble(i), vy = ys.getDouble(i);
+                        if (!Double.isNaN(vx) && !Double.isNaN(vy)) {
+                            qx += (vx - mx) * (vx - mx);
+                            qy += (vy - my) * (vy - my);
+                            qxy += (vx - mx) * (vy - my);
+                        }
+                    }
+                    m.n = c;
+                    m.meanX = mx;
+                    m.meanY = my;
+                    m.m2x = qx;
+                    m.m2y = qy;
+                    m.cxy = qxy;
+                }
+                parts.put(from, m);
+            }
+        });
+        for (CoMoments m : parts.values()) {
+            merge(m);
+        }
+    }
+
+    /**
+     * Combine another accumulator into this one
+     *
+     * @param other The other accumulator
+     */
+    public void merge(CoMoments other) {
+        if (other.n == 0) {
+            return;
+        }
+        if (n == 0) {
+            n = other.n;
+            meanX = other.meanX;
+            meanY = other.meanY;
+            m2x = other.m2x;
+            m2y = other.m2y;
+            cxy = other.cxy;
+            return;
+        }
+        long nn = n + other.n;
+        double f = (double) n * other.n / nn;
+        double dx = other.meanX - meanX;
+        double dy = other.meanY - meanY;
+        meanX += dx * other.n / nn;
+        meanY += dy * other.n / nn;
+        m2x += other.m2x + dx * dx * f;
+        m2y += other.m2y + dy * dy * f;
+        cxy += other.cxy + dx * dy * f;
+        n = nn;
+    }
+
+    /**
+     * Get number of the valid pairs
+     *
+     * @return Count
+     */
+    public long getCount() {
+        return n;
+    }
+
+    /**
+     * Get mean of x
+     *
+     * @return Mean, NaN if there are no values
+     */
+    public double getMeanX() {
+        return n == 0 ? Double.NaN : meanX;
+    }
+
+    /**
+     * Get mean of y
+     *
+     * @return Mean, NaN if there are no values
+     */
+    public double getMeanY() {
+        return n == 0 ? Double.NaN : meanY;
+    }
+
+    /**
+     * Get variance of x
+     *
+     * @param ddof Delta degrees of freedom - the divisor is count - ddof
+     * @return Variance, NaN if the count is not larger than ddof
+     */
+    public double getVarianceX(int ddof) {
+        return n <= ddof ? Double.NaN : m2x / (n - ddof);
+    }
+
+    /**
+     * Get variance of y
+     *
+     * @param ddof Delta degrees of freedom - the divisor is count - ddof
+     * @return Variance, NaN if the count is not larger than ddof
+     */
+    public double getVarianceY(int ddof) {
+        return n <= ddof ? Double.NaN : m2y / (n - ddof);
+    }
+
+    /**
+     * Get covariance
+     *
+     * @param bias If true, the covariance is bias-corrected (divided by count
+     * - 1), the same as StatsUtil.covariance
+     * @return Covariance
+     */
+    public double getCovariance(boolean bias) {
+        int ddof = bias ? 1 : 0;
+        return n <= ddof ? Double.NaN : cxy / (n - ddof);
+    }
+
+    /**
+     * Get Pearson correlation coefficient
+     *
+     * @return Correlation coefficient
+     */
+    public double getCorrelation() {
+        if (n < 2) {
+            return Double.NaN;
+        }
+        return cxy / Math.sqrt(m2x * m2y);
+    }
+
+    /**
+     * Get Pearson correlation coefficient and its two-sided p-value
+     *
+     * @return Correlation coefficient and p-value
+     */
+    public double[] pearsonr() {
+        double r = getCorrelation();
+        if (n < 3 || Double.isNaN(r)) {
+            return new double[]{r, Double.NaN};
+        }
+        double t = Math.abs(r * Math.sqrt((n - 2) / (1 - r * r)));
+        double p = 2 * new TDistribution(n - 2).cumulativeProbability(-t);
+        return new double[]{r, p};
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.stats;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.math.ReduceUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Correlation and linear regression of every grid point along an axis, such
+ * as correlation and trend maps of (time, lat, lon) fields. Blocks of
+ * neighbouring lanes are accumulated together, so each step along the axis
+ * reads a contiguous run of the storage, with the co-moments updated by
+ * Welford's method. Pairs with a NaN value are deleted pairwise. Blocks are
+ * processed in parallel.
+ *
+ * @author Yaqiang Wang
+ */
+public class CorrelationUtil {
+
+    //number of neighbouring lanes accumulated together
+    private static final int BLOCK = 256;
+
+    private static final int COUNT = 0;
+    private static final int R = 1;
+    private static final int P = 2;
+    private static final int SLOPE = 3;
+    private static final int INTERCEPT = 4;
+    private static final int STDERR = 5;
+
+    /**
+     * Calculates the Pearson correlation coefficients along an axis
+     *
+     * @param x X data - same shape as y, or 1-D with the length of the axis
+     * @param y Y data
+     * @param axis The axis
+     * @return Correlation coefficient and two-sided p-value arrays
+     */
+    public static Array[] pearsonr(Array x, Array y, int axis) {
+        double[][] r = compute(x, y, axis, false);
+        int[] shape = ReduceUtil.reduceShape(y.getShape(), axis);
+        return new Array[]{Array.factory(DataType.DOUBLE, shape, r[R]),
+            Array.factory(DataType.DOUBLE, shape, r[P])};
+    }
+
+    /**
+     * Calculates the linear least-squares regressions of y on x along an axis
+     *
+     * @param x X data - same shape as y, or 1-D with the length of the axis
+     * such as the time coordinate for trends
+     * @param y Y data
+     * @param axis The axis
+     * @return Slope, intercept, correlation coefficient, two-sided p-value for
+     * a hypothesis test whose null hypothesis is that the slope is zero,
+     * standard error of the slope and valid data number arrays
+     */
+    public static Array[] linregress(Array x, Array y, int axis) {
+        double[][] r = compute(x, y, axis, true);
+        int[] shape = ReduceUtil.reduceShape(y.getShape(), axis);
+        Array[] rs = new Array[6];
+        int[] order = new int[]{SLOPE, INTERCEPT, R, P, STDERR, COUNT};
+        for (int i = 0; i < 6; i++) {
+            rs[i] = Array.factory(DataType.DOUBLE, shape, r[order[i]]);
+        }
+        return rs;
+    }
+
+    private static double[][] compute(final Array x, final Array y, int axis, final boolean regress) {
+        int[] shape = y.getShape();
+        final int len = shape[axis];
+        final boolean series = x.getRank() == 1 && y.getRank() > 1;
+        if (series) {
+            if (x.getSize() != len) {
+                throw new IllegalArgumentException("The length of x must be the length of the axis");
+            }
+        } else if (!Arrays.equals(x.getShape(), shape)) {
+            throw new IllegalArgumentException("The arrays must have the same shape");
+        }
+        final int[] ylanes = ReduceUtil.laneOffsets(y, axis);
+        final int ystride = ReduceUtil.axisStride(y, axis);
+        final int[] xlanes = series ? null : ReduceUtil.laneOffsets(x, axis);
+        final int xstride = series ? 0 : ReduceUtil.axisStride(x, axis);
+        final double[] xs = new double[len];
+        if (series) {
+            for (int k = 0; k < len; k++) {
+                xs[k] = x.getDouble(x.getIndexPrivate().getOffset() + k * x.getIndexPrivate().getStride()[0]);
+            }
+        }
+        Object s = y.getStorage();
+        final double[] yd = s instanceof double[] ? (double[]) s : null;
+        s = x.getStorage();
+        final double[] xd = s instanceof double[] ? (double[]) s : null;
+        final int n = ylanes.length;
+        final double[][] r = new double[regress ? 6 : 3][n];
+        int nb = (n + BLOCK - 1) / BLOCK;
+        ParallelUtil.forRange(nb, Math.max(1, ParallelUtil.getThreshold() / (BLOCK * Math.max(1, len))),
+                new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                int[] c = new int[BLOCK];
+                double[] mx = new double[BLOCK], my = new double[BLOCK];
+                double[] sxx = new double[BLOCK], syy = new double[BLOCK], sxy = new double[BLOCK];
+                Map<Integer, TDistribution> dists = new HashMap<>();
+                for (int b = from; b < to; b++) {
+                    int l0 = b * BLOCK;
+                    int m = Math.min(BLOCK, n - l0);
+                    for (int i = 0; i < m; i++) {
+                        c[i] = 0;
+                        mx[i] = 0;
+                        my[i] = 0;
+                        sxx[i] = 0;
+                        syy[i] = 0;
+                        sxy[i] = 0;
+                    }
+                    for (int k = 0; k < len; k++) {
+                        double vx = xs[k];
+                        for (int i = 0; i < m; i++) {
+                            int yo = ylanes[l0 + i] + k * ystride;
+                            double vy = yd == null ? y.getDouble(yo) : yd[yo];
+                            if (!series) {
+                                int xo = xlanes[l0 + i] + k * xstride;
+                                vx = xd == null ? x.getDouble(xo) : xd[xo];
+                            }
+                            if (Double.isNaN(vx) || Double.isNaN(vy)) {
+                                continue;
+                            }
+                            int cc = ++c[i];
+                            double dx = vx - mx[i];
+                            mx[i] += dx / cc;
+                            double dy = vy - my[i];
+                            my[i] += dy / cc;
+                            sxx[i] += dx * (vx - mx[i]);
+                            syy[i] += dy * (vy - my[i]);
+                            sxy[i] += dx * (vy - my[i]);
+                        }
+                    }
+                    for (int i = 0; i < m; i++) {
+                        finish(r, l0 + i, c[i], mx[i], my[i], sxx[i], syy[i], sxy[i], regress, dists);
+                    }
+                }
+            }
+        });
+
+        return r;
+    }
+
+    private static void finish(double[][] r, int l, int n, double mx, double my, double sxx, double syy,
+            double sxy, boolean regress, Map<Integer, TDistribution> dists) {
+        double cor = Double.NaN, p = Double.NaN;
+        if (n >= 2) {
+            cor = sxy / Math.sqrt(sxx * syy);
+            if (cor > 1) {
+                cor = 1;
+            } else if (cor < -1) {
+                cor = -1;
+            }
+        }
+        int df = n - 2;
+        if (df > 0 && !Double.isNaN(cor)) {
+            double t = Math.abs(cor * Math.sqrt(df / (1 - cor * cor)));
+            TDistribution dist = dists.get(df);
+            if (dist == null) {
+                dist = new TDistribution(null, df);
+                dists.put(df, dist);
+            }
+            p = 2 * dist.cumulativeProbability(-t);
+        }
+        r[R][l] = cor;
+        r[P][l] = p;
+        r[COUNT][l] = n;
+        if (regress) {
+            double slope = n >= 2 ? sxy / sxx : Double.NaN;
+            r[SLOPE][l] = slope;
+            r[INTERCEPT][l] = my - slope * mx;
+            r[STDERR][l] = df > 0 ? Math.sqrt(Math.max(syy - slope * sxy, 0) / df / sxx) : Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.stats;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.meteothink.math.KDTree;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+import org.meteothink.ndarray.DataType;
+
+/**
+ * Gaussian kernel density estimate. The data points are whitened once with
+ * the Cholesky factor of the inverse kernel covariance, so the kernel energy
+ * of a point pair is half their squared Euclidean distance. Evaluation runs
+ * over tiles of query points and data points in parallel. With a cutoff
+ * distance the data points far from a query point are skipped by a K-D tree
+ * ball search.
+ *
+ * @author Yaqiang Wang
+ */
+public class KernelDensity {
+
+    //tile sizes of the query points and the data points
+    private static final int QUERY_TILE = 16;
+    private static final int DATA_TILE = 512;
+
+    private final int dim;
+    private final int num;
+    private final double[] factor;
+    private final double[] data;
+    private final double normFactor;
+    private KDTree.Euclidean<Integer> tree;
+
+    /**
+     * Constructor
+     *
+     * @param dataset Data points - dimension number x point number
+     * @param invCov Inverse of the kernel covariance matrix - dimension number
+     * x dimension number
+     * @param normFactor Normalization factor the density sums are divided by
+     */
+    public KernelDensity(Array dataset, Array invCov, double normFactor) {
+        int[] shape = dataset.getShape();
+        if (shape.length != 2) {
+            throw new IllegalArgumentException("The dataset must be 2 dimension");
+        }
+        this.dim = shape[0];
+        this.num = shape[1];
+        int[] cshape = invCov.getShape();
+        if (cshape.length != 2 || cshape[0] != dim || cshape[1] != dim) {
+            throw new IllegalArgumentException("The inverse covariance must be " + dim + " x " + dim);
+        }
+        this.factor = cholesky(invCov, dim);
+        this.data = whiten(dataset, num);
+        this.normFactor = normFactor;
+    }
+
+    /**
+     * Get dimension number
+     *
+     * @return Dimension number
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * Get data point number
+     *
+     * @return Data point number
+     */
+    public int getNum() {
+        return num;
+    }
+
+    /**
+     * Lower Cholesky factor of the symmetric part of a matrix, packed row major
+     */
+    private static double[] cholesky(Array a, int n) {
+        if (!a.getIndexPrivate().isFastIterator()) {
+            a = a.copy();
+        }
+        double[] l = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = (a.getDouble(i * n + j) + a.getDouble(j * n + i)) / 2;
+                for (int k = 0; k < j; k++) {
+                    s -= l[i * n + k] * l[j * n + k];
+                }
+                if (i == j) {
+                    if (!(s > 0)) {
+                        throw new IllegalArgumentException("The inverse covariance matrix is not positive definite");
+                    }
+                    l[i * n + i] = Math.sqrt(s);
+                } else {
+                    l[i * n + j] = s / l[j * n + j];
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Whiten points (dimension number x point number) into packed point
+     * coordinates: y = L^T x
+     */
+    private double[] whiten(Array points, int m) {
+        final Array src = points.getIndexPrivate().isFastIterator() ? points : points.copy();
+        final int n = m;
+        final double[] r = new double[n * dim];
+        ParallelUtil.forRange(n, Math.max(1, ParallelUtil.getThreshold() / (dim * dim)), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                double[] x = new double[dim];
+                for (int p = from; p < to; p++) {
+                    for (int k = 0; k < dim; k++) {
+                        x[k] = src.getDouble(k * n + p);
+                    }
+                    for (int j = 0; j < dim; j++) {
+                        double s = 0;
+                        for (int k = j; k < dim; k++) {
+                            s += factor[k * dim + j] * x[k];
+                        }
+                        r[p * dim + j] = s;
+                    }
+                }
+            }
+        });
+        return r;
+    }
+
+    private double[] whitenPoints(Array points) {
+        int[] shape = points.getShape();
+        if (shape.length != 2 || shape[0] != dim) {
+            throw new IllegalArgumentException("The points must have dimension " + dim);
+        }
+        return whiten(points, shape[1]);
+    }
+
+    /**
+     * Evaluate the density on a set of points. All data points are included.
+     *
+     * @param points The points - dimension number x point number
+     * @return Density of the points
+     */
+    public Array evaluate(Array points) {
+        final double[] q = whitenPoints(points);
+        final int m = q.length / dim;
+        final double[] r = new double[m];
+        if (m >= QUERY_TILE * ParallelUtil.getParallelism()) {
+            //parallel over the query points
+            ParallelUtil.forRange(m, QUERY_TILE, new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    sum(q, from, to, 0, num, r);
+                }
+            });
+        } else {
+            //few query points - parallel over the data points, partial sums
+            //added in the order of the chunks
+            final ConcurrentSkipListMap<Integer, double[]> parts = new ConcurrentSkipListMap<>();
+            ParallelUtil.forRange(num, Math.max(DATA_TILE, ParallelUtil.getThreshold() / Math.max(1, m * dim)),
+                    new ParallelUtil.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    double[] s = new double[m];
+                    sum(q, 0, m, from, to, s);
+                    parts.put(from, s);
+                }
+            });
+            for (double[] s : parts.values()) {
+                for (int i = 0; i < m; i++) {
+                    r[i] += s[i];
+                }
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            r[i] /= normFactor;
+        }
+
+        return Array.factory(DataType.DOUBLE, new int[]{m}, r);
+    }
+
+    /**
+     * Add the kernel sums of data points [pFrom, pTo) to query points [qFrom,
+     * qTo), tile by tile
+     */
+    private void sum(double[] q, int qFrom, int qTo, int pFrom, int pTo, double[] r) {
+        for (int q0 = qFrom; q0 < qTo; q0 += QUERY_TILE) {
+            int q1 = Math.min(q0 + QUERY_TILE, qTo);
+            for (int p0 = pFrom; p0 < pTo; p0 += DATA_TILE) {
+                int p1 = Math.min(p0 + DATA_TILE, pTo);
+                for (int i = q0; i < q1; i++) {
+                    int qo = i * dim;
+                    double s = 0;
+                    if (dim == 1) {
+                        double y = q[qo];
+                        for (int p = p0; p < p1; p++) {
+                            double t = y - data[p];
+                            s += Math.exp(-0.5 * t * t);
+                        }
+                    } else {
+                        for (int p = p0, po = p0 * dim; p < p1; p++) {
+                            double e = 0;
+                            for (int k = 0; k < dim; k++, po++) {
+                                double t = q[qo + k] - data[po];
+                                e += t * t;
+                            }
+                            s += Math.exp(-0.5 * e);
+                        }
+                    }
+                    r[i] += s;
+                }
+            }
+        }
+    }
+
+    private synchronized KDTree.Euclidean<Integer> getTree() {
+        if (tree == null) {
+            tree = KDTree.Euclidean.build(Array.factory(DataType.DOUBLE, new int[]{num, dim}, data));
+        }
+        return tree;
+    }
+
+    /**
+     * Evaluate the density on a set of points, skipping the data points
+     * farther than a cutoff from each point. The distance is measured in
+     * kernel bandwidths (Mahalanobis distance), so the relative contribution
+     * of a skipped data point is less than exp(-cutoff^2 / 2).
+     *
+     * @param points The points - dimension number x point number
+     * @param cutoff Cutoff distance - no cutoff if not positive or infinite
+     * @return Density of the points
+     */
+    public Array evaluate(Array points, double cutoff) {
+        if (!(cutoff > 0) || Double.isInfinite(cutoff)) {
+            return evaluate(points);
+        }
+        final double[] q = whitenPoints(points);
+        final int m = q.length / dim;
+        final double[] r = new double[m];
+        final double radius = cutoff * cutoff;
+        final KDTree.Euclidean<Integer> t = getTree();
+        t.query(m, new KDTree.QueryTask() {
+            @Override
+            public void run(KDTree.QueryContext context, int from, int to) {
+                double[] location = new double[dim];
+                for (int i = from; i < to; i++) {
+                    System.arraycopy(q, i * dim, location, 0, dim);
+                    int n = t.ballSearch(location, radius, context);
+                    double s = 0;
+                    for (int k = 0; k < n; k++) {
+                        s += Math.exp(-0.5 * context.getDistance(k));
+                    }
+                    r[i] = s / normFactor;
+                }
+            }
+        });
+
+        return Array.factory(DataType.DOUBLE, new int[]{m}, r);
+    }
+}
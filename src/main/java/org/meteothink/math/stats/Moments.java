@@ -0,0 +1,224 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.stats;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+
+/**
+ * Streaming accumulator of count, mean, sum of squared deviations (M2),
+ * minimum and maximum. Array chunks are accumulated in parallel pieces with
+ * two pass moments, and pieces and accumulators are combined with the
+ * pairwise update of Chan et al., so the data never need to be held at once.
+ * NaN values are skipped.
+ *
+ * @author Yaqiang Wang
+ */
+public class Moments {
+
+    private long n;
+    private double mean;
+    private double m2;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * Constructor
+     */
+    public Moments() {
+    }
+
+    /**
+     * Accumulate a value
+     *
+     * @param v The value
+     */
+    public void update(double v) {
+        if (Double.isNaN(v)) {
+            return;
+        }
+        n += 1;
+        double d = v - mean;
+        mean += d / n;
+        m2 += d * (v - mean);
+        if (n == 1) {
+            min = v;
+            max = v;
+        } else if (v < min) {
+            min = v;
+        } else if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Accumulate the values of an array
+     *
+     * @param a The array
+     */
+    public void update(Array a) {
+        final Array src = a.getIndexPrivate().isFastIterator() ? a : a.copy();
+        final ConcurrentSkipListMap<Integer, Moments> parts = new ConcurrentSkipListMap<>();
+        ParallelUtil.forRange(src.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                Moments m = new Moments();
+                double sum = 0, lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+                int c = 0;
+                for (int i = from; i < to; i++) {
+                    double v = src.getDouble(i);
+                    if (!Double.isNaN(v)) {
+                        sum += v;
+                        c += 1;
+                        if (v < lo) {
+                            lo = v;
+                        }
+                        if (v > hi) {
+                            hi = v;
+                        }
+                    }
+                }
+                if (c > 0) {
+                    double mu = sum / c, s = 0;
+                    for (int i = from; i < to; i++) {
+                        double v = src.getDouble(i);
+                        if (!Double.isNaN(v)) {
+                            s += (v - mu) * (v - mu);
+                        }
+                    }
+                    m.n = c;
+                    m.mean = mu;
+                    m.m2 = s;
+                    m.min = lo;
+                    m.max = hi;
+                }
+                parts.put(from, m);
+            }
+        });
+        for (Moments m : parts.values()) {
+            merge(m);
+        }
+    }
+
+    /**
+     * Combine another accumulator into this one
+     *
+     * @param other The other accumulator
+     */
+    public void merge(Moments other) {
+        if (other.n == 0) {
+            return;
+        }
+        if (n == 0) {
+            n = other.n;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+        long nn = n + other.n;
+        double d = other.mean - mean;
+        mean += d * other.n / nn;
+        m2 += other.m2 + d * d * ((double) n * other.n / nn);
+        n = nn;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Get number of the valid values
+     *
+     * @return Count
+     */
+    public long getCount() {
+        return n;
+    }
+
+    /**
+     * Get sum
+     *
+     * @return Sum, NaN if there are no values
+     */
+    public double getSum() {
+        return n == 0 ? Double.NaN : mean * n;
+    }
+
+    /**
+     * Get mean
+     *
+     * @return Mean, NaN if there are no values
+     */
+    public double getMean() {
+        return n == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Get sum of squared deviations from the mean
+     *
+     * @return M2
+     */
+    public double getM2() {
+        return n == 0 ? Double.NaN : m2;
+    }
+
+    /**
+     * Get variance
+     *
+     * @param ddof Delta degrees of freedom - the divisor is count - ddof
+     * @return Variance, NaN if the count is not larger than ddof
+     */
+    public double getVariance(int ddof) {
+        return n <= ddof ? Double.NaN : m2 / (n - ddof);
+    }
+
+    /**
+     * Get population variance
+     *
+     * @return Variance
+     */
+    public double getVariance() {
+        return getVariance(0);
+    }
+
+    /**
+     * Get standard deviation
+     *
+     * @param ddof Delta degrees of freedom - the divisor is count - ddof
+     * @return Standard deviation, NaN if the count is not larger than ddof
+     */
+    public double getStd(int ddof) {
+        return Math.sqrt(getVariance(ddof));
+    }
+
+    /**
+     * Get population standard deviation
+     *
+     * @return Standard deviation
+     */
+    public double getStd() {
+        return getStd(0);
+    }
+
+    /**
+     * Get minimum
+     *
+     * @return Minimum, NaN if there are no values
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Get maximum
+     *
+     * @return Maximum, NaN if there are no values
+     */
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.meteothink.math.stats;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.meteothink.math.ParallelUtil;
+import org.meteothink.ndarray.Array;
+
+/**
+ * Streaming approximate quantile sketch (merging t-digest). Values are
+ * buffered and merged into sorted weighted centroids, which are small near
+ * both tails and larger near the median, so the memory stays bounded by the
+ * compression whatever the number of values. Sketches can be merged.
+ * Percentiles are interpolated between the centroids with the same position
+ * estimation as StatsUtil.percentile, which they equal exactly as long as no
+ * values have been combined into centroids. NaN values are skipped.
+ *
+ * @author Yaqiang Wang
+ */
+public class QuantileSketch {
+
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int size;
+    private double[] buffer;
+    private int bufSize;
+    private double total;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * Constructor
+     */
+    public QuantileSketch() {
+        this(200);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param compression Compression - larger values keep more centroids and
+     * give more accurate quantiles
+     */
+    public QuantileSketch(double compression) {
+        if (!(compression >= 10)) {
+            throw new IllegalArgumentException("The compression must be at least 10");
+        }
+        this.compression = compression;
+        int cap = (int) Math.ceil(compression) * 2 + 10;
+        this.means = new double[cap];
+        this.weights = new double[cap];
+        this.buffer = new double[cap * 5];
+    }
+
+    /**
+     * Accumulate a value
+     *
+     * @param v The value
+     */
+    public void update(double v) {
+        if (Double.isNaN(v)) {
+            return;
+        }
+        if (bufSize == buffer.length) {
+            flush();
+        }
+        buffer[bufSize++] = v;
+        if (total + bufSize == 1) {
+            min = v;
+            max = v;
+        } else if (v < min) {
+            min = v;
+        } else if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Accumulate the values of an array. Pieces of the array are sketched in
+     * parallel and merged in order.
+     *
+     * @param a The array
+     */
+    public void update(Array a) {
+        final Array src = a.getIndexPrivate().isFastIterator() ? a : a.copy();
+        final ConcurrentSkipListMap<Integer, QuantileSketch> parts = new ConcurrentSkipListMap<>();
+        ParallelUtil.forRange(src.getSize(), new ParallelUtil.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                QuantileSketch s = new QuantileSketch(compression);
+                for (int i = from; i < to; i++) {
+                    s.update(src.getDouble(i));
+                }
+                s.flush();
+                parts.put(from, s);
+            }
+        });
+        for (QuantileSketch s : parts.values()) {
+            merge(s);
+        }
+    }
+
+    /**
+     * Combine another sketch into this one
+     *
+     * @param other The other sketch
+     */
+    public void merge(QuantileSketch other) {
+        other.flush();
+        if (other.size == 0) {
+            return;
+        }
+        flush();
+        if (size == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        //merge the two sorted centroid lists, then compress them
+        int n = size + other.size;
+        double[] m = new double[n];
+        double[] w = new double[n];
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && means[i] <= other.means[j])) {
+                m[k] = means[i];
+                w[k++] = weights[i++];
+            } else {
+                m[k] = other.means[j];
+                w[k++] = other.weights[j++];
+            }
+        }
+        compress(m, w, n, total + other.total);
+    }
+
+    /**
+     * Merge the buffered values into the centroids
+     */
+    private void flush() {
+        if (bufSize == 0) {
+            return;
+        }
+        Arrays.sort(buffer, 0, bufSize);
+        int n = size + bufSize;
+        double[] m = new double[n];
+        double[] w = new double[n];
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < bufSize) {
+            if (j >= bufSize || (i < size && means[i] <= buffer[j])) {
+                m[k] = means[i];
+                w[k++] = weights[i++];
+            } else {
+                m[k] = buffer[j++];
+                w[k++] = 1;
+            }
+        }
+        double t = total + bufSize;
+        bufSize = 0;
+        compress(m, w, n, t);
+    }
+
+    /**
+     * Scale function - centroids may span one unit of k
+     */
+    private double k(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    /**
+     * Combine sorted weighted points into centroids
+     */
+    private void compress(double[] m, double[] w, int n, double t) {
+        if (n > means.length) {
+            means = new double[n];
+            weights = new double[n];
+        }
+        int c = 0;
+        double cm = m[0], cw = w[0];
+        double before = 0;
+        double kLeft = k(0);
+        for (int i = 1; i < n; i++) {
+            double q = (before + cw + w[i]) / t;
+            if (k(q) - kLeft <= 1) {
+                cw += w[i];
+                cm += (m[i] - cm) * w[i] / cw;
+            } else {
+                means[c] = cm;
+                weights[c++] = cw;
+                before += cw;
+                kLeft = k(before / t);
+                cm = m[i];
+                cw = w[i];
+            }
+        }
+        means[c] = cm;
+        weights[c++] = cw;
+        size = c;
+        total = t;
+    }
+
+    /**
+     * Get number of the values
+     *
+     * @return Count
+     */
+    public long getCount() {
+        return (long) (total + bufSize);
+    }
+
+    /**
+     * Get number of the centroids
+     *
+     * @return Centroid number
+     */
+    public int getCentroidCount() {
+        flush();
+        return size;
+    }
+
+    /**
+     * Get an approximate percentile
+     *
+     * @param p The percentile - (0, 100]
+     * @return Percentile value, NaN if there are no values
+     */
+    public double percentile(double p) {
+        if (!(p > 0 && p <= 100)) {
+            throw new IllegalArgumentException("The percentile must be in (0, 100]");
+        }
+        flush();
+        if (size == 0) {
+            return Double.NaN;
+        }
+        //centroid i is centered at cumulative weight before + weight / 2, so
+        //unit weight centroids are at 0.5, 1.5, ... like sorted values at
+        //positions 1, 2, ... shifted by a half
+        double pos = p * (total + 1) / 100 - 0.5;
+        if (pos < 0.5) {
+            return min;
+        }
+        if (pos >= total - 0.5) {
+            return max;
+        }
+        double before = 0;
+        double prevCenter = 0.5, prevMean = min;
+        for (int i = 0; i < size; i++) {
+            double center = before + weights[i] / 2;
+            if (center >= pos) {
+                if (i == 0) {
+                    return center > 0.5 ? min + (means[0] - min) * (pos - 0.5) / (center - 0.5) : means[0];
+                }
+                return prevMean + (means[i] - prevMean) * (pos - prevCenter) / (center - prevCenter);
+            }
+            prevCenter = center;
+            prevMean = means[i];
+            before += weights[i];
+        }
+        //between the last centroid and the maximum
+        double end = total - 0.5;
+        return end > prevCenter ? prevMean + (max - prevMean) * (pos - prevCenter) / (end - prevCenter) : max;
+    }
+
+    /**
+     * Get approximate percentiles
+     *
+     * @param p The percentiles - (0, 100]
+     * @return Percentile values
+     */
+    public double[] percentile(double[] p) {
+        double[] r = new double[p.length];
+        for (int i = 0; i < p.length; i++) {
+            r[i] = percentile(p[i]);
+        }
+        return r;
+    }
+
+    /**
+     * Get minimum
+     *
+     * @return Minimum, NaN if there are no values
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Get maximum
+     *
+     * @return Maximum, NaN if there are no values
+     */
+    public double getMax() {
+        return max;
+    }
+}
@@ -5,12 +5,9 @@
  */
 package org.meteothink.math.stats;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.stat.StatUtils;
 import org.apache.commons.math3.stat.correlation.Covariance;
 import org.apache.commons.math3.stat.correlation.KendallsCorrelation;
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
@@ -19,13 +16,13 @@ import org.apache.commons.math3.stat.inference.TestUtils;
 import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
 import org.meteothink.math.ArrayMath;
 import org.meteothink.math.ArrayUtil;
+import org.meteothink.math.ReduceUtil;
+import org.meteothink.math.SelectUtil;
 import org.meteothink.ndarray.Array;
 import org.meteothink.ndarray.DataType;
 import org.meteothink.ndarray.Index;
-import org.meteothink.ndarray.IndexIterator;
 import org.meteothink.ndarray.InvalidRangeException;
 import org.meteothink.ndarray.MAMath;
-import org.meteothink.ndarray.Range;
 
 /**
  *
@@ -181,45 +178,21 @@ public class StatsUtil {
      * @throws InvalidRangeException
      */
     public static Array[] pearsonr(Array x, Array y, int axis) throws InvalidRangeException {
-        int[] dataShape = x.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        Array pv = Array.factory(DataType.DOUBLE, shape);
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            Array xx = ArrayMath.section(x, ranges);
-            Array yy = ArrayMath.section(y, ranges);
-            double[] rp = pearsonr(xx, yy);
-            r.setDouble(i, rp[0]);
-            pv.setDouble(i, rp[1]);
-            indexr.incr();
-        }
-        
-        return new Array[]{r, pv};
+        return CorrelationUtil.pearsonr(x, y, axis);
+    }
+    
+    /**
+     * Calculates linear least-squares regressions along an axis, such as the
+     * trends of every grid point of a (time, lat, lon) field.
+     *
+     * @param x X data - same shape as y, or 1-D with the length of the axis
+     * @param y Y data
+     * @param axis Special axis for calculation
+     * @return Slope, intercept, correlation coefficient, two-sided p-value,
+     * standard error of the slope and valid data number arrays
+     */
+    public static Array[] linregress(Array x, Array y, int axis) {
+        return CorrelationUtil.linregress(x, y, axis);
     }
     
     /**
@@ -339,9 +312,7 @@ public class StatsUtil {
      * @return The pth percentile
      */
     public static double percentile(Array a, double p){
-        double[] v = (double[])a.get1DJavaArray(Double.class);
-        double r = StatUtils.percentile(v, p);
-        return r;
+        return SelectUtil.percentile(a, new double[]{p})[0];
     }
     
     /**
@@ -353,43 +324,29 @@ public class StatsUtil {
      * @throws InvalidRangeException 
      */
     public static Array percentile(Array a, double p, int axis) throws InvalidRangeException{
-        int[] dataShape = a.getShape();
-        int[] shape = new int[dataShape.length - 1];
-        int idx;
-        for (int i = 0; i < dataShape.length; i++) {
-            idx = i;
-            if (idx == axis) {
-                continue;
-            } else if (idx > axis) {
-                idx -= 1;
-            }
-            shape[idx] = dataShape[i];
-        }
-        Array r = Array.factory(DataType.DOUBLE, shape);
-        Index indexr = r.getIndex();
-        int[] current;
-        for (int i = 0; i < r.getSize(); i++) {
-            current = indexr.getCurrentCounter();
-            List<Range> ranges = new ArrayList<>();
-            for (int j = 0; j < dataShape.length; j++) {
-                if (j == axis) {
-                    ranges.add(new Range(0, dataShape[j] - 1, 1));
-                } else {
-                    idx = j;
-                    if (idx > axis) {
-                        idx -= 1;
-                    }
-                    ranges.add(new Range(current[idx], current[idx], 1));
-                }
-            }
-            Array aa = ArrayMath.section(a, ranges);
-            double[] v = (double[])aa.get1DJavaArray(Double.class);
-            double q = StatUtils.percentile(v, p);
-            r.setDouble(i, q);
-            indexr.incr();
-        }
+        Array r = SelectUtil.percentile(a, new double[]{p}, axis);
+        return r.reshapeNoCopy(ReduceUtil.reduceShape(r.getShape(), 0));
+    }
 
-        return r;
+    /**
+     * Returns estimates of several percentiles of the values in the array.
+     * @param a Input array
+     * @param p The percentile values to compute
+     * @return The percentiles
+     */
+    public static Array percentile(Array a, double[] p){
+        return Array.factory(DataType.DOUBLE, new int[]{p.length}, SelectUtil.percentile(a, p));
+    }
+    
+    /**
+     * Returns estimates of several percentiles of the values in the array along an axis.
+     * @param a Input array
+     * @param p The percentile values to compute
+     * @param axis The axis
+     * @return The percentiles - the first dimension is the percentiles
+     */
+    public static Array percentile(Array a, double[] p, int axis){
+        return SelectUtil.percentile(a, p, axis);
     }
     
     /**
@@ -561,12 +518,7 @@ public class StatsUtil {
      * @return Median
      */
     public static double median(List<Double> aDataList) {
-        Collections.sort(aDataList);
-        if (aDataList.size() % 2 == 0) {
-            return (aDataList.get(aDataList.size() / 2) + aDataList.get(aDataList.size() / 2 - 1)) / 2.0;
-        } else {
-            return aDataList.get(aDataList.size() / 2);
-        }
+        return quantile(aDataList, 2);
     }
 
     /**
@@ -577,37 +529,12 @@ public class StatsUtil {
      * @return Quantile value
      */
     public static double quantile(List<Double> aDataList, int aNum) {
-        Collections.sort(aDataList);
-        double aData = 0;
-        switch (aNum) {
-            case 0:
-                aData = minimum(aDataList);
-                break;
-            case 1:
-                if ((aDataList.size() + 1) % 4 == 0) {
-                    aData = aDataList.get((aDataList.size() + 1) / 4 - 1);
-                } else {
-                    aData = aDataList.get((aDataList.size() + 1) / 4 - 1) + 0.75 * (aDataList.get((aDataList.size() + 1) / 4)
-                            - aDataList.get((aDataList.size() + 1) / 4 - 1));
-                }
-                break;
-            case 2:
-                aData = median(aDataList);
-                break;
-            case 3:
-                if ((aDataList.size() + 1) % 4 == 0) {
-                    aData = aDataList.get((aDataList.size() + 1) * 3 / 4 - 1);
-                } else {
-                    aData = aDataList.get((aDataList.size() + 1) * 3 / 4 - 1) + 0.25 * (aDataList.get((aDataList.size() + 1) * 3 / 4)
-                            - aDataList.get((aDataList.size() + 1) * 3 / 4 - 1));
-                }
-                break;
-            case 4:
-                aData = maximum(aDataList);
-                break;
+        int n = aDataList.size();
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = aDataList.get(i);
         }
-
-        return aData;
+        return SelectUtil.quartile(v, n, aNum);
     }
 
     /**
@@ -618,18 +545,7 @@ public class StatsUtil {
      * @return Quantile value
      */
     public static double quantile(Array a, int aNum) {
-        List<Double> dlist = new ArrayList<>();
-        IndexIterator ii = a.getIndexIterator();
-        double v;
-        while (ii.hasNext()) {
-            v = ii.getDoubleNext();
-            if (!Double.isNaN(v))
-                dlist.add(v);
-        }
-        if (dlist.size() <= 3)
-            return Double.NaN;
-        else
-            return quantile(dlist, aNum);
+        return SelectUtil.quartile(a, aNum);
     }
 
     /**
@@ -640,18 +556,20 @@ public class StatsUtil {
      * @return Quantile value
      */
     public static double quantile(List<Double> aDataList, double qValue) {
-        Collections.sort(aDataList);
-        double aData;
-
+        int n = aDataList.size();
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = aDataList.get(i);
+        }
         if (qValue == 0) {
-            aData = minimum(aDataList);
+            return SelectUtil.quartile(v, n, 0);
         } else if (qValue == 1) {
-            aData = maximum(aDataList);
+            return SelectUtil.quartile(v, n, 4);
         } else {
-            aData = aDataList.get((int) (aDataList.size() * qValue) - 1);
+            int k = (int) (n * qValue) - 1;
+            SelectUtil.select(v, 0, n, k);
+            return v[k];
         }
-
-        return aData;
     }
 
     /**
@@ -502,6 +502,27 @@ public class Index implements Cloneable {
         return shape[index];
     }
 
+    /**
+     * Get the strides into the 1D backing array: element = offset +
+     * stride[0]*current[0] + ...
+     *
+     * @return copy of the strides
+     */
+    public int[] getStride() {
+        int[] result = new int[stride.length];  // optimization over clone
+        System.arraycopy(stride, 0, result, 0, stride.length);
+        return result;
+    }
+
+    /**
+     * Get the offset of the first element into the 1D backing array.
+     *
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
     /**
      * Get an index iterator for traversing the array in canonical order.
      *
@@ -60,6 +60,17 @@ public class IndexConstant extends Index {
     return 0;
   }
 
+  /** all elements map to the single stored value, so every stride is 0 */
+  @Override
+  public int[] getStride() {
+    return new int[rank];
+  }
+
+  @Override
+  public int getOffset() {
+    return 0;
+  }
+
   @Override
   Index flip(int index) {
     return this;